@@ -0,0 +1,48 @@
+package ir.sahab.ipfix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading all data records of a message in place by {@link DataRecordCursor}. Each
+ * operation handles one message, like {@link IpfixMessageBenchmark#decode}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DataRecordCursorBenchmark {
+
+    private final DataRecordCursor cursor = new DataRecordCursor();
+
+    @Benchmark
+    public long readFields(FlowState state) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        int end = messageBuffer.getShort(2) & 0xffff;
+        long sum = 0;
+        for (int offset = 16; offset < end; offset = cursor.getSetEnd()) {
+            TemplateRecord templateRecord =
+                    state.recordFactory.getTemplate(messageBuffer.getShort(offset) & 0xffff);
+            cursor.wrap(templateRecord, messageBuffer, offset);
+            while (cursor.next()) {
+                for (int i = 0; i < cursor.getFieldCount(); i++) {
+                    int length = cursor.getFieldLength(i);
+                    sum += length <= 8 ? cursor.getLong(i) : length;
+                }
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,43 @@
+package ir.sahab.ipfix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of field values. Each operation decodes all fields of one data record one by
+ * one, either as copies or as views into the message buffer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FieldSpecifierBenchmark {
+
+    @Benchmark
+    public void decodeValue(FlowState state, Blackhole blackhole) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        messageBuffer.position(state.firstRecordPosition);
+        for (FieldSpecifier fieldSpecifier : state.fieldSpecifiers) {
+            blackhole.consume(fieldSpecifier.decodeValue(messageBuffer));
+        }
+    }
+
+    @Benchmark
+    public void decodeValueView(FlowState state, Blackhole blackhole) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        messageBuffer.position(state.firstRecordPosition);
+        for (FieldSpecifier fieldSpecifier : state.fieldSpecifiers) {
+            blackhole.consume(fieldSpecifier.decodeValueView(messageBuffer));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ir.sahab.ipfix;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Per thread benchmark state holding a template, a record factory that knows the template and
+ * encoded messages of that template.
+ */
+@State(Scope.Thread)
+public class FlowState {
+
+    @Param
+    public FlowTemplate flowTemplate;
+
+    public RecordFactory recordFactory;
+    // Decodes in pooled record and zero-copy modes
+    public RecordFactory pooledRecordFactory;
+    public TemplateRecord templateRecord;
+    public FieldSpecifier[] fieldSpecifiers;
+    public IpfixMessage dataMessage;
+    public ByteBuffer dataMessageBuffer;
+    public ByteBuffer encodeBuffer;
+
+    /**
+     * Position of the first data record in {@link #dataMessageBuffer}, just after message and set
+     * headers.
+     */
+    public int firstRecordPosition;
+
+    @Setup
+    public void setup() throws IOException {
+        // Use a fixed seed so that all runs measure the same data.
+        Random random = new Random(42);
+
+        recordFactory = new RecordFactory();
+        IpfixMessage.decode(flowTemplate.newTemplateMessage().encode(), recordFactory);
+        pooledRecordFactory = new RecordFactory();
+        pooledRecordFactory.setRecordPooling(true);
+        pooledRecordFactory.setZeroCopyDecoding(true);
+        IpfixMessage.decode(flowTemplate.newTemplateMessage().encode(), pooledRecordFactory);
+
+        templateRecord = flowTemplate.newTemplate();
+        fieldSpecifiers = flowTemplate.newFieldSpecifiers();
+        dataMessage = flowTemplate.newDataMessage(random);
+        dataMessageBuffer = ByteBuffer.wrap(dataMessage.encode());
+        encodeBuffer = ByteBuffer.allocate(dataMessage.getLength());
+        firstRecordPosition = 16 + 4;
+    }
+}
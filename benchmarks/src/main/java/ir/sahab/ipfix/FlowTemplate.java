@@ -0,0 +1,185 @@
+package ir.sahab.ipfix;
+
+import java.util.Random;
+
+/**
+ * Realistic templates used by benchmarks. Each template comes with a generator of data records
+ * and can build template and data messages of a typical UDP export packet size.
+ */
+public enum FlowTemplate {
+
+    /**
+     * Classic NetFlow-like IPv4 5-tuple with counters and timestamps.
+     */
+    IPV4_FIVE_TUPLE(300,
+            fixed(8, 4),       // sourceIPv4Address
+            fixed(12, 4),      // destinationIPv4Address
+            fixed(7, 2),       // sourceTransportPort
+            fixed(11, 2),      // destinationTransportPort
+            fixed(4, 1),       // protocolIdentifier
+            fixed(6, 2),       // tcpControlBits
+            fixed(10, 4),      // ingressInterface
+            fixed(14, 4),      // egressInterface
+            fixed(1, 8),       // octetDeltaCount
+            fixed(2, 8),       // packetDeltaCount
+            fixed(152, 8),     // flowStartMilliseconds
+            fixed(153, 8)),    // flowEndMilliseconds
+
+    /**
+     * The same flow key and counters as {@link #IPV4_FIVE_TUPLE} with IPv6 addresses.
+     */
+    IPV6_FIVE_TUPLE(301,
+            fixed(27, 16),     // sourceIPv6Address
+            fixed(28, 16),     // destinationIPv6Address
+            fixed(7, 2),       // sourceTransportPort
+            fixed(11, 2),      // destinationTransportPort
+            fixed(4, 1),       // protocolIdentifier
+            fixed(6, 2),       // tcpControlBits
+            fixed(10, 4),      // ingressInterface
+            fixed(14, 4),      // egressInterface
+            fixed(1, 8),       // octetDeltaCount
+            fixed(2, 8),       // packetDeltaCount
+            fixed(152, 8),     // flowStartMilliseconds
+            fixed(153, 8)),    // flowEndMilliseconds
+
+    /**
+     * Application visibility records mixing fixed and variable length fields.
+     */
+    VARIABLE_LENGTH_MIX(302,
+            fixed(8, 4),       // sourceIPv4Address
+            fixed(12, 4),      // destinationIPv4Address
+            fixed(7, 2),       // sourceTransportPort
+            fixed(11, 2),      // destinationTransportPort
+            fixed(4, 1),       // protocolIdentifier
+            variable(82),         // interfaceName
+            variable(96),         // applicationName
+            variable(460),        // httpRequestHost
+            variable(461),        // httpRequestTarget
+            fixed(1, 8),       // octetDeltaCount
+            fixed(2, 8)),      // packetDeltaCount
+
+    /**
+     * IPv4 5-tuple extended with vendor specific fields.
+     */
+    ENTERPRISE(303,
+            fixed(8, 4),       // sourceIPv4Address
+            fixed(12, 4),      // destinationIPv4Address
+            fixed(7, 2),       // sourceTransportPort
+            fixed(11, 2),      // destinationTransportPort
+            fixed(4, 1),       // protocolIdentifier
+            fixed(1, 8),       // octetDeltaCount
+            fixed(2, 8),       // packetDeltaCount
+            enterprise(100, 4),
+            enterprise(101, 8),
+            enterpriseVariable(102),
+            enterprise(103, 16));
+
+    /**
+     * Private enterprise number used by enterprise specific fields of benchmark templates.
+     */
+    public static final long ENTERPRISE_NUMBER = 29305L;
+
+    /**
+     * Messages are filled with records up to this size, which is a typical UDP export payload.
+     */
+    public static final int MESSAGE_SIZE = 1400;
+
+    private static final int VARIABLE_LENGTH = 0xffff;
+
+    private final int templateId;
+    private final Field[] fields;
+
+    FlowTemplate(int templateId, Field... fields) {
+        this.templateId = templateId;
+        this.fields = fields;
+    }
+
+    public int getTemplateId() {
+        return templateId;
+    }
+
+    public FieldSpecifier[] newFieldSpecifiers() {
+        FieldSpecifier[] fieldSpecifiers = new FieldSpecifier[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            Field field = fields[i];
+            fieldSpecifiers[i] = field.enterpriseNum < 0 ?
+                    new FieldSpecifier(field.elementId, field.length) :
+                    new FieldSpecifier(field.elementId, field.length, field.enterpriseNum);
+        }
+        return fieldSpecifiers;
+    }
+
+    public TemplateRecord newTemplate() {
+        TemplateRecord templateRecord = new TemplateRecord(templateId);
+        for (FieldSpecifier fieldSpecifier : newFieldSpecifiers()) {
+            templateRecord.addField(fieldSpecifier);
+        }
+        return templateRecord;
+    }
+
+    public GenericRecord newRecord(Random random) {
+        GenericRecord record = new GenericRecord(newTemplate());
+        for (Field field : fields) {
+            boolean isVariableLength = field.length == VARIABLE_LENGTH;
+            // Variable length values resemble host names, paths and interface names.
+            int length = isVariableLength ? 4 + random.nextInt(60) : field.length;
+            byte[] value = new byte[length];
+            random.nextBytes(value);
+            record.addFieldValue(new FieldValue(value, isVariableLength));
+        }
+        return record;
+    }
+
+    /**
+     * @return a message containing a template set that defines this template.
+     */
+    public IpfixMessage newTemplateMessage() {
+        RecordSet<TemplateRecord> templateSet = new RecordSet<>(2);
+        templateSet.addRecord(newTemplate());
+        return new IpfixMessage(10, 1500000000L, 0, 1).addSet(templateSet);
+    }
+
+    /**
+     * @return a message containing a single data set, filled with random records until the
+     * message reaches {@link #MESSAGE_SIZE}.
+     */
+    public IpfixMessage newDataMessage(Random random) {
+        RecordSet<GenericRecord> dataSet = new RecordSet<>(templateId);
+        IpfixMessage ipfixMessage = new IpfixMessage(10, 1500000000L, 0, 1).addSet(dataSet);
+        while (true) {
+            GenericRecord record = newRecord(random);
+            if (ipfixMessage.getLength() + record.length() > MESSAGE_SIZE) {
+                return ipfixMessage;
+            }
+            dataSet.addRecord(record);
+        }
+    }
+
+    private static Field fixed(int elementId, int length) {
+        return new Field(elementId, length, -1);
+    }
+
+    private static Field variable(int elementId) {
+        return new Field(elementId, VARIABLE_LENGTH, -1);
+    }
+
+    private static Field enterprise(int elementId, int length) {
+        return new Field(elementId, length, ENTERPRISE_NUMBER);
+    }
+
+    private static Field enterpriseVariable(int elementId) {
+        return new Field(elementId, VARIABLE_LENGTH, ENTERPRISE_NUMBER);
+    }
+
+    private static final class Field {
+        private final int elementId;
+        private final int length;
+        private final long enterpriseNum;
+
+        private Field(int elementId, int length, long enterpriseNum) {
+            this.elementId = elementId;
+            this.length = length;
+            this.enterpriseNum = enterpriseNum;
+        }
+    }
+}
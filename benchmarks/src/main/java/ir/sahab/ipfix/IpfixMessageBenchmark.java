@@ -0,0 +1,49 @@
+package ir.sahab.ipfix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding and encoding of whole messages. Each operation handles one message of about
+ * {@link FlowTemplate#MESSAGE_SIZE} bytes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IpfixMessageBenchmark {
+
+    @Benchmark
+    public IpfixMessage decode(FlowState state) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        messageBuffer.position(0);
+        return IpfixMessage.decode(messageBuffer, state.recordFactory);
+    }
+
+    @Benchmark
+    public int decodePooled(FlowState state) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        messageBuffer.position(0);
+        IpfixMessage ipfixMessage = IpfixMessage.decode(messageBuffer, state.pooledRecordFactory);
+        int recordSetCount = ipfixMessage.getRecordSets().size();
+        state.pooledRecordFactory.release(ipfixMessage);
+        return recordSetCount;
+    }
+
+    @Benchmark
+    public ByteBuffer encode(FlowState state) {
+        ByteBuffer encodeBuffer = state.encodeBuffer;
+        encodeBuffer.clear();
+        state.dataMessage.encode(encodeBuffer);
+        return encodeBuffer;
+    }
+}
@@ -0,0 +1,41 @@
+package ir.sahab.ipfix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of a single data record by its template.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateRecordBenchmark {
+
+    @Benchmark
+    public GenericRecord decodeDataRecord(FlowState state) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        messageBuffer.position(state.firstRecordPosition);
+        GenericRecord record = new GenericRecord(state.templateRecord);
+        state.templateRecord.decodeDataRecord(messageBuffer, record);
+        return record;
+    }
+
+    @Benchmark
+    public GenericRecord decodeDataRecordView(FlowState state) {
+        ByteBuffer messageBuffer = state.dataMessageBuffer;
+        messageBuffer.position(state.firstRecordPosition);
+        GenericRecord record = new GenericRecord(state.templateRecord, true);
+        state.templateRecord.decodeDataRecordView(messageBuffer, record);
+        return record;
+    }
+}
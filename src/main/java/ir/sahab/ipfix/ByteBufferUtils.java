@@ -20,4 +20,35 @@ public class ByteBufferUtils {
     public static long readUnsignedInt(ByteBuffer byteBuffer) {
         return 0xFFFFFFFFL & (byteBuffer.getInt());
     }
+
+    /**
+     * Reads an unsigned big-endian integer of the given length at an absolute position, without
+     * changing position of the buffer. It supports reduced-size encoding of integers as defined
+     * in RFC 7011 section 6.2.
+     *
+     * @param length number of bytes to read, must be between 0 and 8. Values of 8 bytes do not fit
+     * in an unsigned long and are returned as is.
+     */
+    public static long getUnsigned(ByteBuffer byteBuffer, int index, int length) {
+        switch (length) {
+            case 1:
+                return 0xFFL & byteBuffer.get(index);
+            case 2:
+                return 0xFFFFL & byteBuffer.getShort(index);
+            case 4:
+                return 0xFFFFFFFFL & byteBuffer.getInt(index);
+            case 8:
+                return byteBuffer.getLong(index);
+            default:
+                if (length < 0 || length > 8) {
+                    throw new IllegalArgumentException("Length of an integer must be between 0 " +
+                                                       "and 8.");
+                }
+                long value = 0;
+                for (int i = 0; i < length; i++) {
+                    value = (value << 8) | (0xFF & byteBuffer.get(index + i));
+                }
+                return value;
+        }
+    }
 }
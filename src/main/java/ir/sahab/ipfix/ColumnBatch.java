@@ -0,0 +1,313 @@
+package ir.sahab.ipfix;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Data records of one template decoded into columns, one per field of the template, for
+ *     consumers that process a field of many records at once, e.g. vectorized filters and
+ *     aggregation. Columns are typed by length of the field in template:
+ * </p>
+ * <ul>
+ * <li>{@link ColumnType#INT}: fields of at most 4 bytes, read as unsigned integers into an
+ * int[], so 4 bytes values above 2^31 - 1 are negative and should be read by
+ * {@link Integer#toUnsignedLong(int)}.</li>
+ * <li>{@link ColumnType#LONG}: fields of 5 to 8 bytes, read as unsigned integers into a
+ * long[].</li>
+ * <li>{@link ColumnType#BYTES}: variable length fields and fields longer than 8 bytes, e.g. IPv6
+ * addresses, copied into a heap shared by all such columns. Value of record i of the column
+ * starts at offsets[i] of the heap and has lengths[i] bytes.</li>
+ * </ul>
+ * <p>
+ *     Records of one or more data sets of the template are appended to the batch, and it is
+ *     cleared to be reused for next sets. Arrays grow as needed and are kept, so a reused batch
+ *     allocates nothing in steady state. Arrays returned by getters are the internal ones: they
+ *     may be longer than the record count, and are overwritten when the batch is reused.
+ * </p>
+ * <pre>
+ *     ColumnBatch batch = new ColumnBatch(1024);
+ *     batch.reset(template);
+ *     batch.addSet(buffer, setOffset);
+ *     long[] octets = batch.getLongs(octetsIndex);
+ *     for (int i = 0; i &lt; batch.getRecordCount(); i++) {
+ *         total += octets[i];
+ *     }
+ * </pre>
+ */
+public class ColumnBatch {
+    public enum ColumnType {
+        INT,
+        LONG,
+        BYTES
+    }
+
+    private final DataRecordCursor cursor = new DataRecordCursor();
+    private TemplateRecord templateRecord;
+    private TemplateLayout layout;
+    private ColumnType[] types = new ColumnType[0];
+    private int[][] intColumns = new int[0][];
+    private long[][] longColumns = new long[0][];
+    private int[][] offsetColumns = new int[0][];
+    private int[][] lengthColumns = new int[0][];
+    private byte[] heap;
+    private int heapSize;
+    private int capacity;
+    private int recordCount;
+
+    /**
+     * @param initialCapacity number of records columns are initially allocated for.
+     */
+    public ColumnBatch(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be positive.");
+        }
+        capacity = initialCapacity;
+        heap = new byte[initialCapacity * 16];
+    }
+
+    /**
+     * Clears the batch and sets the template of the next records. Columns of the previous template
+     * are reused when the new one has the same layout of field lengths.
+     */
+    public ColumnBatch reset(TemplateRecord templateRecord) {
+        TemplateLayout newLayout = templateRecord.getLayout();
+        if (newLayout != layout) {
+            setLayout(newLayout);
+        }
+        this.templateRecord = templateRecord;
+        recordCount = 0;
+        heapSize = 0;
+        return this;
+    }
+
+    /**
+     * Clears the batch, keeping its template.
+     */
+    public void clear() {
+        recordCount = 0;
+        heapSize = 0;
+    }
+
+    /**
+     * Appends all records of a data set of the template.
+     *
+     * @param setOffset absolute position of set header in buffer.
+     * @return number of records appended.
+     * @throws IllegalArgumentException if set Id does not match template Id or the set is
+     * malformed. Records before the malformed one remain appended.
+     */
+    public int addSet(ByteBuffer buffer, int setOffset) throws IllegalArgumentException {
+        checkTemplate();
+        return addRecords(cursor.wrap(templateRecord, buffer, setOffset));
+    }
+
+    /**
+     * Appends all records of a region of buffer that contains only data records of the template,
+     * without set header.
+     *
+     * @param offset absolute position of the first record.
+     * @param end absolute position just after the last record, including padding.
+     * @return number of records appended.
+     */
+    public int addRecords(ByteBuffer buffer, int offset, int end) throws IllegalArgumentException {
+        checkTemplate();
+        return addRecords(cursor.wrapRecords(templateRecord, buffer, offset, end));
+    }
+
+    /**
+     * Clears the batch and makes it hold the given number of records of undefined values, so
+     * columns are filled directly, e.g. by readers of stored batches: values of numeric columns
+     * are written into arrays of getters and values of {@link ColumnType#BYTES} columns are set by
+     * {@link #setBytes(int, int, byte[], int, int)}.
+     */
+    public void allocate(int recordCount) {
+        checkTemplate();
+        if (recordCount > capacity) {
+            grow(Math.max(recordCount, capacity * 2));
+        }
+        this.recordCount = recordCount;
+        heapSize = 0;
+    }
+
+    /**
+     * Sets value of a record of a {@link ColumnType#BYTES} column by copying it to the heap.
+     *
+     * @throws IllegalStateException if the column is of another type.
+     */
+    public void setBytes(int index, int record, byte[] source, int offset, int length) {
+        checkType(index, ColumnType.BYTES);
+        if (heap.length - heapSize < length) {
+            heap = Arrays.copyOf(heap, Math.max(heap.length * 2, heapSize + length));
+        }
+        System.arraycopy(source, offset, heap, heapSize, length);
+        offsetColumns[index][record] = heapSize;
+        lengthColumns[index][record] = length;
+        heapSize += length;
+    }
+
+    public TemplateRecord getTemplateRecord() {
+        return templateRecord;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public int getColumnCount() {
+        return types.length;
+    }
+
+    public ColumnType getColumnType(int index) {
+        return types[index];
+    }
+
+    /**
+     * @return values of an {@link ColumnType#INT} column, valid up to the record count.
+     * @throws IllegalStateException if the column is of another type.
+     */
+    public int[] getInts(int index) {
+        checkType(index, ColumnType.INT);
+        return intColumns[index];
+    }
+
+    /**
+     * @return values of a {@link ColumnType#LONG} column, valid up to the record count.
+     * @throws IllegalStateException if the column is of another type.
+     */
+    public long[] getLongs(int index) {
+        checkType(index, ColumnType.LONG);
+        return longColumns[index];
+    }
+
+    /**
+     * @return offsets of values of a {@link ColumnType#BYTES} column in heap, valid up to the
+     * record count.
+     * @throws IllegalStateException if the column is of another type.
+     */
+    public int[] getOffsets(int index) {
+        checkType(index, ColumnType.BYTES);
+        return offsetColumns[index];
+    }
+
+    /**
+     * @return lengths of values of a {@link ColumnType#BYTES} column, valid up to the record
+     * count.
+     * @throws IllegalStateException if the column is of another type.
+     */
+    public int[] getLengths(int index) {
+        checkType(index, ColumnType.BYTES);
+        return lengthColumns[index];
+    }
+
+    /**
+     * @return the heap of values of {@link ColumnType#BYTES} columns.
+     */
+    public byte[] getHeap() {
+        return heap;
+    }
+
+    /**
+     * @return length of the used part of heap.
+     */
+    public int getHeapSize() {
+        return heapSize;
+    }
+
+    private int addRecords(DataRecordCursor cursor) {
+        int added = 0;
+        int fieldCount = types.length;
+        ByteBuffer buffer = cursor.getBuffer();
+        while (cursor.next()) {
+            if (recordCount == capacity) {
+                grow(capacity * 2);
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                int offset = cursor.getFieldOffset(i);
+                int length = cursor.getFieldLength(i);
+                switch (types[i]) {
+                    case INT:
+                        intColumns[i][recordCount] =
+                                (int) ByteBufferUtils.getUnsigned(buffer, offset, length);
+                        break;
+                    case LONG:
+                        longColumns[i][recordCount] =
+                                ByteBufferUtils.getUnsigned(buffer, offset, length);
+                        break;
+                    default:
+                        if (heap.length - heapSize < length) {
+                            heap = Arrays.copyOf(heap, Math.max(heap.length * 2,
+                                                                heapSize + length));
+                        }
+                        offsetColumns[i][recordCount] = heapSize;
+                        lengthColumns[i][recordCount] = length;
+                        heapSize += cursor.getBytes(i, heap, heapSize);
+                }
+            }
+            recordCount++;
+            added++;
+        }
+        return added;
+    }
+
+    private void setLayout(TemplateLayout newLayout) {
+        int fieldCount = newLayout.getFieldCount();
+        ColumnType[] newTypes = new ColumnType[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            int length = newLayout.getFieldLength(i);
+            newTypes[i] = newLayout.isVariableLength(i) || length > 8 ? ColumnType.BYTES :
+                          length > 4 ? ColumnType.LONG : ColumnType.INT;
+        }
+        layout = newLayout;
+        if (Arrays.equals(newTypes, types)) {
+            return;
+        }
+        types = newTypes;
+        intColumns = new int[fieldCount][];
+        longColumns = new long[fieldCount][];
+        offsetColumns = new int[fieldCount][];
+        lengthColumns = new int[fieldCount][];
+        allocateColumns(capacity);
+    }
+
+    private void grow(int newCapacity) {
+        allocateColumns(newCapacity);
+        capacity = newCapacity;
+    }
+
+    /**
+     * Allocates columns of the given capacity, keeping their values.
+     */
+    private void allocateColumns(int newCapacity) {
+        for (int i = 0; i < types.length; i++) {
+            switch (types[i]) {
+                case INT:
+                    intColumns[i] = intColumns[i] == null ? new int[newCapacity] :
+                                    Arrays.copyOf(intColumns[i], newCapacity);
+                    break;
+                case LONG:
+                    longColumns[i] = longColumns[i] == null ? new long[newCapacity] :
+                                     Arrays.copyOf(longColumns[i], newCapacity);
+                    break;
+                default:
+                    offsetColumns[i] = offsetColumns[i] == null ? new int[newCapacity] :
+                                       Arrays.copyOf(offsetColumns[i], newCapacity);
+                    lengthColumns[i] = lengthColumns[i] == null ? new int[newCapacity] :
+                                       Arrays.copyOf(lengthColumns[i], newCapacity);
+            }
+        }
+    }
+
+    private void checkTemplate() {
+        if (templateRecord == null) {
+            throw new IllegalStateException("Template of the batch is not set.");
+        }
+    }
+
+    private void checkType(int index, ColumnType type) {
+        if (types[index] != type) {
+            throw new IllegalStateException("Column " + index + " is of type " + types[index] +
+                                            ", not " + type + '.');
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package ir.sahab.ipfix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     A flyweight reader that moves through data records of a data set in place, using layout of
+ *     the {@link TemplateRecord} of the set. Fields of the current record are read by index as
+ *     primitives or copied into caller's arrays, so unlike {@link RecordSet#decode} nothing is
+ *     allocated per record. A cursor can be reused for any number of sets.
+ * </p>
+ * <p>
+ *     Cursor reads the buffer by absolute positions and never changes its position or limit.
+ *     Iterating data sets of a message located at messageOffset looks like:
+ * </p>
+ * <pre>
+ *     int offset = messageOffset + 16;
+ *     int end = messageOffset + (buffer.getShort(messageOffset + 2) &amp; 0xffff);
+ *     while (offset &lt; end) {
+ *         int setId = buffer.getShort(offset) &amp; 0xffff;
+ *         TemplateRecord template = recordFactory.getTemplate(setId);
+ *         if (template != null) {
+ *             cursor.wrap(template, buffer, offset);
+ *             while (cursor.next()) {
+ *                 long octets = cursor.getLong(octetsIndex);
+ *             }
+ *         }
+ *         offset += buffer.getShort(offset + 2) &amp; 0xffff;
+ *     }
+ * </pre>
+ * <p>
+ *     Field indexes can be resolved once per template by {@link #fieldIndex(int)}.
+ * </p>
+ */
+public class DataRecordCursor {
+    private final static int VARIABLE_LENGTH = 0xffff;
+
+    private ByteBuffer buffer;
+    private TemplateRecord templateRecord;
+    private TemplateLayout layout;
+    private int fieldCount;
+    private int firstVariableIndex;
+    private int minimumRecordLength;
+    private int setEnd;
+    private int recordOffset = -1;
+    private int nextRecordOffset;
+
+    // Offsets and lengths of values of the current record, only fields after the fixed-length
+    // prefix are stored here. Offsets of the prefix fields are known from layout.
+    private int[] offsets = new int[0];
+    private int[] lengths = new int[0];
+
+    /**
+     * Positions the cursor before the first record of the data set whose header starts at
+     * setOffset.
+     *
+     * @param templateRecord template of the set, its Id must match set Id.
+     * @param setOffset absolute position of set header in buffer.
+     * @throws IllegalArgumentException if set Id does not match template Id or the set does not
+     * fit in buffer.
+     */
+    public DataRecordCursor wrap(TemplateRecord templateRecord, ByteBuffer buffer, int setOffset)
+            throws IllegalArgumentException {
+        if (setOffset < 0 || buffer.limit() - setOffset < 4) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        int setId = 0xFFFF & buffer.getShort(setOffset);
+        int length = 0xFFFF & buffer.getShort(setOffset + 2);
+        if (setId != templateRecord.getTemplateId()) {
+            throw new IllegalArgumentException("Set Id " + setId + " does not match template Id " +
+                                               templateRecord.getTemplateId() + '.');
+        }
+        if (length < 4) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        return wrapRecords(templateRecord, buffer, setOffset + 4, setOffset + length);
+    }
+
+    /**
+     * Positions the cursor before the first record of a region of buffer that contains only data
+     * records, without set header.
+     *
+     * @param offset absolute position of the first record.
+     * @param end absolute position just after the last record, including padding.
+     * @throws IllegalArgumentException if the region does not fit in buffer.
+     */
+    public DataRecordCursor wrapRecords(TemplateRecord templateRecord, ByteBuffer buffer,
+                                        int offset, int end) throws IllegalArgumentException {
+        if (offset < 0 || end < offset || end > buffer.limit()) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        // Layout is recompiled whenever the template changes
+        if (templateRecord.getLayout() != layout) {
+            setTemplate(templateRecord);
+        }
+        this.buffer = buffer;
+        this.setEnd = end;
+        this.nextRecordOffset = offset;
+        this.recordOffset = -1;
+        return this;
+    }
+
+    private void setTemplate(TemplateRecord templateRecord) {
+        this.templateRecord = templateRecord;
+        layout = templateRecord.getLayout();
+        fieldCount = layout.getFieldCount();
+        firstVariableIndex = layout.getFirstVariableIndex();
+        minimumRecordLength = layout.getMinimumRecordLength();
+        if (offsets.length < fieldCount) {
+            offsets = new int[fieldCount];
+            lengths = new int[fieldCount];
+        }
+    }
+
+    /**
+     * Moves to the next record of the set.
+     *
+     * @return false if there is no more records, remaining bytes of the set are padding.
+     * @throws IllegalArgumentException if a record exceeds boundary of the set.
+     */
+    public boolean next() throws IllegalArgumentException {
+        // An empty template defines no record, so it would never make progress.
+        if (setEnd - nextRecordOffset < minimumRecordLength || minimumRecordLength == 0) {
+            recordOffset = -1;
+            return false;
+        }
+        // Fields of the fixed-length prefix need no parsing, skip them at once.
+        int offset = nextRecordOffset + layout.getPrefixLength();
+        if (offset > setEnd) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        for (int i = firstVariableIndex; i < fieldCount; i++) {
+            int length = layout.getFieldLength(i);
+            if (length == VARIABLE_LENGTH) {
+                // Length prefix must be in the set too, not only the value.
+                if (offset >= setEnd) {
+                    throw new IllegalArgumentException("Invalid IPFIX message.");
+                }
+                length = 0xFF & buffer.get(offset++);
+                // Checks if length is more than 254 bytes
+                if (length == 255) {
+                    if (offset + 2 > setEnd) {
+                        throw new IllegalArgumentException("Invalid IPFIX message.");
+                    }
+                    length = 0xFFFF & buffer.getShort(offset);
+                    offset += 2;
+                }
+            }
+            offsets[i] = offset;
+            lengths[i] = length;
+            offset += length;
+            if (offset > setEnd) {
+                throw new IllegalArgumentException("Invalid IPFIX message.");
+            }
+        }
+        recordOffset = nextRecordOffset;
+        nextRecordOffset = offset;
+        return true;
+    }
+
+    public TemplateRecord getTemplateRecord() {
+        return templateRecord;
+    }
+
+    /**
+     * @return buffer of the set, which offsets of fields point into.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return absolute position in buffer just after the set, where the next set begins.
+     */
+    public int getSetEnd() {
+        return setEnd;
+    }
+
+    /**
+     * @return absolute position of the current record in buffer.
+     */
+    public int getRecordOffset() {
+        checkRecord();
+        return recordOffset;
+    }
+
+    public int getRecordLength() {
+        checkRecord();
+        return nextRecordOffset - recordOffset;
+    }
+
+    /**
+     * @return index of the first field with given IANA Information Element identifier, or -1.
+     */
+    public int fieldIndex(int elementId) {
+        return templateRecord.indexOf(elementId);
+    }
+
+    /**
+     * @return index of the first field with given enterprise-specific Information Element
+     * identifier, or -1.
+     */
+    public int fieldIndex(int elementId, long enterpriseNum) {
+        return templateRecord.indexOf(elementId, enterpriseNum);
+    }
+
+    /**
+     * @return absolute position of value of the field in buffer, after its length prefix if
+     * it is variable length.
+     */
+    public int getFieldOffset(int index) {
+        checkField(index);
+        return index < firstVariableIndex ? recordOffset + layout.getFieldOffset(index)
+                                          : offsets[index];
+    }
+
+    /**
+     * @return length of value of the field in the current record.
+     */
+    public int getFieldLength(int index) {
+        checkField(index);
+        return index < firstVariableIndex ? layout.getFieldLength(index) : lengths[index];
+    }
+
+    /**
+     * Reads the field as an unsigned integer. Fields shorter than 4 bytes are treated as
+     * reduced-size encoded integers.
+     *
+     * @throws IllegalStateException if the value is longer than 4 bytes.
+     */
+    public int getInt(int index) {
+        int length = getFieldLength(index);
+        if (length > 4) {
+            throw new IllegalStateException("Field " + index + " of length " + length +
+                                            " can not be read as int.");
+        }
+        return (int) ByteBufferUtils.getUnsigned(buffer, getFieldOffset(index), length);
+    }
+
+    /**
+     * Reads the field as an unsigned integer. Fields shorter than 8 bytes are treated as
+     * reduced-size encoded integers.
+     *
+     * @throws IllegalStateException if the value is longer than 8 bytes.
+     */
+    public long getLong(int index) {
+        int length = getFieldLength(index);
+        if (length > 8) {
+            throw new IllegalStateException("Field " + index + " of length " + length +
+                                            " can not be read as long.");
+        }
+        return ByteBufferUtils.getUnsigned(buffer, getFieldOffset(index), length);
+    }
+
+    /**
+     * Copies value of the field into the given array.
+     *
+     * @return length of the value.
+     * @throws IndexOutOfBoundsException if the value does not fit in destination.
+     */
+    public int getBytes(int index, byte[] destination) {
+        return getBytes(index, destination, 0);
+    }
+
+    /**
+     * Copies value of the field into the given array starting at destinationOffset.
+     *
+     * @return length of the value.
+     * @throws IndexOutOfBoundsException if the value does not fit in destination.
+     */
+    public int getBytes(int index, byte[] destination, int destinationOffset) {
+        int length = getFieldLength(index);
+        if (destinationOffset < 0 || destination.length - destinationOffset < length) {
+            throw new IndexOutOfBoundsException("Value of length " + length + " does not fit " +
+                                                "in destination.");
+        }
+        int offset = getFieldOffset(index);
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, destination,
+                             destinationOffset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                destination[destinationOffset + i] = buffer.get(offset + i);
+            }
+        }
+        return length;
+    }
+
+    private void checkRecord() {
+        if (recordOffset < 0) {
+            throw new IllegalStateException("Cursor is not positioned on a record.");
+        }
+    }
+
+    private void checkField(int index) {
+        checkRecord();
+        if (index < 0 || index >= fieldCount) {
+            throw new IndexOutOfBoundsException("Template " + templateRecord.getTemplateId() +
+                                                " has no field at index " + index + '.');
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ir.sahab.ipfix;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Abstract data types of Information Elements, as defined in RFC 7012 section 3.1.
+ */
+public enum DataType {
+    OCTET_ARRAY("octetArray"),
+    UNSIGNED8("unsigned8"),
+    UNSIGNED16("unsigned16"),
+    UNSIGNED32("unsigned32"),
+    UNSIGNED64("unsigned64"),
+    SIGNED8("signed8"),
+    SIGNED16("signed16"),
+    SIGNED32("signed32"),
+    SIGNED64("signed64"),
+    FLOAT32("float32"),
+    FLOAT64("float64"),
+    BOOLEAN("boolean"),
+    MAC_ADDRESS("macAddress"),
+    STRING("string"),
+    DATE_TIME_SECONDS("dateTimeSeconds"),
+    DATE_TIME_MILLISECONDS("dateTimeMilliseconds"),
+    DATE_TIME_MICROSECONDS("dateTimeMicroseconds"),
+    DATE_TIME_NANOSECONDS("dateTimeNanoseconds"),
+    IPV4_ADDRESS("ipv4Address"),
+    IPV6_ADDRESS("ipv6Address"),
+    BASIC_LIST("basicList"),
+    SUB_TEMPLATE_LIST("subTemplateList"),
+    SUB_TEMPLATE_MULTI_LIST("subTemplateMultiList");
+
+    // Seconds from NTP epoch (1900) to Unix epoch (1970)
+    private final static long NTP_EPOCH_OFFSET = 2208988800L;
+
+    private final String name;
+
+    DataType(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name of the type as written in the IANA registry, e.g. unsigned64.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return whether values are integers that can be read as long, including time stamps of
+     * seconds and milliseconds.
+     */
+    public boolean isInteger() {
+        switch (this) {
+            case UNSIGNED8:
+            case UNSIGNED16:
+            case UNSIGNED32:
+            case UNSIGNED64:
+            case SIGNED8:
+            case SIGNED16:
+            case SIGNED32:
+            case SIGNED64:
+            case DATE_TIME_SECONDS:
+            case DATE_TIME_MILLISECONDS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public boolean isSigned() {
+        return this == SIGNED8 || this == SIGNED16 || this == SIGNED32 || this == SIGNED64;
+    }
+
+    /**
+     * Reads an integer of this type at an absolute position of buffer, extending sign of
+     * reduced-size signed integers.
+     */
+    long getLong(ByteBuffer buffer, int offset, int length) {
+        if (length > 8) {
+            throw new IllegalStateException("Value of " + length + " bytes can not be read as " +
+                                            "long.");
+        }
+        long value = ByteBufferUtils.getUnsigned(buffer, offset, length);
+        if (isSigned() && length < 8) {
+            int unusedBits = 64 - 8 * length;
+            value = (value << unusedBits) >> unusedBits;
+        }
+        return value;
+    }
+
+    /**
+     * Reads a float of this type, float64 values may be encoded in 4 bytes as RFC 7011 section
+     * 6.2 allows.
+     */
+    double getDouble(ByteBuffer buffer, int offset, int length) {
+        if (length == 4) {
+            return Float.intBitsToFloat(buffer.getInt(offset));
+        }
+        if (length == 8) {
+            return Double.longBitsToDouble(buffer.getLong(offset));
+        }
+        throw new IllegalStateException("Value of " + length + " bytes is not a float.");
+    }
+
+    /**
+     * Decodes a value of this type at an absolute position of buffer, into the Java type that
+     * represents it: Long for integers, Double for floats, Boolean, String for strings and MAC
+     * addresses, Instant for time stamps, InetAddress for addresses and byte[] for others.
+     */
+    public Object decode(ByteBuffer buffer, int offset, int length) {
+        switch (this) {
+            case UNSIGNED8:
+            case UNSIGNED16:
+            case UNSIGNED32:
+            case UNSIGNED64:
+            case SIGNED8:
+            case SIGNED16:
+            case SIGNED32:
+            case SIGNED64:
+                return getLong(buffer, offset, length);
+            case FLOAT32:
+            case FLOAT64:
+                return getDouble(buffer, offset, length);
+            case BOOLEAN:
+                // RFC 7011 section 6.1.5 encodes true as 1 and false as 2
+                return buffer.get(offset) == 1;
+            case MAC_ADDRESS:
+                StringBuilder macAddress = new StringBuilder(3 * length);
+                for (int i = 0; i < length; i++) {
+                    if (i > 0) {
+                        macAddress.append(':');
+                    }
+                    int b = 0xFF & buffer.get(offset + i);
+                    macAddress.append(Character.forDigit(b >> 4, 16))
+                              .append(Character.forDigit(b & 0xF, 16));
+                }
+                return macAddress.toString();
+            case STRING:
+                return new String(getBytes(buffer, offset, length), StandardCharsets.UTF_8);
+            case DATE_TIME_SECONDS:
+                return Instant.ofEpochSecond(getLong(buffer, offset, length));
+            case DATE_TIME_MILLISECONDS:
+                return Instant.ofEpochMilli(getLong(buffer, offset, length));
+            case DATE_TIME_MICROSECONDS:
+            case DATE_TIME_NANOSECONDS:
+                // NTP time stamp, seconds since 1900 and a binary fraction of second
+                long seconds = 0xFFFFFFFFL & buffer.getInt(offset);
+                long fraction = 0xFFFFFFFFL & buffer.getInt(offset + 4);
+                return Instant.ofEpochSecond(seconds - NTP_EPOCH_OFFSET,
+                                             (fraction * 1_000_000_000L) >>> 32);
+            case IPV4_ADDRESS:
+            case IPV6_ADDRESS:
+                try {
+                    return InetAddress.getByAddress(getBytes(buffer, offset, length));
+                } catch (UnknownHostException e) {
+                    throw new IllegalStateException("Value of " + length + " bytes is not an " +
+                                                    "IP address.", e);
+                }
+            default:
+                return getBytes(buffer, offset, length);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,56 @@
+package ir.sahab.ipfix;
+
+/**
+ * <p>
+ *     Receives events of decoding, to instrument a decoder. Metrics are set on a
+ *     {@link RecordFactory} and are called by the thread decoding with it, so an instance shared by
+ *     factories of several threads must be thread-safe. Methods are called on the hot path of
+ *     decoding and must be cheap.
+ * </p>
+ * <p>
+ *     All methods do nothing by default, so an implementation overrides only the events it counts.
+ *     {@link #NOOP} is used when no metrics are set, and
+ *     {@link ir.sahab.ipfix.metrics.StripedDecodeMetrics} counts all events. To report to a
+ *     metrics library, either implement this interface by its counters and timers, or read the
+ *     counters of {@link ir.sahab.ipfix.metrics.StripedDecodeMetrics} by its gauges.
+ * </p>
+ */
+public interface DecodeMetrics {
+    DecodeMetrics NOOP = new DecodeMetrics() {};
+
+    /**
+     * Called for each message decoded successfully.
+     *
+     * @param length length of the message in bytes.
+     * @param decodeNanos time spent decoding the message.
+     */
+    default void onMessage(long observationDomainId, int length, long decodeNanos) {}
+
+    /**
+     * Called for each set decoded, including template sets and sets of unknown templates decoded
+     * later in lenient decoding. Sets skipped by a set filter are not decoded.
+     *
+     * @param setId Id of the set, which is template Id of data sets.
+     * @param recordCount number of records of the set.
+     * @param length length of the set in bytes, including its header.
+     */
+    default void onSet(long observationDomainId, int setId, int recordCount, int length) {}
+
+    /**
+     * Called for each template or options template received, excluding withdrawals.
+     */
+    default void onTemplateRegistered(long observationDomainId, int templateId) {}
+
+    /**
+     * Called for each data set whose template is not known, whether it fails decoding by
+     * {@link TemplateNotDefinedException} or is deferred in lenient decoding.
+     */
+    default void onTemplateNotDefined(long observationDomainId, int templateId) {}
+
+    /**
+     * Called for each message rejected by {@link IpfixMessage#decode} because it is malformed.
+     * Messages that fail because of unknown templates are reported by
+     * {@link #onTemplateNotDefined(long, int)} instead.
+     */
+    default void onMalformedMessage() {}
+}
@@ -0,0 +1,135 @@
+package ir.sahab.ipfix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     Reads the field of an {@link InformationElement} from data records of a template. It is
+ *     compiled once per template by {@link InformationElementRegistry#accessor}, which resolves
+ *     index of the field, and its offset if it is in the fixed-length prefix of records, so
+ *     reading a record involves no lookup.
+ * </p>
+ * <p>
+ *     Accessor is bound to the layout of the template when it is compiled, and must be compiled
+ *     again if the template is redefined, see {@link #isCompiledFor(TemplateRecord)}.
+ * </p>
+ */
+public final class FieldAccessor {
+    private final InformationElement element;
+    private final DataType dataType;
+    private final TemplateLayout layout;
+    private final int index;
+    private final int offset;
+    private final int length;
+
+    FieldAccessor(TemplateRecord templateRecord, InformationElement element) {
+        this.element = element;
+        this.dataType = element.getDataType();
+        this.layout = templateRecord.getLayout();
+        index = element.isEnterprise() ?
+                templateRecord.indexOf(element.getElementId(), element.getEnterpriseNum()) :
+                templateRecord.indexOf(element.getElementId());
+        offset = index >= 0 && index < layout.getFirstVariableIndex() ?
+                 layout.getFieldOffset(index) : -1;
+        length = index >= 0 ? layout.getFieldLength(index) : 0;
+    }
+
+    public InformationElement getElement() {
+        return element;
+    }
+
+    /**
+     * @return whether the template has the field.
+     */
+    public boolean isPresent() {
+        return index >= 0;
+    }
+
+    /**
+     * @return index of the field in template, or -1 if the template has no such field.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return offset of the field from start of records, or -1 if the field is not in the
+     * fixed-length prefix of records.
+     */
+    public int getFieldOffset() {
+        return offset;
+    }
+
+    /**
+     * @return whether this accessor is compiled for the current definition of the template.
+     */
+    public boolean isCompiledFor(TemplateRecord templateRecord) {
+        return templateRecord.getLayout() == layout;
+    }
+
+    /**
+     * Reads the field of the current record of the cursor as an integer, extending sign of
+     * signed integers. Addresses of IPv4 are read as their 32 bits.
+     */
+    public long getLong(DataRecordCursor cursor) {
+        checkPresent();
+        return dataType.getLong(cursor.getBuffer(), cursor.getFieldOffset(index),
+                                cursor.getFieldLength(index));
+    }
+
+    public double getDouble(DataRecordCursor cursor) {
+        checkPresent();
+        return dataType.getDouble(cursor.getBuffer(), cursor.getFieldOffset(index),
+                                  cursor.getFieldLength(index));
+    }
+
+    /**
+     * @return the field of the current record of the cursor, see {@link DataType#decode}.
+     */
+    public Object getObject(DataRecordCursor cursor) {
+        checkPresent();
+        return dataType.decode(cursor.getBuffer(), cursor.getFieldOffset(index),
+                               cursor.getFieldLength(index));
+    }
+
+    /**
+     * Reads the field from a record at an absolute position of buffer by its offset, without
+     * parsing the record.
+     *
+     * @throws IllegalStateException if the field is not in the fixed-length prefix of records.
+     */
+    public long getLong(ByteBuffer buffer, int recordOffset) {
+        if (offset < 0) {
+            checkPresent();
+            throw new IllegalStateException("Field " + element + " is not in fixed-length " +
+                                            "prefix of records.");
+        }
+        return dataType.getLong(buffer, recordOffset + offset, length);
+    }
+
+    public long getLong(GenericRecord record) {
+        checkPresent();
+        FieldValue fieldValue = record.getFieldValues().get(index);
+        return dataType.isSigned() ? fieldValue.asSignedLong() : fieldValue.asLong();
+    }
+
+    /**
+     * @return the field of the record, see {@link DataType#decode}.
+     */
+    public Object getObject(GenericRecord record) {
+        checkPresent();
+        FieldValue fieldValue = record.getFieldValues().get(index);
+        if (fieldValue instanceof FieldValueView) {
+            FieldValueView view = (FieldValueView) fieldValue;
+            return dataType.decode(view.getBuffer(), view.getOffset(), view.getValueLength());
+        }
+        return dataType.decode(ByteBuffer.wrap(fieldValue.getValue()), 0,
+                               fieldValue.getValueLength());
+    }
+
+    private void checkPresent() {
+        if (index < 0) {
+            throw new IllegalStateException("Template has no field " + element + '.');
+        }
+    }
+}
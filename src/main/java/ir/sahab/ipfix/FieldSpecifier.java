@@ -1,5 +1,6 @@
 package ir.sahab.ipfix;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 
 /**
@@ -87,6 +88,36 @@ public class FieldSpecifier implements Cloneable {
        this(elementId, MAX_UNSIGNED_SHORT);
     }
 
+    /**
+     * @return Information Element identifier, without the enterprise bit.
+     */
+    public int getElementId() {
+        return elementId & ELEMENT_ID_THRESHOLD;
+    }
+
+    public boolean isEnterprise() {
+        return elementId > ELEMENT_ID_THRESHOLD;
+    }
+
+    public long getEnterpriseNum() {
+        return enterpriseNum;
+    }
+
+    /**
+     * @return length of values of this field as defined in template, 0xffff for variable length
+     * fields.
+     */
+    public int getFieldLength() {
+        return length;
+    }
+
+    public boolean isVariableLength() {
+        return length == MAX_UNSIGNED_SHORT;
+    }
+
+    /**
+     * @return length of this field specifier when it encoded as byte array.
+     */
     public int getLength() {
         return elementId > ELEMENT_ID_THRESHOLD ? 8 : 4;
     }
@@ -123,21 +154,57 @@ public class FieldSpecifier implements Cloneable {
      * @return decoded {@link FieldValue}
      */
     public FieldValue decodeValue(ByteBuffer messageBuffer) {
+        int len = decodeValueLength(messageBuffer);
+        byte[] value = new byte[len];
+        messageBuffer.get(value);
+        return new FieldValue(value, length == MAX_UNSIGNED_SHORT);
+    }
+
+    /**
+     * Decode a {@link FieldValue} of type this {@link FieldSpecifier} defines without copying its
+     * bytes. The returned view points into messageBuffer, see {@link FieldValueView}.
+     *
+     * @param messageBuffer buffer to read bytes from
+     * @return decoded {@link FieldValueView}
+     */
+    public FieldValueView decodeValueView(ByteBuffer messageBuffer) {
+        return decodeValueView(messageBuffer, null);
+    }
+
+    /**
+     * Same as {@link #decodeValueView(ByteBuffer)}, but reuses the given view of a previous value
+     * of this field if it is not null.
+     */
+    FieldValueView decodeValueView(ByteBuffer messageBuffer, FieldValueView reusedView) {
+        int len = decodeValueLength(messageBuffer);
+        int offset = messageBuffer.position();
+        if (len > messageBuffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        messageBuffer.position(offset + len);
+        if (reusedView == null) {
+            return new FieldValueView(messageBuffer, offset, len, length == MAX_UNSIGNED_SHORT);
+        }
+        reusedView.reset(messageBuffer, offset, len);
+        return reusedView;
+    }
+
+    /**
+     * Reads length prefix of the value if the field is variable length.
+     *
+     * @return length of the value that follows.
+     */
+    private int decodeValueLength(ByteBuffer messageBuffer) {
         // Checks if the field is variable length
-        if (length == 65535) {
+        if (length == MAX_UNSIGNED_SHORT) {
             int len = ByteBufferUtils.readUnsignedByte(messageBuffer);
             // Checks if length is more than 254 bytes
             if (len == 255) {
                 len = ByteBufferUtils.readUnsignedShort(messageBuffer);
             }
-            byte[] value = new byte[len];
-            messageBuffer.get(value);
-            return new FieldValue(value, true);
-        } else {
-            byte[] value = new byte[length];
-            messageBuffer.get(value);
-            return new FieldValue(value, false);
+            return len;
         }
+        return length;
     }
 
     @Override
@@ -164,6 +231,8 @@ public class FieldSpecifier implements Cloneable {
     }
 
     public FieldSpecifier clone() {
-        return new FieldSpecifier(elementId, length, enterpriseNum);
+        // Enterprise constructor would set enterprise bit of non-enterprise fields.
+        return isEnterprise() ? new FieldSpecifier(elementId, length, enterpriseNum)
+                              : new FieldSpecifier(elementId, length);
     }
 }
\ No newline at end of file
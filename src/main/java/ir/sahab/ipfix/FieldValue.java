@@ -1,5 +1,8 @@
 package ir.sahab.ipfix;
 
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
@@ -21,6 +24,14 @@ public class FieldValue {
         this.isVariableLength = isVariableLength;
     }
 
+    /**
+     * Used by subclasses that keep the value somewhere other than a byte array of their own and
+     * override {@link #getValue()}, {@link #getValueLength()} and {@link #putValue(ByteBuffer)}.
+     */
+    protected FieldValue(boolean isVariableLength) {
+        this.isVariableLength = isVariableLength;
+    }
+
     /**
      * Create a field with a byte value.
      *
@@ -39,9 +50,7 @@ public class FieldValue {
      * must be passed based on type of field in relevant template.
      */
     public FieldValue(short value, boolean isVariableLength) {
-        ByteBuffer b = ByteBuffer.allocate(2);
-        b.putShort(value);
-        this.value = b.array();
+        this.value = toBytes(value, 2);
         this.isVariableLength = isVariableLength;
     }
 
@@ -52,9 +61,7 @@ public class FieldValue {
      * must be passed based on type of field in relevant template.
      */
     public FieldValue(int value, boolean isVariableLength) {
-        ByteBuffer b = ByteBuffer.allocate(4);
-        b.putInt(value);
-        this.value = b.array();
+        this.value = toBytes(value, 4);
         this.isVariableLength = isVariableLength;
     }
 
@@ -65,9 +72,7 @@ public class FieldValue {
      * must be passed based on type of field in relevant template.
      */
     public FieldValue(long value, boolean isVariableLength) {
-        ByteBuffer b = ByteBuffer.allocate(8);
-        b.putLong(value);
-        this.value = b.array();
+        this.value = toBytes(value, 8);
         this.isVariableLength = isVariableLength;
     }
 
@@ -82,15 +87,102 @@ public class FieldValue {
         this.isVariableLength = isVariableLength;
     }
 
+    /**
+     * @return big-endian bytes of the lowest length bytes of value.
+     */
+    static byte[] toBytes(long value, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = length - 1; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
     public byte[] getValue() {
         return value;
     }
 
+    /**
+     * Reads the value as an unsigned integer. Integers may be encoded in fewer bytes than their
+     * type, as RFC 7011 section 6.2 allows, so values of 1 to 8 bytes are accepted.
+     *
+     * @return the value, values of 8 bytes do not fit in an unsigned long and are returned as is.
+     * @throws IllegalStateException if the value is empty or longer than 8 bytes.
+     */
+    public long asLong() {
+        byte[] bytes = getValue();
+        checkIntegerLength(bytes.length, 8);
+        long longValue = 0;
+        for (byte b : bytes) {
+            longValue = (longValue << 8) | (0xFF & b);
+        }
+        return longValue;
+    }
+
+    /**
+     * Reads the value as a signed integer of 1 to 8 bytes, extending the sign of reduced-size
+     * values.
+     *
+     * @throws IllegalStateException if the value is empty or longer than 8 bytes.
+     */
+    public long asSignedLong() {
+        long longValue = asLong();
+        int unusedBits = 64 - 8 * getValueLength();
+        return (longValue << unusedBits) >> unusedBits;
+    }
+
+    /**
+     * Reads the value as an unsigned integer of 1 to 4 bytes, e.g. an unsigned32 or an IPv4
+     * address. Values of 4 bytes do not fit in an unsigned int and are returned as is.
+     *
+     * @throws IllegalStateException if the value is empty or longer than 4 bytes.
+     */
+    public int asInt() {
+        checkIntegerLength(getValueLength(), 4);
+        return (int) asLong();
+    }
+
+    /**
+     * @throws IllegalStateException if the value is not 4 bytes.
+     */
+    public Inet4Address asInet4() {
+        if (getValueLength() != 4) {
+            throw new IllegalStateException("Value of " + getValueLength() + " bytes is not an " +
+                                            "IPv4 address.");
+        }
+        try {
+            return (Inet4Address) InetAddress.getByAddress(getValue());
+        } catch (UnknownHostException e) {
+            // Never happens for 4 bytes
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void checkIntegerLength(int valueLength, int maxLength) {
+        if (valueLength == 0 || valueLength > maxLength) {
+            throw new IllegalStateException("Value of " + valueLength + " bytes is not an " +
+                                            "integer of at most " + maxLength + " bytes.");
+        }
+    }
+
+    /**
+     * @return length of the value in bytes, excluding the length prefix of variable length fields.
+     */
+    public int getValueLength() {
+        return value.length;
+    }
+
+    public boolean isVariableLength() {
+        return isVariableLength;
+    }
+
     protected int getLength() {
+        int valueLength = getValueLength();
         if (isVariableLength) {
-             return value.length + (value.length < 256 ? 1 : 3);
+             return valueLength + (valueLength < 256 ? 1 : 3);
         }
-        return value.length;
+        return valueLength;
     }
 
     protected void putValue(ByteBuffer byteBuffer) {
@@ -100,11 +192,12 @@ public class FieldValue {
     public void encode(ByteBuffer byteBuffer) {
         // Write length of field if its length is variable
         if (isVariableLength){
-            if(value.length < 256) {
-                byteBuffer.put((byte) value.length);
+            int valueLength = getValueLength();
+            if(valueLength < 256) {
+                byteBuffer.put((byte) valueLength);
             } else {
                 byteBuffer.put((byte) 255);
-                byteBuffer.putShort((short) value.length);
+                byteBuffer.putShort((short) valueLength);
             }
         }
 
@@ -124,14 +217,14 @@ public class FieldValue {
         FieldValue otherField = (FieldValue) obj;
 
         return isVariableLength == otherField.isVariableLength &&
-               Arrays.equals(value, otherField.value);
+               Arrays.equals(getValue(), otherField.getValue());
     }
 
     @Override
     public int hashCode() {
         int hashCode = 1;
         hashCode = 31 * hashCode + (isVariableLength ? 1 : 0);
-        hashCode = 31 * hashCode + Arrays.hashCode(value);
+        hashCode = 31 * hashCode + Arrays.hashCode(getValue());
         return hashCode;
     }
 }
\ No newline at end of file
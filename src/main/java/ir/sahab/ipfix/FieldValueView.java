@@ -0,0 +1,114 @@
+package ir.sahab.ipfix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     A {@link FieldValue} that does not own its bytes, but points to the region of the buffer
+ *     it is decoded from by an offset and a length. It is created in zero-copy decode mode, see
+ *     {@link RecordFactory#setZeroCopyDecoding(boolean)}.
+ * </p>
+ * <p>
+ *     A view is valid only as long as the content of its buffer is not changed, so callers that
+ *     reuse their receive buffers should read it in place or {@link #copy()} it before the buffer
+ *     is overwritten.
+ * </p>
+ */
+public class FieldValueView extends FieldValue {
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    FieldValueView(ByteBuffer buffer, int offset, int length, boolean isVariableLength) {
+        super(isVariableLength);
+        reset(buffer, offset, length);
+    }
+
+    /**
+     * Points this view to another value of the same field, used by pooled records.
+     */
+    void reset(ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return absolute position of the first byte of the value in {@link #getBuffer()}.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    @Override
+    public int getValueLength() {
+        return length;
+    }
+
+    public byte getByte(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " is out of value of length " +
+                                                length + '.');
+        }
+        return buffer.get(offset + index);
+    }
+
+    /**
+     * Copies the value into the given array.
+     *
+     * @param destination array to write into, must have at least {@link #getValueLength()} bytes
+     * after destinationOffset.
+     */
+    public void getBytes(byte[] destination, int destinationOffset) {
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, destination,
+                             destinationOffset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                destination[destinationOffset + i] = buffer.get(offset + i);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the value, every call allocates a new array.
+     */
+    @Override
+    public byte[] getValue() {
+        byte[] value = new byte[length];
+        getBytes(value, 0);
+        return value;
+    }
+
+    /**
+     * Reads the value in place, see {@link FieldValue#asLong()}.
+     */
+    @Override
+    public long asLong() {
+        checkIntegerLength(length, 8);
+        return ByteBufferUtils.getUnsigned(buffer, offset, length);
+    }
+
+    /**
+     * @return a {@link FieldValue} which owns a copy of this value and is independent of the
+     * buffer.
+     */
+    public FieldValue copy() {
+        return new FieldValue(getValue(), isVariableLength());
+    }
+
+    @Override
+    protected void putValue(ByteBuffer byteBuffer) {
+        if (buffer.hasArray()) {
+            byteBuffer.put(buffer.array(), buffer.arrayOffset() + offset, length);
+        } else {
+            for (int i = 0; i < length; i++) {
+                byteBuffer.put(buffer.get(offset + i));
+            }
+        }
+    }
+}
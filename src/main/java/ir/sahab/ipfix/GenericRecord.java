@@ -2,6 +2,8 @@ package ir.sahab.ipfix;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -11,24 +13,96 @@ import java.util.Objects;
 public class GenericRecord implements Record {
     private final int templateId;
     private TemplateRecord templateRecord;
+    private boolean zeroCopy;
     private ArrayList<FieldValue> fieldValues = new ArrayList<>();
+    private List<FieldValue> readOnlyFieldValues = Collections.unmodifiableList(fieldValues);
+    // Encoded length of field values, updated as they are added
+    private int length;
+    // Views of the last decoded values, kept by clear() to be reused by pooled records.
+    private FieldValueView[] spareViews;
 
     GenericRecord(int templateId) {
         this.templateId = templateId;
     }
 
     GenericRecord(TemplateRecord templateRecord) {
+        this(templateRecord, false);
+    }
+
+    /**
+     * @param zeroCopy whether to decode field values as {@link FieldValueView}s.
+     */
+    GenericRecord(TemplateRecord templateRecord, boolean zeroCopy) {
         this.templateRecord = templateRecord;
+        this.zeroCopy = zeroCopy;
         templateId = templateRecord.getTemplateId();
     }
 
     void addFieldValue(FieldValue fieldValue) {
         fieldValues.add(fieldValue);
+        length += fieldValue.getLength();
+    }
+
+    /**
+     * Removes field values, so that the record can be decoded again.
+     */
+    void clear() {
+        if (zeroCopy) {
+            int fieldCount = fieldValues.size();
+            if (spareViews == null || spareViews.length < fieldCount) {
+                spareViews = new FieldValueView[fieldCount];
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                FieldValue fieldValue = fieldValues.get(i);
+                spareViews[i] = fieldValue instanceof FieldValueView ?
+                                (FieldValueView) fieldValue : null;
+            }
+        }
+        fieldValues.clear();
+        length = 0;
+    }
+
+    /**
+     * @return the view of field at given index kept by {@link #clear()}, or null.
+     */
+    FieldValueView takeSpareView(int index) {
+        if (spareViews == null || index >= spareViews.length) {
+            return null;
+        }
+        FieldValueView view = spareViews[index];
+        spareViews[index] = null;
+        return view;
+    }
+
+    /**
+     * @return whether this record decodes by the given template in the given mode.
+     */
+    boolean canDecode(TemplateRecord templateRecord, boolean zeroCopy) {
+        return this.templateRecord == templateRecord && this.zeroCopy == zeroCopy;
+    }
+
+    public int getTemplateId() {
+        return templateId;
+    }
+
+    /**
+     * @return template this record is decoded by, or null if the record is not decoded by a
+     * template.
+     */
+    public TemplateRecord getTemplateRecord() {
+        return templateRecord;
+    }
+
+    /**
+     * @return values of fields in the order of field specifiers of the template.
+     */
+    public List<FieldValue> getFieldValues() {
+        return readOnlyFieldValues;
     }
 
     @Override
     public int length() {
-        return fieldValues.stream().mapToInt(FieldValue::getLength).sum();
+        return length;
     }
 
     @Override
@@ -45,7 +119,11 @@ public class GenericRecord implements Record {
 
     @Override
     public void decodeFrom(ByteBuffer messageBuffer) {
-        templateRecord.decodeDataRecord(messageBuffer, this);
+        if (zeroCopy) {
+            templateRecord.decodeDataRecordView(messageBuffer, this);
+        } else {
+            templateRecord.decodeDataRecord(messageBuffer, this);
+        }
     }
 
     @Override
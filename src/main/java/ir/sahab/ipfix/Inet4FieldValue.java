@@ -0,0 +1,57 @@
+package ir.sahab.ipfix;
+
+import java.net.Inet4Address;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link FieldValue} of an IPv4 address field, e.g. sourceIPv4Address, which keeps the address
+ * as an int and writes it straight into the target buffer when encoded.
+ */
+public class Inet4FieldValue extends FieldValue {
+    private final int address;
+
+    /**
+     * @param address the address in network byte order, e.g. 0x7f000001 for 127.0.0.1.
+     */
+    public Inet4FieldValue(int address) {
+        super(false);
+        this.address = address;
+    }
+
+    public Inet4FieldValue(Inet4Address address) {
+        this(toInt(address.getAddress()));
+    }
+
+    private static int toInt(byte[] address) {
+        return (0xFF & address[0]) << 24 | (0xFF & address[1]) << 16 |
+               (0xFF & address[2]) << 8 | (0xFF & address[3]);
+    }
+
+    @Override
+    public long asLong() {
+        return 0xFFFFFFFFL & address;
+    }
+
+    @Override
+    public int asInt() {
+        return address;
+    }
+
+    /**
+     * @return a new array on every call.
+     */
+    @Override
+    public byte[] getValue() {
+        return toBytes(address, 4);
+    }
+
+    @Override
+    public int getValueLength() {
+        return 4;
+    }
+
+    @Override
+    protected void putValue(ByteBuffer byteBuffer) {
+        byteBuffer.putInt(address);
+    }
+}
@@ -0,0 +1,54 @@
+package ir.sahab.ipfix;
+
+/**
+ * An Information Element, the definition of a field that templates refer to by its identifier
+ * and enterprise number, see {@link InformationElementRegistry}.
+ */
+public final class InformationElement {
+    private final int elementId;
+    private final long enterpriseNum;
+    private final String name;
+    private final DataType dataType;
+
+    /**
+     * @param elementId identifier of the element, without the enterprise bit.
+     * @param enterpriseNum enterprise number of enterprise-specific elements, 0 for IANA elements.
+     */
+    public InformationElement(int elementId, long enterpriseNum, String name, DataType dataType) {
+        if (elementId < 0 || elementId > 0x7fff) {
+            throw new IllegalArgumentException("Element Id is out of range.");
+        }
+        if (enterpriseNum < 0 || enterpriseNum > 0xffffffffL) {
+            throw new IllegalArgumentException("Enterprise num is out of range.");
+        }
+        this.elementId = elementId;
+        this.enterpriseNum = enterpriseNum;
+        this.name = name;
+        this.dataType = dataType;
+    }
+
+    public int getElementId() {
+        return elementId;
+    }
+
+    public long getEnterpriseNum() {
+        return enterpriseNum;
+    }
+
+    public boolean isEnterprise() {
+        return enterpriseNum != 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DataType getDataType() {
+        return dataType;
+    }
+
+    @Override
+    public String toString() {
+        return name + '(' + (isEnterprise() ? enterpriseNum + "/" : "") + elementId + ')';
+    }
+}
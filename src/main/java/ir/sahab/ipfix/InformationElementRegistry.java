@@ -0,0 +1,207 @@
+package ir.sahab.ipfix;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ *     Names and data types of Information Elements. A new registry knows common elements of the
+ *     IANA registry, and enterprise-specific elements can be registered in it. Elements are looked
+ *     up by name or by identifier and enterprise number of field specifiers.
+ * </p>
+ * <p>
+ *     Names are resolved once per template by compiling {@link FieldAccessor}s, which then read
+ *     values of data records by index or offset:
+ * </p>
+ * <pre>
+ *     FieldAccessor source = registry.accessor(template, "sourceIPv4Address");
+ *     FieldAccessor start = registry.accessor(template, "flowStartMilliseconds");
+ *     while (cursor.next()) {
+ *         int address = (int) source.getLong(cursor);
+ *         long startTime = start.getLong(cursor);
+ *     }
+ * </pre>
+ * <p>
+ *     Registry is thread-safe.
+ * </p>
+ */
+public class InformationElementRegistry {
+    private final Map<Long, InformationElement> elementsById = new ConcurrentHashMap<>();
+    private final Map<String, InformationElement> elementsByName = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry that knows common IANA elements.
+     */
+    public InformationElementRegistry() {
+        registerIanaElements();
+    }
+
+    /**
+     * Registers an element, usually an enterprise-specific one.
+     *
+     * @throws IllegalArgumentException if another element with the same identifier or name is
+     * registered.
+     */
+    public synchronized void register(InformationElement element) {
+        long key = key(element.getElementId(), element.getEnterpriseNum());
+        InformationElement sameId = elementsById.get(key);
+        InformationElement sameName = elementsByName.get(element.getName());
+        if (sameId != null || sameName != null) {
+            throw new IllegalArgumentException("Element " + element + " conflicts with " +
+                                               (sameId != null ? sameId : sameName) + '.');
+        }
+        elementsById.put(key, element);
+        elementsByName.put(element.getName(), element);
+    }
+
+    /**
+     * @return the IANA element with given identifier, or null if it is not known.
+     */
+    public InformationElement get(int elementId) {
+        return elementsById.get(key(elementId, 0));
+    }
+
+    /**
+     * @return the element with given identifier and enterprise number, or null if it is not known.
+     */
+    public InformationElement get(int elementId, long enterpriseNum) {
+        return elementsById.get(key(elementId, enterpriseNum));
+    }
+
+    /**
+     * @return the element that given field refers to, or null if it is not known.
+     */
+    public InformationElement get(FieldSpecifier fieldSpecifier) {
+        return get(fieldSpecifier.getElementId(), fieldSpecifier.getEnterpriseNum());
+    }
+
+    /**
+     * @return the element with given name, or null if it is not known.
+     */
+    public InformationElement get(String name) {
+        return elementsByName.get(name);
+    }
+
+    /**
+     * Compiles an accessor of the field of the named element in data records of a template.
+     *
+     * @return the accessor, which is not present if the template has no such field.
+     * @throws IllegalArgumentException if no element has the given name.
+     */
+    public FieldAccessor accessor(TemplateRecord templateRecord, String name) {
+        InformationElement element = get(name);
+        if (element == null) {
+            throw new IllegalArgumentException("Information element " + name + " is not known.");
+        }
+        return new FieldAccessor(templateRecord, element);
+    }
+
+    private static long key(int elementId, long enterpriseNum) {
+        return enterpriseNum << 15 | elementId;
+    }
+
+    private void register(int elementId, String name, DataType dataType) {
+        register(new InformationElement(elementId, 0, name, dataType));
+    }
+
+    private void registerIanaElements() {
+        register(1, "octetDeltaCount", DataType.UNSIGNED64);
+        register(2, "packetDeltaCount", DataType.UNSIGNED64);
+        register(3, "deltaFlowCount", DataType.UNSIGNED64);
+        register(4, "protocolIdentifier", DataType.UNSIGNED8);
+        register(5, "ipClassOfService", DataType.UNSIGNED8);
+        register(6, "tcpControlBits", DataType.UNSIGNED16);
+        register(7, "sourceTransportPort", DataType.UNSIGNED16);
+        register(8, "sourceIPv4Address", DataType.IPV4_ADDRESS);
+        register(9, "sourceIPv4PrefixLength", DataType.UNSIGNED8);
+        register(10, "ingressInterface", DataType.UNSIGNED32);
+        register(11, "destinationTransportPort", DataType.UNSIGNED16);
+        register(12, "destinationIPv4Address", DataType.IPV4_ADDRESS);
+        register(13, "destinationIPv4PrefixLength", DataType.UNSIGNED8);
+        register(14, "egressInterface", DataType.UNSIGNED32);
+        register(15, "ipNextHopIPv4Address", DataType.IPV4_ADDRESS);
+        register(16, "bgpSourceAsNumber", DataType.UNSIGNED32);
+        register(17, "bgpDestinationAsNumber", DataType.UNSIGNED32);
+        register(18, "bgpNextHopIPv4Address", DataType.IPV4_ADDRESS);
+        register(19, "postMCastPacketDeltaCount", DataType.UNSIGNED64);
+        register(20, "postMCastOctetDeltaCount", DataType.UNSIGNED64);
+        register(21, "flowEndSysUpTime", DataType.UNSIGNED32);
+        register(22, "flowStartSysUpTime", DataType.UNSIGNED32);
+        register(23, "postOctetDeltaCount", DataType.UNSIGNED64);
+        register(24, "postPacketDeltaCount", DataType.UNSIGNED64);
+        register(25, "minimumIpTotalLength", DataType.UNSIGNED64);
+        register(26, "maximumIpTotalLength", DataType.UNSIGNED64);
+        register(27, "sourceIPv6Address", DataType.IPV6_ADDRESS);
+        register(28, "destinationIPv6Address", DataType.IPV6_ADDRESS);
+        register(29, "sourceIPv6PrefixLength", DataType.UNSIGNED8);
+        register(30, "destinationIPv6PrefixLength", DataType.UNSIGNED8);
+        register(31, "flowLabelIPv6", DataType.UNSIGNED32);
+        register(32, "icmpTypeCodeIPv4", DataType.UNSIGNED16);
+        register(34, "samplingInterval", DataType.UNSIGNED32);
+        register(35, "samplingAlgorithm", DataType.UNSIGNED8);
+        register(36, "flowActiveTimeout", DataType.UNSIGNED16);
+        register(37, "flowIdleTimeout", DataType.UNSIGNED16);
+        register(40, "exportedOctetTotalCount", DataType.UNSIGNED64);
+        register(41, "exportedMessageTotalCount", DataType.UNSIGNED64);
+        register(42, "exportedFlowRecordTotalCount", DataType.UNSIGNED64);
+        register(48, "samplerId", DataType.UNSIGNED8);
+        register(50, "samplerRandomInterval", DataType.UNSIGNED32);
+        register(52, "minimumTTL", DataType.UNSIGNED8);
+        register(53, "maximumTTL", DataType.UNSIGNED8);
+        register(54, "fragmentIdentification", DataType.UNSIGNED32);
+        register(56, "sourceMacAddress", DataType.MAC_ADDRESS);
+        register(58, "vlanId", DataType.UNSIGNED16);
+        register(60, "ipVersion", DataType.UNSIGNED8);
+        register(61, "flowDirection", DataType.UNSIGNED8);
+        register(62, "ipNextHopIPv6Address", DataType.IPV6_ADDRESS);
+        register(63, "bgpNextHopIPv6Address", DataType.IPV6_ADDRESS);
+        register(80, "destinationMacAddress", DataType.MAC_ADDRESS);
+        register(82, "interfaceName", DataType.STRING);
+        register(83, "interfaceDescription", DataType.STRING);
+        register(85, "octetTotalCount", DataType.UNSIGNED64);
+        register(86, "packetTotalCount", DataType.UNSIGNED64);
+        register(88, "fragmentOffset", DataType.UNSIGNED16);
+        register(95, "applicationId", DataType.OCTET_ARRAY);
+        register(96, "applicationName", DataType.STRING);
+        register(128, "bgpNextAdjacentAsNumber", DataType.UNSIGNED32);
+        register(129, "bgpPrevAdjacentAsNumber", DataType.UNSIGNED32);
+        register(130, "exporterIPv4Address", DataType.IPV4_ADDRESS);
+        register(131, "exporterIPv6Address", DataType.IPV6_ADDRESS);
+        register(136, "flowEndReason", DataType.UNSIGNED8);
+        register(139, "icmpTypeCodeIPv6", DataType.UNSIGNED16);
+        register(148, "flowId", DataType.UNSIGNED64);
+        register(149, "observationDomainId", DataType.UNSIGNED32);
+        register(150, "flowStartSeconds", DataType.DATE_TIME_SECONDS);
+        register(151, "flowEndSeconds", DataType.DATE_TIME_SECONDS);
+        register(152, "flowStartMilliseconds", DataType.DATE_TIME_MILLISECONDS);
+        register(153, "flowEndMilliseconds", DataType.DATE_TIME_MILLISECONDS);
+        register(154, "flowStartMicroseconds", DataType.DATE_TIME_MICROSECONDS);
+        register(155, "flowEndMicroseconds", DataType.DATE_TIME_MICROSECONDS);
+        register(156, "flowStartNanoseconds", DataType.DATE_TIME_NANOSECONDS);
+        register(157, "flowEndNanoseconds", DataType.DATE_TIME_NANOSECONDS);
+        register(160, "systemInitTimeMilliseconds", DataType.DATE_TIME_MILLISECONDS);
+        register(176, "icmpTypeIPv4", DataType.UNSIGNED8);
+        register(177, "icmpCodeIPv4", DataType.UNSIGNED8);
+        register(192, "ipTTL", DataType.UNSIGNED8);
+        register(210, "paddingOctets", DataType.OCTET_ARRAY);
+        register(224, "ipTotalLength", DataType.UNSIGNED64);
+        register(225, "postNATSourceIPv4Address", DataType.IPV4_ADDRESS);
+        register(226, "postNATDestinationIPv4Address", DataType.IPV4_ADDRESS);
+        register(227, "postNAPTSourceTransportPort", DataType.UNSIGNED16);
+        register(228, "postNAPTDestinationTransportPort", DataType.UNSIGNED16);
+        register(230, "natEvent", DataType.UNSIGNED8);
+        register(231, "initiatorOctets", DataType.UNSIGNED64);
+        register(232, "responderOctets", DataType.UNSIGNED64);
+        register(233, "firewallEvent", DataType.UNSIGNED8);
+        register(234, "ingressVRFID", DataType.UNSIGNED32);
+        register(235, "egressVRFID", DataType.UNSIGNED32);
+        register(239, "biflowDirection", DataType.UNSIGNED8);
+        register(291, "basicList", DataType.BASIC_LIST);
+        register(292, "subTemplateList", DataType.SUB_TEMPLATE_LIST);
+        register(293, "subTemplateMultiList", DataType.SUB_TEMPLATE_MULTI_LIST);
+        register(302, "selectorId", DataType.UNSIGNED64);
+        register(304, "selectorAlgorithm", DataType.UNSIGNED16);
+        register(305, "samplingPacketInterval", DataType.UNSIGNED32);
+        register(306, "samplingPacketSpace", DataType.UNSIGNED32);
+    }
+}
@@ -0,0 +1,67 @@
+package ir.sahab.ipfix;
+
+/**
+ * A minimal open addressing hash map with int keys, which does not box keys on lookups. It is not
+ * thread-safe.
+ *
+ * @param <V> type of values.
+ */
+final class IntObjectMap<V> {
+    private int[] keys = new int[16];
+    private Object[] values = new Object[16];
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = values.length - 1;
+        int index = slot(key, mask);
+        Object value;
+        while ((value = values[index]) != null) {
+            if (keys[index] == key) {
+                return (V) value;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param value must not be null.
+     */
+    void put(int key, V value) {
+        if ((size + 1) * 2 > values.length) {
+            resize();
+        }
+        int mask = values.length - 1;
+        int index = slot(key, mask);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = key;
+        values[index] = value;
+        size++;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                @SuppressWarnings("unchecked")
+                V value = (V) oldValues[i];
+                put(oldKeys[i], value);
+            }
+        }
+    }
+
+    private static int slot(int key, int mask) {
+        return (key * 0x9E3779B9) >>> 16 & mask;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.function.IntPredicate;
 
 /**
  * Represents a message in IPFIX protocol.
@@ -62,19 +63,61 @@ public class IpfixMessage {
 
     public int getLength() {
         // Message has 16 bytes headers.
-        return 16 + recordSets.stream().mapToInt(RecordSet::getLength).sum();
+        int length = 16;
+        for (int i = 0; i < recordSets.size(); i++) {
+            length += recordSets.get(i).getLength();
+        }
+        return length;
     }
 
     public ArrayList<RecordSet> getRecordSets() {
         return recordSets;
     }
 
+    /**
+     * @return number of records in data sets of the message, which sequence numbers count.
+     */
+    public int getDataRecordCount() {
+        int count = 0;
+        for (int i = 0; i < recordSets.size(); i++) {
+            RecordSet recordSet = recordSets.get(i);
+            if (!recordSet.isTemplateSet()) {
+                count += recordSet.getRecords().size();
+            }
+        }
+        return count;
+    }
+
+    public int getVersionNum() {
+        return versionNum;
+    }
+
+    public long getExportTime() {
+        return exportTime;
+    }
+
+    public long getSequenceNum() {
+        return sequenceNum;
+    }
+
+    public long getObservationDomainId() {
+        return observationDomainId;
+    }
+
+    /**
+     * Encodes the message in a single pass over its sets and records. Lengths in message and set
+     * headers are written after their content, at the positions reserved for them.
+     *
+     * @throws IllegalArgumentException if length of the message exceeds 65535 bytes.
+     */
     public void encode(ByteBuffer byteBuffer) {
+        int startPosition = byteBuffer.position();
+
         // Write version number in message header
         byteBuffer.putShort((short) versionNum);
 
-        // Write length in message header
-        byteBuffer.putShort((short) getLength());
+        // Reserve length in message header, it is written after sets.
+        byteBuffer.putShort((short) 0);
 
         // Write export time in message header
         byteBuffer.putInt((int) exportTime);
@@ -86,9 +129,15 @@ public class IpfixMessage {
         byteBuffer.putInt((int) observationDomainId);
 
         // Encode and write recordSets in message
-        for (RecordSet recordSet : recordSets) {
-            recordSet.encode(byteBuffer);
+        for (int i = 0; i < recordSets.size(); i++) {
+            recordSets.get(i).encode(byteBuffer);
+        }
+
+        int length = byteBuffer.position() - startPosition;
+        if (length > MAX_UNSIGNED_SHORT) {
+            throw new IllegalArgumentException("Length of message exceeds 65535 bytes.");
         }
+        byteBuffer.putShort(startPosition + 2, (short) length);
     }
 
     public byte[] encode() throws IOException {
@@ -104,7 +153,49 @@ public class IpfixMessage {
         return decode(messageBuffer, recordFactory);
     }
 
+    /**
+     * Reads the header of a message without decoding its sets, and without changing position of
+     * the buffer. It is much cheaper than decoding for consumers that only route or sample
+     * messages by their headers.
+     *
+     * @return a message with the header fields and no sets.
+     * @throws IllegalArgumentException if the buffer has less than a message header remaining.
+     */
+    public static IpfixMessage peekHeader(ByteBuffer messageBuffer) {
+        int position = messageBuffer.position();
+        if (messageBuffer.remaining() < 16) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        return new IpfixMessage(messageBuffer.getShort(position) & MAX_UNSIGNED_SHORT,
+                                messageBuffer.getInt(position + 4) & MAX_UNSIGNED_INT,
+                                messageBuffer.getInt(position + 8) & MAX_UNSIGNED_INT,
+                                messageBuffer.getInt(position + 12) & MAX_UNSIGNED_INT);
+    }
+
+    /**
+     * Decodes a message. Templates it defines are registered in recordFactory for its observation
+     * domain and exporter set by {@link RecordFactory#setExporter}. In lenient decoding, sets of
+     * unknown templates are left out of the message, and sets left out of earlier messages whose
+     * templates are known now are appended to it, see
+     * {@link RecordFactory#setLenientDecoding(boolean)}.
+     */
     public static IpfixMessage decode(ByteBuffer messageBuffer, RecordFactory recordFactory) {
+        return decode(messageBuffer, recordFactory, null);
+    }
+
+    /**
+     * Decodes a message, parsing only the data sets accepted by setFilter. Other data sets are
+     * skipped by their length and left out of the message. Template sets are always decoded, so
+     * templates are learned even if their data sets are filtered out.
+     *
+     * @param setFilter accepts Ids of the data sets to decode, i.e. their template Ids, or null to
+     * decode all sets.
+     */
+    public static IpfixMessage decode(ByteBuffer messageBuffer, RecordFactory recordFactory,
+                                      IntPredicate setFilter) {
+        DecodeMetrics metrics = recordFactory.getMetrics();
+        // Clock is not read when nobody measures.
+        long startNanos = metrics == DecodeMetrics.NOOP ? 0 : System.nanoTime();
         int startOfMessagePosition = messageBuffer.position();
         int endOfMessagePosition = startOfMessagePosition;
         try {
@@ -121,23 +212,49 @@ public class IpfixMessage {
 
             IpfixMessage ipfixMessage = new IpfixMessage(versionNum, exportTime, sequenceNum,
                                                          observationDomainId);
+            recordFactory.beginMessage(observationDomainId);
             // Read sets and add them to IPFIX message
             while (messageBuffer.position() < endOfMessagePosition && messageBuffer.hasRemaining()) {
-                ipfixMessage.addSet(RecordSet.decode(messageBuffer, recordFactory));
+                if (setFilter != null) {
+                    // Set header is peeked, so a truncated one is not caught by reading it.
+                    if (endOfMessagePosition - messageBuffer.position() < 4 ||
+                        messageBuffer.remaining() < 4) {
+                        throw new IllegalArgumentException("Invalid IPFIX message.");
+                    }
+                    int setId = messageBuffer.getShort(messageBuffer.position()) &
+                                MAX_UNSIGNED_SHORT;
+                    if (!RecordSet.isTemplateSetId(setId) && !setFilter.test(setId)) {
+                        RecordSet.skip(messageBuffer);
+                        continue;
+                    }
+                }
+                RecordSet recordSet = RecordSet.decode(messageBuffer, recordFactory);
+                // Sets of unknown templates are deferred in lenient decoding
+                if (recordSet != null) {
+                    ipfixMessage.addSet(recordSet);
+                }
             }
 
-            if (ipfixMessage.getLength() != length) {
-                throw new IllegalArgumentException(
-                    "Length in header doesn't match length of message.");
-            }
             if (messageBuffer.position() != endOfMessagePosition) {
                 throw new IllegalArgumentException("Length of the message does not match the " +
                                                    "payload.");
             }
+            if (recordFactory.isLenientDecoding()) {
+                recordFactory.replayPendingSets(ipfixMessage);
+            }
 
+            if (metrics != DecodeMetrics.NOOP) {
+                metrics.onMessage(observationDomainId, length, System.nanoTime() - startNanos);
+            }
             return ipfixMessage;
         } catch (BufferUnderflowException e) {
+            metrics.onMalformedMessage();
             throw new IllegalArgumentException("Invalid IPFIX message.", e);
+        } catch (TemplateNotDefinedException e) {
+            throw e;
+        } catch (IllegalArgumentException e) {
+            metrics.onMalformedMessage();
+            throw e;
         } finally {
             messageBuffer.position(endOfMessagePosition);
         }
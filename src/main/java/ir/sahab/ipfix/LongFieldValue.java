@@ -0,0 +1,67 @@
+package ir.sahab.ipfix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link FieldValue} of an integer field, e.g. octetDeltaCount or a port number, which keeps
+ * the integer itself and writes it straight into the target buffer when encoded. Values may be
+ * encoded in fewer bytes than their type, as RFC 7011 section 6.2 allows.
+ */
+public class LongFieldValue extends FieldValue {
+    private final long value;
+    private final int length;
+
+    /**
+     * @param value integer value, only its lowest length bytes are encoded.
+     * @param length length of the field in template, must be between 1 and 8.
+     */
+    public LongFieldValue(long value, int length) {
+        super(false);
+        if (length < 1 || length > 8) {
+            throw new IllegalArgumentException("Length of an integer must be between 1 and 8.");
+        }
+        this.value = value;
+        this.length = length;
+    }
+
+    @Override
+    public long asLong() {
+        // Bytes above length are not part of the value
+        return length == 8 ? value : value & ((1L << (8 * length)) - 1);
+    }
+
+    /**
+     * @return a new array on every call.
+     */
+    @Override
+    public byte[] getValue() {
+        return toBytes(value, length);
+    }
+
+    @Override
+    public int getValueLength() {
+        return length;
+    }
+
+    @Override
+    protected void putValue(ByteBuffer byteBuffer) {
+        switch (length) {
+            case 1:
+                byteBuffer.put((byte) value);
+                break;
+            case 2:
+                byteBuffer.putShort((short) value);
+                break;
+            case 4:
+                byteBuffer.putInt((int) value);
+                break;
+            case 8:
+                byteBuffer.putLong(value);
+                break;
+            default:
+                for (int shift = 8 * (length - 1); shift >= 0; shift -= 8) {
+                    byteBuffer.put((byte) (value >>> shift));
+                }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package ir.sahab.ipfix;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *     A thread-safe cache of the latest options data of exporters, e.g. sampling rate of each
+ *     sampler or name of each interface, used to enrich data records. Options data records are
+ *     kept by exporter, observation domain and scope, and a newer record of the same scope
+ *     replaces the older one. A {@link RecordFactory} fills the cache as it decodes options data,
+ *     see {@link RecordFactory#setOptionsDataCache(OptionsDataCache)}.
+ * </p>
+ * <p>
+ *     Scope of a record is its first scope field, which must be an integer of at most 8 bytes,
+ *     as scopes of sampling and interface options are. Records of other scopes are not kept.
+ *     Options of a domain are looked up in O(1) without locking or allocation, and the domain can
+ *     be kept by callers to avoid looking it up per record:
+ * </p>
+ * <pre>
+ *     OptionsDataCache.OptionsDomain options = cache.getDomain(exporter, observationDomainId);
+ *     GenericRecord sampler = options.get(SELECTOR_ID, selectorId);
+ * </pre>
+ * <p>
+ *     Values of cached records are copied, so they stay valid when records are decoded in
+ *     zero-copy or pooled record modes.
+ * </p>
+ */
+public class OptionsDataCache {
+    private final ConcurrentMap<TemplateRegistry.DomainKey, OptionsDomain> domains =
+            new ConcurrentHashMap<>();
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder unsupportedScopes = new LongAdder();
+
+    /**
+     * @param exporter address of the exporter, may be null when exporter is not known.
+     * @return options of the observation domain of the exporter, created if not exists.
+     */
+    public OptionsDomain getDomain(SocketAddress exporter, long observationDomainId) {
+        TemplateRegistry.DomainKey key =
+                new TemplateRegistry.DomainKey(exporter, observationDomainId);
+        OptionsDomain domain = domains.get(key);
+        if (domain == null) {
+            domain = domains.computeIfAbsent(key, k -> new OptionsDomain(exporter));
+        }
+        return domain;
+    }
+
+    /**
+     * @return the latest options data record of the scope, or null if there is no such record.
+     */
+    public GenericRecord get(SocketAddress exporter, long observationDomainId, int scopeElementId,
+                             long scopeValue) {
+        OptionsDomain domain =
+                domains.get(new TemplateRegistry.DomainKey(exporter, observationDomainId));
+        return domain == null ? null : domain.get(scopeElementId, scopeValue);
+    }
+
+    /**
+     * Keeps a copy of a data record of an options template, replacing the record of the same
+     * scope.
+     *
+     * @return whether the record is kept, false if its scope is not supported.
+     * @throws IllegalArgumentException if the record is not decoded by an options template.
+     */
+    public boolean put(SocketAddress exporter, long observationDomainId,
+                       GenericRecord optionsRecord) {
+        if (!(optionsRecord.getTemplateRecord() instanceof OptionsTemplateRecord)) {
+            throw new IllegalArgumentException("Record is not decoded by an options template.");
+        }
+        TemplateRecord templateRecord = optionsRecord.getTemplateRecord();
+        FieldSpecifier scopeField = templateRecord.getFieldSpecifiers().get(0);
+        FieldValue scopeValue = optionsRecord.getFieldValues().get(0);
+        int scopeLength = scopeValue.getValueLength();
+        if (scopeLength == 0 || scopeLength > 8) {
+            unsupportedScopes.increment();
+            return false;
+        }
+
+        GenericRecord copy = new GenericRecord(templateRecord);
+        for (FieldValue fieldValue : optionsRecord.getFieldValues()) {
+            copy.addFieldValue(fieldValue instanceof FieldValueView ?
+                               ((FieldValueView) fieldValue).copy() : fieldValue);
+        }
+        getDomain(exporter, observationDomainId).put(scopeField.getElementId(),
+                                                     scopeValue.asLong(), copy);
+        updates.increment();
+        return true;
+    }
+
+    /**
+     * Removes all options of the exporter, e.g. when its transport session is closed.
+     */
+    public void removeExporter(SocketAddress exporter) {
+        Iterator<Map.Entry<TemplateRegistry.DomainKey, OptionsDomain>> iterator =
+                domains.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (Objects.equals(iterator.next().getValue().exporter, exporter)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return number of options data records kept.
+     */
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    /**
+     * @return number of options data records not kept because of their scope.
+     */
+    public long getUnsupportedScopeCount() {
+        return unsupportedScopes.sum();
+    }
+
+    /**
+     * Options of one observation domain of one exporter. Records of a scope are kept in an
+     * immutable open addressing table which is replaced when a new scope is added
+     * (copy-on-write), while newer records of a known scope replace the older one in place.
+     */
+    public static final class OptionsDomain {
+        private final SocketAddress exporter;
+        private volatile ScopeTable table = new ScopeTable(0);
+
+        OptionsDomain(SocketAddress exporter) {
+            this.exporter = exporter;
+        }
+
+        /**
+         * @param scopeElementId Information Element identifier of the scope field, e.g. 302 for
+         * selectorId or 10 for ingressInterface.
+         * @return the latest options data record of the scope, or null if there is no such record.
+         */
+        public GenericRecord get(int scopeElementId, long scopeValue) {
+            ScopeEntry entry = table.get(scopeElementId, scopeValue);
+            return entry == null ? null : entry.record;
+        }
+
+        /**
+         * @return number of scopes with options data.
+         */
+        public int size() {
+            return table.size;
+        }
+
+        void put(int scopeElementId, long scopeValue, GenericRecord record) {
+            ScopeEntry entry = table.get(scopeElementId, scopeValue);
+            if (entry != null) {
+                entry.record = record;
+                return;
+            }
+            synchronized (this) {
+                ScopeTable currentTable = table;
+                entry = currentTable.get(scopeElementId, scopeValue);
+                if (entry != null) {
+                    entry.record = record;
+                    return;
+                }
+                ScopeTable newTable = new ScopeTable(currentTable.size + 1);
+                for (ScopeEntry oldEntry : currentTable.entries) {
+                    if (oldEntry != null) {
+                        newTable.put(oldEntry);
+                    }
+                }
+                newTable.put(new ScopeEntry(scopeElementId, scopeValue, record));
+                table = newTable;
+            }
+        }
+
+        /**
+         * @return a snapshot of records of all scopes.
+         */
+        public List<GenericRecord> getRecords() {
+            List<GenericRecord> records = new ArrayList<>(table.size);
+            for (ScopeEntry entry : table.entries) {
+                if (entry != null) {
+                    records.add(entry.record);
+                }
+            }
+            return records;
+        }
+    }
+
+    private static final class ScopeEntry {
+        private final int scopeElementId;
+        private final long scopeValue;
+        private volatile GenericRecord record;
+
+        private ScopeEntry(int scopeElementId, long scopeValue, GenericRecord record) {
+            this.scopeElementId = scopeElementId;
+            this.scopeValue = scopeValue;
+            this.record = record;
+        }
+    }
+
+    private static final class ScopeTable {
+        private final ScopeEntry[] entries;
+        private final int mask;
+        private final int size;
+
+        private ScopeTable(int size) {
+            // Keep load factor at most 0.5 to keep probe sequences short.
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+            this.entries = new ScopeEntry[capacity];
+            this.mask = capacity - 1;
+            this.size = size;
+        }
+
+        private ScopeEntry get(int scopeElementId, long scopeValue) {
+            int index = slot(scopeElementId, scopeValue);
+            ScopeEntry entry;
+            while ((entry = entries[index]) != null) {
+                if (entry.scopeValue == scopeValue && entry.scopeElementId == scopeElementId) {
+                    return entry;
+                }
+                index = (index + 1) & mask;
+            }
+            return null;
+        }
+
+        // Only used while building a new table, before it is published.
+        private void put(ScopeEntry entry) {
+            int index = slot(entry.scopeElementId, entry.scopeValue);
+            while (entries[index] != null) {
+                index = (index + 1) & mask;
+            }
+            entries[index] = entry;
+        }
+
+        private int slot(int scopeElementId, long scopeValue) {
+            long hash = (scopeValue ^ ((long) scopeElementId << 32)) * 0x9E3779B97F4A7C15L;
+            return (int) (hash >>> 32) & mask;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package ir.sahab.ipfix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     Represents an options template record in IPFIX protocol, received in options template sets
+ *     (with set Id 3). Besides field specifiers of a template it has a scope field count: the
+ *     first fields are scope fields, which tell what the options data describes, e.g. an
+ *     interface by its ingressInterface or a sampler by its selectorId, and the other fields are
+ *     the options, e.g. its interfaceName or samplingPacketInterval.
+ * </p>
+ * <p>
+ *     Data records of options templates are decoded like other data records, and can be kept by
+ *     their scope in an {@link OptionsDataCache}.
+ * </p>
+ */
+public class OptionsTemplateRecord extends TemplateRecord {
+    private int scopeFieldCount;
+
+    public OptionsTemplateRecord() {}
+
+    /**
+     * @param scopeFieldCount number of the first fields added to the template that are scope
+     * fields, must be positive.
+     */
+    public OptionsTemplateRecord(int templateId, int scopeFieldCount)
+            throws IllegalArgumentException {
+        super(templateId);
+        if (scopeFieldCount <= 0 || scopeFieldCount > 0xffff) {
+            throw new IllegalArgumentException("Scope field count must be between 1 and 65535.");
+        }
+        this.scopeFieldCount = scopeFieldCount;
+    }
+
+    public int getScopeFieldCount() {
+        return scopeFieldCount;
+    }
+
+    @Override
+    public int length() {
+        // Withdrawals have no scope field count
+        return isWithdrawal() ? super.length() : super.length() + 2;
+    }
+
+    @Override
+    void encodeScopeFieldCount(ByteBuffer byteBuffer) {
+        if (!isWithdrawal()) {
+            byteBuffer.putShort((short) scopeFieldCount);
+        }
+    }
+
+    @Override
+    void decodeScopeFieldCount(ByteBuffer messageBuffer, int fieldCount) {
+        if (fieldCount == 0) {
+            scopeFieldCount = 0;
+            return;
+        }
+        scopeFieldCount = ByteBufferUtils.readUnsignedShort(messageBuffer);
+        if (scopeFieldCount == 0 || scopeFieldCount > fieldCount) {
+            throw new IllegalArgumentException("Invalid scope field count " + scopeFieldCount +
+                                               " in options template.");
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return super.equals(obj) && scopeFieldCount == ((OptionsTemplateRecord) obj).scopeFieldCount;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + scopeFieldCount;
+    }
+
+    @Override
+    public OptionsTemplateRecord clone() {
+        OptionsTemplateRecord newRecord = new OptionsTemplateRecord(getTemplateId(),
+                                                                    scopeFieldCount);
+        for (FieldSpecifier fieldSpecifier : getFieldSpecifiers()) {
+            newRecord.addField(fieldSpecifier.clone());
+        }
+        return newRecord;
+    }
+}
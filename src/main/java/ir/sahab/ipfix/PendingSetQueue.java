@@ -0,0 +1,138 @@
+package ir.sahab.ipfix;
+
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * Data sets deferred by lenient decoding because their template was not known yet, kept until
+ * the template arrives. Queue is bounded by number of sets and their total bytes, and the oldest
+ * sets are dropped to make room for new ones. It is owned by one {@link RecordFactory}, so it is
+ * not thread-safe.
+ */
+final class PendingSetQueue {
+    private final ArrayDeque<PendingSet> sets = new ArrayDeque<>();
+    private int maxSets;
+    private int maxBytes;
+    private int bytes;
+
+    private long deferredCount;
+    private long replayedCount;
+    private long droppedCount;
+
+    PendingSetQueue(int maxSets, int maxBytes) {
+        setLimits(maxSets, maxBytes);
+    }
+
+    void setLimits(int maxSets, int maxBytes) {
+        if (maxSets < 0 || maxBytes < 0) {
+            throw new IllegalArgumentException("Limits of pending sets must not be negative.");
+        }
+        this.maxSets = maxSets;
+        this.maxBytes = maxBytes;
+        dropOldest(0);
+    }
+
+    /**
+     * Copies a set out of the message buffer into the queue.
+     *
+     * @param startPosition position of the set header in buffer.
+     * @param length length of the set, including its header.
+     */
+    void add(TemplateDomain domain, int setId, ByteBuffer messageBuffer, int startPosition,
+             int length) {
+        deferredCount++;
+        if (length > maxBytes || maxSets == 0) {
+            droppedCount++;
+            return;
+        }
+        dropOldest(length);
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = messageBuffer.get(startPosition + i);
+        }
+        sets.add(new PendingSet(domain.getExporter(), domain.getObservationDomainId(), setId,
+                                content));
+        bytes += length;
+    }
+
+    /**
+     * Decodes the sets of the current domain of the factory whose template is known now, and adds
+     * them to the message in the order they were received. Sets that can not be decoded by their
+     * template are dropped.
+     */
+    void replay(RecordFactory recordFactory, IpfixMessage ipfixMessage) {
+        TemplateDomain domain = recordFactory.getCurrentDomain();
+        Iterator<PendingSet> iterator = sets.iterator();
+        while (iterator.hasNext()) {
+            PendingSet pendingSet = iterator.next();
+            if (!pendingSet.belongsTo(domain) ||
+                recordFactory.findTemplate(pendingSet.setId) == null) {
+                continue;
+            }
+            iterator.remove();
+            bytes -= pendingSet.content.length;
+            try {
+                ipfixMessage.addSet(RecordSet.decode(ByteBuffer.wrap(pendingSet.content),
+                                                     recordFactory));
+                replayedCount++;
+            } catch (IllegalArgumentException | BufferUnderflowException e) {
+                droppedCount++;
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return sets.isEmpty();
+    }
+
+    int size() {
+        return sets.size();
+    }
+
+    long getDeferredCount() {
+        return deferredCount;
+    }
+
+    long getReplayedCount() {
+        return replayedCount;
+    }
+
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Drops oldest sets until a set of given length fits in limits.
+     */
+    private void dropOldest(int length) {
+        while (!sets.isEmpty() && (sets.size() + (length > 0 ? 1 : 0) > maxSets ||
+                                   bytes + length > maxBytes)) {
+            bytes -= sets.poll().content.length;
+            droppedCount++;
+        }
+    }
+
+    private static final class PendingSet {
+        private final SocketAddress exporter;
+        private final long observationDomainId;
+        private final int setId;
+        private final byte[] content;
+
+        private PendingSet(SocketAddress exporter, long observationDomainId, int setId,
+                           byte[] content) {
+            this.exporter = exporter;
+            this.observationDomainId = observationDomainId;
+            this.setId = setId;
+            this.content = content;
+        }
+
+        private boolean belongsTo(TemplateDomain domain) {
+            return observationDomainId == domain.getObservationDomainId() &&
+                   Objects.equals(exporter, domain.getExporter());
+        }
+    }
+}
@@ -1,48 +1,471 @@
 package ir.sahab.ipfix;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.lang.reflect.Constructor;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.function.Supplier;
 
 /**
- * This class used to register templates and custom records, then instantiate raw records based on
- * template Id to fill in decode procedure.
+ * <p>
+ *     This class used to register templates and custom records, then instantiate raw records based
+ *     on template Id to fill in decode procedure.
+ * </p>
+ * <p>
+ *     Templates received in messages are kept in a {@link TemplateRegistry}, scoped by exporter and
+ *     observation domain of the message. Templates registered by
+ *     {@link #registerGenericRecordType(TemplateRecord)} are not scoped and are used for any
+ *     exporter and domain that has not defined a template with the same Id.
+ * </p>
+ * <p>
+ *     A record factory keeps state of the message being decoded, so it must be used by one thread
+ *     at a time. Decoder threads can share templates by creating their factories on the same
+ *     registry.
+ * </p>
  */
 public class RecordFactory {
-    private Map<Integer, Class<? extends Record>> customRecordMap = new HashMap<>();
-    private Map<Integer, TemplateRecord> templateMap = new HashMap<>();
+    private final static int DEFAULT_MAX_POOLED_RECORDS = 1024;
+    private final static int DEFAULT_MAX_PENDING_SETS = 1024;
+    private final static int DEFAULT_MAX_PENDING_BYTES = 4 * 1024 * 1024;
 
+    private IntObjectMap<Supplier<? extends Record>> customRecordMap = new IntObjectMap<>();
+    private IntObjectMap<ArrayDeque<Record>> recordPools = new IntObjectMap<>();
+    private volatile TemplateTable templateTable = TemplateTable.EMPTY;
+    private final TemplateRegistry templateRegistry;
+    private SocketAddress exporter;
+    private TemplateDomain currentDomain;
+    // Time of the message being decoded, read once per message for template expiry
+    private long now;
+    private boolean zeroCopyDecoding;
+    private boolean recordPooling;
+    private int maxPooledRecords = DEFAULT_MAX_POOLED_RECORDS;
+    private OptionsDataCache optionsDataCache;
+    private boolean lenientDecoding;
+    private final PendingSetQueue pendingSets =
+            new PendingSetQueue(DEFAULT_MAX_PENDING_SETS, DEFAULT_MAX_PENDING_BYTES);
+    // Template additions of registry and domain of the last replay of pending sets
+    private long replayedAdditions = -1;
+    private TemplateDomain replayedDomain;
+    private DecodeMetrics metrics = DecodeMetrics.NOOP;
+
+    /**
+     * Creates a factory with a private template registry.
+     */
     public RecordFactory() {
-        registerCustomRecord(2, TemplateRecord.class);
+        this(new TemplateRegistry());
+    }
+
+    /**
+     * Creates a factory that learns and looks up templates in the given registry, which may be
+     * shared with factories of other threads.
+     */
+    public RecordFactory(TemplateRegistry templateRegistry) {
+        this.templateRegistry = templateRegistry;
+        registerCustomRecord(2, TemplateRecord::new);
+        registerCustomRecord(3, OptionsTemplateRecord::new);
+    }
+
+    public TemplateRegistry getTemplateRegistry() {
+        return templateRegistry;
+    }
+
+    /**
+     * Sets address of the exporter of next messages to be decoded. Templates they contain are
+     * registered for this exporter, and their data sets are decoded by its templates.
+     *
+     * @param exporter address of the exporter, null when it is not known.
+     */
+    public void setExporter(SocketAddress exporter) {
+        if (!Objects.equals(this.exporter, exporter)) {
+            this.exporter = exporter;
+            currentDomain = null;
+        }
+    }
+
+    public SocketAddress getExporter() {
+        return exporter;
+    }
+
+    /**
+     * Called at the beginning of decoding a message, to select templates of its observation
+     * domain.
+     */
+    void beginMessage(long observationDomainId) {
+        now = templateRegistry.currentTimeMillis();
+        // Consecutive messages usually belong to the same domain, avoid registry lookup for them.
+        // A domain removed from the registry, e.g. when its session is closed, is looked up again.
+        if (currentDomain == null || currentDomain.getObservationDomainId() != observationDomainId ||
+            currentDomain.isRemoved()) {
+            currentDomain = templateRegistry.getDomain(exporter, observationDomainId);
+        }
+    }
+
+    /**
+     * @return templates of observation domain of the message being decoded.
+     */
+    TemplateDomain getCurrentDomain() {
+        if (currentDomain == null) {
+            // Sets decoded without a message belong to the default domain.
+            beginMessage(0);
+        }
+        return currentDomain;
     }
 
     public Record newRawRecord(int templateId) {
+        return newRawRecord(templateId, true);
+    }
 
-        if (customRecordMap.containsKey(templateId)) {
-            try {
-                return customRecordMap.get(templateId).newInstance();
-            } catch (InstantiationException | IllegalAccessException e) {
-                throw new IllegalStateException(e);
+    /**
+     * Creates another record of a set being decoded, whose template is looked up for its first
+     * record already, so the lookup is not counted again.
+     */
+    Record nextRawRecord(int templateId) {
+        return newRawRecord(templateId, false);
+    }
+
+    private Record newRawRecord(int templateId, boolean countLookup) {
+        Record record = newRawRecordIfDefined(templateId, countLookup);
+        if (record == null) {
+            metrics.onTemplateNotDefined(getCurrentDomain().getObservationDomainId(), templateId);
+            throw new TemplateNotDefinedException("No template or custom record defined for " +
+                    "requested Id: " + templateId + '.');
+        }
+        return record;
+    }
+
+    /**
+     * Same as {@link #newRawRecord(int)}, but returns null instead of throwing an exception when
+     * there is no template, since sets with unknown templates are common in lenient decoding.
+     */
+    Record newRawRecordIfDefined(int templateId) {
+        return newRawRecordIfDefined(templateId, true);
+    }
+
+    private Record newRawRecordIfDefined(int templateId, boolean countLookup) {
+        Supplier<? extends Record> customRecordSupplier = customRecordMap.get(templateId);
+        if (customRecordSupplier != null) {
+            if (recordPooling) {
+                Record pooledRecord = pollPooledRecord(templateId);
+                if (pooledRecord != null) {
+                    return pooledRecord;
+                }
+            }
+            return customRecordSupplier.get();
+        }
+
+        TemplateRecord templateRecord = findTemplate(templateId);
+        if (countLookup) {
+            templateRegistry.countLookup(templateRecord != null);
+        }
+        if (templateRecord != null) {
+            if (recordPooling) {
+                Record pooledRecord = pollPooledRecord(templateId);
+                // Pooled record may belong to a replaced template or another domain's template
+                if (pooledRecord instanceof GenericRecord &&
+                    ((GenericRecord) pooledRecord).canDecode(templateRecord, zeroCopyDecoding)) {
+                    return pooledRecord;
+                }
+            }
+            return new GenericRecord(templateRecord, zeroCopyDecoding);
+        }
+        return null;
+    }
+
+    /**
+     * @return the template with given Id defined in observation domain of the message being
+     * decoded, or registered by {@link #registerGenericRecordType(TemplateRecord)}. Null if there
+     * is no such template.
+     */
+    public TemplateRecord getTemplate(int templateId) {
+        TemplateRecord templateRecord = findTemplate(templateId);
+        templateRegistry.countLookup(templateRecord != null);
+        return templateRecord;
+    }
+
+    /**
+     * Same as {@link #getTemplate(int)}, without counting the lookup in the registry.
+     */
+    TemplateRecord findTemplate(int templateId) {
+        TemplateRecord templateRecord = getCurrentDomain().lookup(templateId, now);
+        if (templateRecord == null) {
+            TemplateEntry entry = templateTable.get(templateId);
+            templateRecord = entry == null ? null : entry.templateRecord;
+        }
+        return templateRecord;
+    }
+
+    /**
+     * Sets metrics to report events of decoding by this factory to.
+     *
+     * @param metrics the metrics, which may be shared by factories of other threads if it is
+     * thread-safe, or {@link DecodeMetrics#NOOP} to not report.
+     */
+    public void setMetrics(DecodeMetrics metrics) {
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    public DecodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets a cache to keep decoded data records of options templates in, by exporter, observation
+     * domain and scope of the records.
+     *
+     * @param optionsDataCache the cache, which may be shared by factories of other threads, or
+     * null to not keep options data.
+     */
+    public void setOptionsDataCache(OptionsDataCache optionsDataCache) {
+        this.optionsDataCache = optionsDataCache;
+    }
+
+    public OptionsDataCache getOptionsDataCache() {
+        return optionsDataCache;
+    }
+
+    /**
+     * @return whether the record is decoded by an options template and should be cached.
+     */
+    boolean isOptionsDataCached(Record record) {
+        return optionsDataCache != null && record instanceof GenericRecord &&
+               ((GenericRecord) record).getTemplateRecord() instanceof OptionsTemplateRecord;
+    }
+
+    /**
+     * Keeps a decoded record of an options template in the options data cache.
+     */
+    void cacheOptionsData(GenericRecord optionsRecord) {
+        optionsDataCache.put(exporter, getCurrentDomain().getObservationDomainId(), optionsRecord);
+    }
+
+    /**
+     * Enables or disables lenient decoding. By default a data set whose template is not known
+     * fails decoding of its message by {@link TemplateNotDefinedException}. In lenient mode such
+     * sets are skipped by their length and the other sets of the message are decoded. Skipped sets
+     * are copied to a bounded queue of pending sets, and once their template is received, or
+     * registered in the shared registry by another factory, they are decoded and appended to the
+     * next message decoded for their exporter and observation domain. This keeps data sent right
+     * after an exporter restarts, before its templates are resent.
+     */
+    public void setLenientDecoding(boolean lenientDecoding) {
+        this.lenientDecoding = lenientDecoding;
+    }
+
+    public boolean isLenientDecoding() {
+        return lenientDecoding;
+    }
+
+    /**
+     * @param maxSets maximum number of sets waiting for their template in lenient decoding.
+     * @param maxBytes maximum total bytes of sets waiting for their template. When either limit is
+     * reached the oldest pending sets are dropped.
+     */
+    public void setPendingSetLimits(int maxSets, int maxBytes) {
+        pendingSets.setLimits(maxSets, maxBytes);
+    }
+
+    /**
+     * @return number of sets waiting for their template.
+     */
+    public int getPendingSetCount() {
+        return pendingSets.size();
+    }
+
+    /**
+     * @return number of sets skipped because their template was not known, in lenient decoding.
+     */
+    public long getDeferredSetCount() {
+        return pendingSets.getDeferredCount();
+    }
+
+    /**
+     * @return number of skipped sets decoded after their template arrived.
+     */
+    public long getReplayedSetCount() {
+        return pendingSets.getReplayedCount();
+    }
+
+    /**
+     * @return number of skipped sets dropped because of limits of pending sets, or because they
+     * could not be decoded by the template that arrived.
+     */
+    public long getDroppedSetCount() {
+        return pendingSets.getDroppedCount();
+    }
+
+    /**
+     * Keeps a data set whose template is not known to be decoded when the template arrives.
+     */
+    void deferSet(int setId, ByteBuffer messageBuffer, int startPosition, int length) {
+        metrics.onTemplateNotDefined(getCurrentDomain().getObservationDomainId(), setId);
+        pendingSets.add(getCurrentDomain(), setId, messageBuffer, startPosition, length);
+    }
+
+    /**
+     * Called at the end of decoding a message, to append pending sets of its domain whose
+     * templates are known now. Pending sets are only checked when a template has been added to
+     * the registry since the last check.
+     */
+    void replayPendingSets(IpfixMessage ipfixMessage) {
+        if (pendingSets.isEmpty()) {
+            return;
+        }
+        long additions = templateRegistry.getAdditionCount();
+        if (additions != replayedAdditions || currentDomain != replayedDomain) {
+            replayedAdditions = additions;
+            replayedDomain = currentDomain;
+            pendingSets.replay(this, ipfixMessage);
+        }
+    }
+
+    /**
+     * Enables or disables zero-copy decoding of generic records. In zero-copy mode values of
+     * generic records are {@link FieldValueView}s that point into the decoded buffer, so no array
+     * is allocated per field. They remain valid only as long as the content of the buffer is not
+     * changed.
+     */
+    public void setZeroCopyDecoding(boolean zeroCopyDecoding) {
+        this.zeroCopyDecoding = zeroCopyDecoding;
+    }
+
+    /**
+     * Enables or disables pooled record mode. In this mode data records of decoded messages are
+     * taken from a pool owned by this factory, and must be given back by
+     * {@link #release(IpfixMessage)} once the consumer has processed them, which keeps allocation
+     * of records at zero in steady state. Custom records are reused too, so their
+     * {@link Record#decodeFrom} must overwrite all of their state.
+     */
+    public void setRecordPooling(boolean recordPooling) {
+        this.recordPooling = recordPooling;
+    }
+
+    public boolean isRecordPooling() {
+        return recordPooling;
+    }
+
+    /**
+     * @param maxPooledRecords maximum number of idle records kept in the pool of each record
+     * type, released records beyond it are left to garbage collector.
+     */
+    public void setMaxPooledRecords(int maxPooledRecords) {
+        if (maxPooledRecords < 0) {
+            throw new IllegalArgumentException("Maximum pooled records must not be negative.");
+        }
+        this.maxPooledRecords = maxPooledRecords;
+    }
+
+    /**
+     * Gives data records of a decoded message back to the pool, in pooled record mode. It must be
+     * called by the thread that decodes with this factory, and neither the records nor the
+     * message may be used afterwards. Record lists of sets are cleared.
+     */
+    public void release(IpfixMessage ipfixMessage) {
+        for (RecordSet<?> recordSet : ipfixMessage.getRecordSets()) {
+            release(recordSet);
+        }
+    }
+
+    /**
+     * Gives data records of a decoded set back to the pool, see {@link #release(IpfixMessage)}.
+     */
+    public void release(RecordSet<?> recordSet) {
+        if (recordPooling && !recordSet.isTemplateSet()) {
+            for (Record record : recordSet.getRecords()) {
+                releaseRecord(recordSet.getSetId(), record);
             }
         }
-        if (templateMap.containsKey(templateId)) {
-            return new GenericRecord(templateMap.get(templateId));
+        recordSet.getRecords().clear();
+    }
+
+    /**
+     * Gives an unused record created by {@link #newRawRecord(int)} back to the pool.
+     */
+    void releaseRecord(int templateId, Record record) {
+        // Decoded templates are registered, so they are never reused.
+        if (!recordPooling || record instanceof TemplateRecord) {
+            return;
+        }
+        ArrayDeque<Record> pool = recordPools.get(templateId);
+        if (pool == null) {
+            pool = new ArrayDeque<>();
+            recordPools.put(templateId, pool);
         }
+        if (pool.size() < maxPooledRecords) {
+            if (record instanceof GenericRecord) {
+                ((GenericRecord) record).clear();
+            }
+            pool.push(record);
+        }
+    }
 
-        throw new TemplateNotDefinedException("No template or custom record defined for " +
-                "requested Id: " + templateId + '.');
+    private Record pollPooledRecord(int templateId) {
+        ArrayDeque<Record> pool = recordPools.get(templateId);
+        return pool == null ? null : pool.poll();
     }
 
+    /**
+     * Registers a custom record class, instantiated by its default constructor through
+     * reflection. {@link #registerCustomRecord(int, Supplier)} with a constructor reference is
+     * faster.
+     */
     public void registerCustomRecord(int templateId, Class<? extends Record> customClass) {
+        Constructor<? extends Record> constructor;
         try {
-            customClass.getDeclaredConstructor();
+            constructor = customClass.getDeclaredConstructor();
         } catch (NoSuchMethodException e) {
             throw new IllegalArgumentException("Custom record Implementation should have default " +
                     "constructor.", e);
         }
-        customRecordMap.put(templateId, customClass);
+        registerCustomRecord(templateId, () -> {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
     }
 
-    public void registerGenericRecordType(TemplateRecord templateRecord) {
-        templateMap.put(templateRecord.getTemplateId(), templateRecord.clone());
+    /**
+     * Registers a custom record type, e.g. {@code registerCustomRecord(1000, ExampleRecord::new)}.
+     *
+     * @param customRecordSupplier creates a new empty record on each call, to be filled by
+     * {@link Record#decodeFrom}.
+     */
+    public void registerCustomRecord(int templateId,
+                                     Supplier<? extends Record> customRecordSupplier) {
+        customRecordMap.put(templateId, customRecordSupplier);
+    }
+
+    /**
+     * Registers a template for all exporters and observation domains.
+     */
+    public synchronized void registerGenericRecordType(TemplateRecord templateRecord) {
+        TemplateRecord registeredTemplate = templateRecord.clone();
+        // Compile layout once here instead of on the decode path
+        registeredTemplate.getLayout();
+        // These templates do not belong to a domain of the registry, and never expire.
+        templateTable = templateTable.with(new TemplateEntry(null, registeredTemplate, 0));
+    }
+
+    /**
+     * Registers a template received in the message being decoded, in its observation domain.
+     * A template withdrawal removes the template, or all templates or options templates of the
+     * domain if its Id is the template set Id or the options template set Id.
+     */
+    void registerReceivedTemplate(TemplateRecord templateRecord) {
+        if (templateRecord.isWithdrawal()) {
+            if (templateRecord.getTemplateId() == 2) {
+                getCurrentDomain().withdrawAll(false);
+            } else if (templateRecord.getTemplateId() == 3) {
+                getCurrentDomain().withdrawAll(true);
+            } else {
+                getCurrentDomain().withdraw(templateRecord.getTemplateId());
+            }
+        } else {
+            getCurrentDomain().register(templateRecord.clone());
+            metrics.onTemplateRegistered(getCurrentDomain().getObservationDomainId(),
+                                         templateRecord.getTemplateId());
+        }
     }
 }
\ No newline at end of file
@@ -14,6 +14,9 @@ import java.util.List;
  * @param <T> type of {@link Record} that set contains.
  */
 public class RecordSet<T extends Record> {
+    private final static int TEMPLATE_SET_ID = 2;
+    private final static int OPTIONS_TEMPLATE_SET_ID = 3;
+
     private int setId;
     private ArrayList<T> records = new ArrayList<>();
 
@@ -28,8 +31,19 @@ public class RecordSet<T extends Record> {
         this.setId = setId;
     }
 
+    /**
+     * @return whether this is a template set or an options template set.
+     */
     public boolean isTemplateSet() {
-        return setId == 2;
+        return isTemplateSetId(setId);
+    }
+
+    public boolean isOptionsTemplateSet() {
+        return setId == OPTIONS_TEMPLATE_SET_ID;
+    }
+
+    static boolean isTemplateSetId(int setId) {
+        return setId == TEMPLATE_SET_ID || setId == OPTIONS_TEMPLATE_SET_ID;
     }
 
     public int getSetId() {
@@ -43,22 +57,49 @@ public class RecordSet<T extends Record> {
 
     public int getLength() {
         // headers of 4 bytes length
-        return 4 + records.stream().mapToInt(Record::length).sum();
+        int length = 4;
+        for (int i = 0; i < records.size(); i++) {
+            length += records.get(i).length();
+        }
+        return length;
     }
 
     public List<T> getRecords() {
         return records;
     }
 
+    /**
+     * Encodes the set in a single pass over its records. Length in set header is written after
+     * the records, at the position reserved for it.
+     *
+     * @throws IllegalArgumentException if length of the set exceeds 65535 bytes.
+     */
     public void encode(ByteBuffer byteBuffer) {
-        // Write headers.
+        int startPosition = byteBuffer.position();
+        // Write headers, length is written after records.
         byteBuffer.putShort((short) setId);
-        byteBuffer.putShort((short) getLength());
+        byteBuffer.putShort((short) 0);
 
         // Encode records and write them in set
-        records.forEach(record -> record.encode(byteBuffer));
+        for (int i = 0; i < records.size(); i++) {
+            records.get(i).encode(byteBuffer);
+        }
+
+        int length = byteBuffer.position() - startPosition;
+        if (length > 0xffff) {
+            throw new IllegalArgumentException("Length of set " + setId + " exceeds 65535 bytes.");
+        }
+        byteBuffer.putShort(startPosition + 2, (short) length);
     }
 
+    /**
+     * Decodes a set. Templates it defines are registered in recordFactory.
+     *
+     * @return the set, or null if its template is not known and it is deferred by lenient
+     * decoding, see {@link RecordFactory#setLenientDecoding(boolean)}.
+     * @throws TemplateNotDefinedException if template of the set is not known, and decoding is
+     * not lenient.
+     */
     public static RecordSet<Record> decode(ByteBuffer messageBuffer, RecordFactory recordFactory) {
 
         int startPosition = messageBuffer.position();
@@ -69,19 +110,49 @@ public class RecordSet<T extends Record> {
 
         // must avoid read this position
         int endOfSetPosition = startPosition + length;
+        if (length < 4 || endOfSetPosition > messageBuffer.limit()) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
 
+        // Created before the loop to fail for unknown templates even if the set is empty.
+        Record rawRecord;
+        if (recordFactory.isLenientDecoding()) {
+            rawRecord = recordFactory.newRawRecordIfDefined(setId);
+            if (rawRecord == null) {
+                recordFactory.deferSet(setId, messageBuffer, startPosition, length);
+                messageBuffer.position(endOfSetPosition);
+                return null;
+            }
+        } else {
+            rawRecord = recordFactory.newRawRecord(setId);
+        }
         RecordSet<Record> recordSet = new RecordSet<>(setId);
-
-        Record rawRecord = recordFactory.newRawRecord(setId);
-
-        while (endOfSetPosition - messageBuffer.position() >= rawRecord.minimumLength()) {
+        int minimumLength = rawRecord.minimumLength();
+        boolean templateSet = isTemplateSetId(setId);
+        boolean optionsDataSet = !templateSet && recordFactory.isOptionsDataCached(rawRecord);
+
+        while (endOfSetPosition - messageBuffer.position() >= minimumLength) {
+            // Template Id of a template record is never zero, so zeros are padding.
+            if (templateSet && messageBuffer.getShort(messageBuffer.position()) == 0) {
+                break;
+            }
+            // Every record needs its own instance
+            if (rawRecord == null) {
+                rawRecord = recordFactory.nextRawRecord(setId);
+            }
             rawRecord.decodeFrom(messageBuffer);
             recordSet.addRecord(rawRecord);
 
             // Add templates to record factory
-            if (setId == 2) {
-                recordFactory.registerGenericRecordType((TemplateRecord) rawRecord);
+            if (templateSet) {
+                recordFactory.registerReceivedTemplate((TemplateRecord) rawRecord);
+            } else if (optionsDataSet) {
+                recordFactory.cacheOptionsData((GenericRecord) rawRecord);
             }
+            rawRecord = null;
+        }
+        if (rawRecord != null) {
+            recordFactory.releaseRecord(setId, rawRecord);
         }
 
         // Checks to avoid read bytes out of set's boundary
@@ -92,9 +163,26 @@ public class RecordSet<T extends Record> {
         if (messageBuffer.position() != endOfSetPosition) {
             messageBuffer.position(endOfSetPosition);
         }
+        recordFactory.getMetrics().onSet(recordFactory.getCurrentDomain().getObservationDomainId(),
+                                         setId, recordSet.getRecords().size(), length);
         return recordSet;
     }
 
+    /**
+     * Skips a set by the length in its header, without parsing its records.
+     */
+    static void skip(ByteBuffer messageBuffer) {
+        int startPosition = messageBuffer.position();
+        if (messageBuffer.remaining() < 4) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        int length = messageBuffer.getShort(startPosition + 2) & 0xffff;
+        if (length < 4 || startPosition + length > messageBuffer.limit()) {
+            throw new IllegalArgumentException("Invalid IPFIX message.");
+        }
+        messageBuffer.position(startPosition + length);
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
@@ -0,0 +1,250 @@
+package ir.sahab.ipfix;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ *     Tracks sequence numbers of messages per exporter and observation domain, to account for
+ *     data records lost on the way to the collector. As defined in RFC 7011 section 3.1, sequence
+ *     number of a message is the number of data records the domain has sent before it, modulo
+ *     2^32, so the expected sequence number of the next message is that of the last message plus
+ *     its data records.
+ * </p>
+ * <p>
+ *     Compared to the expected sequence number a message is either:
+ * </p>
+ * <ul>
+ * <li>In sequence.</li>
+ * <li>Ahead by a gap: the records in between are counted as lost.</li>
+ * <li>Behind, within the reorder window: the message arrived late, and its records are no longer
+ * counted as lost.</li>
+ * <li>Too far ahead or behind: the exporter has restarted, or the domain was idle long enough to
+ * wrap around, so tracking restarts from the message without counting losses.</li>
+ * </ul>
+ * <p>
+ *     Tracker is fed by the decoder thread, usually next to a {@link RecordFactory}, and is not
+ *     thread-safe. It finds domains without boxing or allocation, and caches the domain of the
+ *     last message, so tracking a message costs a few comparisons. Counters may be read by other
+ *     threads, whose values may be slightly stale.
+ * </p>
+ */
+public class SequenceTracker {
+    private final static int DEFAULT_REORDER_WINDOW = 1 << 16;
+    private final static long DEFAULT_MAX_GAP = 1L << 24;
+    private final static long SEQUENCE_MASK = 0xffffffffL;
+
+    private final int reorderWindow;
+    private final long maxGap;
+    private final Map<SocketAddress, IntObjectMap<DomainSequence>> exporters = new HashMap<>();
+    private SocketAddress lastExporter;
+    private IntObjectMap<DomainSequence> lastExporterDomains;
+    private DomainSequence lastDomain;
+
+    private long receivedRecords;
+    private long lostRecords;
+    private long gapCount;
+    private long reorderCount;
+    private long resetCount;
+
+    /**
+     * Creates a tracker with a reorder window of 65536 records, which treats gaps of more than
+     * 2^24 records as resets.
+     */
+    public SequenceTracker() {
+        this(DEFAULT_REORDER_WINDOW, DEFAULT_MAX_GAP);
+    }
+
+    /**
+     * @param reorderWindow maximum number of records a message may be behind the expected sequence
+     * number to be taken as reordered, not as a reset.
+     * @param maxGap maximum number of records a message may be ahead of the expected sequence
+     * number to be taken as a loss, not as a reset.
+     */
+    public SequenceTracker(int reorderWindow, long maxGap) {
+        if (reorderWindow < 0 || maxGap < 0 || maxGap > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Reorder window and maximum gap must be between 0 " +
+                                               "and 2^31 - 1.");
+        }
+        this.reorderWindow = reorderWindow;
+        this.maxGap = maxGap;
+    }
+
+    /**
+     * Tracks a decoded message. Its data records are counted from its sets, so the message must
+     * be decoded with all of its sets, not by a set filter or leniently.
+     *
+     * @param exporter address of the exporter, may be null when exporter is not known.
+     */
+    public void track(SocketAddress exporter, IpfixMessage ipfixMessage) {
+        track(exporter, ipfixMessage.getObservationDomainId(), ipfixMessage.getSequenceNum(),
+              ipfixMessage.getDataRecordCount());
+    }
+
+    /**
+     * Tracks a message by its header and number of its data records.
+     *
+     * @param exporter address of the exporter, may be null when exporter is not known.
+     */
+    public void track(SocketAddress exporter, long observationDomainId, long sequenceNum,
+                      int dataRecordCount) {
+        DomainSequence domain = lastDomain;
+        if (domain == null || domain.observationDomainId != observationDomainId ||
+            !Objects.equals(lastExporter, exporter)) {
+            domain = getOrCreateDomain(exporter, observationDomainId);
+            lastDomain = domain;
+        }
+        receivedRecords += dataRecordCount;
+        domain.receivedRecords += dataRecordCount;
+        if (domain.expectedSequenceNum < 0) {
+            domain.expectedSequenceNum = (sequenceNum + dataRecordCount) & SEQUENCE_MASK;
+            return;
+        }
+
+        // Distance from expected sequence number, in the range of a signed 32 bits integer
+        int distance = (int) (sequenceNum - domain.expectedSequenceNum);
+        if (distance == 0) {
+            domain.expectedSequenceNum = (sequenceNum + dataRecordCount) & SEQUENCE_MASK;
+        } else if (distance > 0 && distance <= maxGap) {
+            lostRecords += distance;
+            domain.lostRecords += distance;
+            gapCount++;
+            domain.gapCount++;
+            domain.expectedSequenceNum = (sequenceNum + dataRecordCount) & SEQUENCE_MASK;
+        } else if (distance < 0 && -distance <= reorderWindow) {
+            // Records of a late message were counted as lost by the gap it left.
+            long recovered = Math.min(dataRecordCount, domain.lostRecords);
+            lostRecords -= recovered;
+            domain.lostRecords -= recovered;
+            reorderCount++;
+            domain.reorderCount++;
+        } else {
+            resetCount++;
+            domain.resetCount++;
+            domain.expectedSequenceNum = (sequenceNum + dataRecordCount) & SEQUENCE_MASK;
+        }
+    }
+
+    /**
+     * @return sequence state of the observation domain of the exporter, or null if no message of
+     * it is tracked.
+     */
+    public DomainSequence getDomain(SocketAddress exporter, long observationDomainId) {
+        IntObjectMap<DomainSequence> domains = exporters.get(exporter);
+        return domains == null ? null : domains.get((int) observationDomainId);
+    }
+
+    /**
+     * Forgets all domains of the exporter, e.g. when its transport session is closed. Totals are
+     * not changed.
+     */
+    public void removeExporter(SocketAddress exporter) {
+        exporters.remove(exporter);
+        if (Objects.equals(lastExporter, exporter)) {
+            lastExporter = null;
+            lastExporterDomains = null;
+            lastDomain = null;
+        }
+    }
+
+    /**
+     * @return number of data records received in all domains.
+     */
+    public long getReceivedRecordCount() {
+        return receivedRecords;
+    }
+
+    /**
+     * @return number of data records sent but not received in all domains, excluding records of
+     * messages that arrived late.
+     */
+    public long getLostRecordCount() {
+        return lostRecords;
+    }
+
+    /**
+     * @return number of messages that arrived after a gap in sequence numbers.
+     */
+    public long getGapCount() {
+        return gapCount;
+    }
+
+    /**
+     * @return number of messages that arrived later than the messages after them.
+     */
+    public long getReorderCount() {
+        return reorderCount;
+    }
+
+    /**
+     * @return number of times tracking of a domain restarted, e.g. because its exporter restarted.
+     */
+    public long getResetCount() {
+        return resetCount;
+    }
+
+    private DomainSequence getOrCreateDomain(SocketAddress exporter, long observationDomainId) {
+        if (lastExporterDomains == null || !Objects.equals(lastExporter, exporter)) {
+            lastExporterDomains = exporters.computeIfAbsent(exporter, e -> new IntObjectMap<>());
+            lastExporter = exporter;
+        }
+        // Observation domain Ids are unsigned 32 bits integers.
+        DomainSequence domain = lastExporterDomains.get((int) observationDomainId);
+        if (domain == null) {
+            domain = new DomainSequence(observationDomainId);
+            lastExporterDomains.put((int) observationDomainId, domain);
+        }
+        return domain;
+    }
+
+    /**
+     * Sequence state and loss counters of one observation domain of one exporter.
+     */
+    public static final class DomainSequence {
+        private final long observationDomainId;
+        // Negative until the first message
+        private long expectedSequenceNum = -1;
+        private long receivedRecords;
+        private long lostRecords;
+        private long gapCount;
+        private long reorderCount;
+        private long resetCount;
+
+        private DomainSequence(long observationDomainId) {
+            this.observationDomainId = observationDomainId;
+        }
+
+        public long getObservationDomainId() {
+            return observationDomainId;
+        }
+
+        /**
+         * @return sequence number expected for the next message.
+         */
+        public long getExpectedSequenceNum() {
+            return expectedSequenceNum;
+        }
+
+        public long getReceivedRecordCount() {
+            return receivedRecords;
+        }
+
+        public long getLostRecordCount() {
+            return lostRecords;
+        }
+
+        public long getGapCount() {
+            return gapCount;
+        }
+
+        public long getReorderCount() {
+            return reorderCount;
+        }
+
+        public long getResetCount() {
+            return resetCount;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ir.sahab.ipfix;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Templates of one observation domain of one exporter, which is the scope of template Ids as
+ * defined in RFC 7011. Instances are obtained from {@link TemplateRegistry}.
+ * <p>
+ * Templates are kept in an immutable table which is replaced on every update (copy-on-write),
+ * so lookups are lock-free and may run concurrently with updates.
+ * </p>
+ */
+public final class TemplateDomain {
+    private final TemplateRegistry registry;
+    private final SocketAddress exporter;
+    private final long observationDomainId;
+    private volatile TemplateTable table = TemplateTable.EMPTY;
+    // Set when the domain is removed from the registry, so holders of it look it up again.
+    private volatile boolean removed;
+
+    TemplateDomain(TemplateRegistry registry, SocketAddress exporter, long observationDomainId) {
+        this.registry = registry;
+        this.exporter = exporter;
+        this.observationDomainId = observationDomainId;
+    }
+
+    /**
+     * @return address of the exporter, may be null when exporter is not known.
+     */
+    public SocketAddress getExporter() {
+        return exporter;
+    }
+
+    public long getObservationDomainId() {
+        return observationDomainId;
+    }
+
+    /**
+     * @return the template with given Id or null if there is no such template or it is expired.
+     */
+    public TemplateRecord getTemplate(int templateId) {
+        TemplateRecord templateRecord = lookup(templateId, registry.currentTimeMillis());
+        registry.countLookup(templateRecord != null);
+        return templateRecord;
+    }
+
+    /**
+     * Looks up a template without counting the lookup.
+     *
+     * @param now current time in milliseconds, as given by the clock of the registry.
+     */
+    TemplateRecord lookup(int templateId, long now) {
+        TemplateEntry entry = table.get(templateId);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(now, registry.getTemplateLifetimeMillis())) {
+            if (remove(entry)) {
+                registry.countExpiration();
+            }
+            return null;
+        }
+        // Avoid writing to a shared field on every lookup.
+        if (entry.lastAccessedAt != now) {
+            entry.lastAccessedAt = now;
+        }
+        return entry.templateRecord;
+    }
+
+    /**
+     * @return a snapshot of templates of this domain, including expired templates not removed yet.
+     */
+    public List<TemplateRecord> getTemplates() {
+        List<TemplateEntry> entries = table.values();
+        List<TemplateRecord> templates = new ArrayList<>(entries.size());
+        for (TemplateEntry entry : entries) {
+            templates.add(entry.templateRecord);
+        }
+        return templates;
+    }
+
+    /**
+     * Adds the template or replaces the template with same Id. Registering a template equal to
+     * the existing one renews its lifetime. The template must not be changed after registration.
+     */
+    public void register(TemplateRecord templateRecord) {
+        if (!add(templateRecord, registry.currentTimeMillis())) {
+            // Templates of a removed domain are not reachable by eviction, so they go to the
+            // domain that replaces it in the registry.
+            registry.getDomain(exporter, observationDomainId).register(templateRecord);
+            return;
+        }
+        // Out of lock of this domain, as eviction locks other domains.
+        registry.evictIfNeeded();
+    }
+
+    /**
+     * @return false if the domain is removed, so the template is not added.
+     */
+    private synchronized boolean add(TemplateRecord templateRecord, long now) {
+        if (removed) {
+            return false;
+        }
+        TemplateTable currentTable = table;
+        TemplateEntry currentEntry = currentTable.get(templateRecord.getTemplateId());
+        // Exporters resend their templates periodically, avoid copying the table for them.
+        if (currentEntry != null && templateRecord.equals(currentEntry.templateRecord)) {
+            currentEntry.refreshedAt = now;
+            return true;
+        }
+        // Compile layout before publishing the template to other threads.
+        templateRecord.getLayout();
+        TemplateEntry entry = new TemplateEntry(this, templateRecord, now);
+        table = currentTable.with(entry);
+        registry.onAdded(entry);
+        if (currentEntry != null) {
+            registry.onRemoved(currentEntry);
+        }
+        return true;
+    }
+
+    /**
+     * Removes the template with given Id, if exists.
+     */
+    public synchronized void withdraw(int templateId) {
+        TemplateEntry entry = table.get(templateId);
+        if (entry != null) {
+            table = table.without(templateId);
+            registry.onRemoved(entry);
+            registry.countWithdrawal();
+        }
+    }
+
+    /**
+     * Removes all templates of this domain.
+     */
+    public synchronized void withdrawAll() {
+        for (TemplateEntry entry : table.values()) {
+            registry.onRemoved(entry);
+            registry.countWithdrawal();
+        }
+        table = TemplateTable.EMPTY;
+    }
+
+    /**
+     * Removes all templates, or all options templates, of this domain.
+     *
+     * @param optionsTemplates whether to remove options templates instead of templates.
+     */
+    synchronized void withdrawAll(boolean optionsTemplates) {
+        TemplateTable newTable = table;
+        for (TemplateEntry entry : table.values()) {
+            if (entry.templateRecord instanceof OptionsTemplateRecord == optionsTemplates) {
+                newTable = newTable.without(entry.getTemplateId());
+                registry.onRemoved(entry);
+                registry.countWithdrawal();
+            }
+        }
+        table = newTable;
+    }
+
+    /**
+     * Removes the entry if it is still registered.
+     *
+     * @return whether the entry is removed.
+     */
+    synchronized boolean remove(TemplateEntry entry) {
+        if (table.get(entry.getTemplateId()) != entry) {
+            return false;
+        }
+        table = table.without(entry.getTemplateId());
+        registry.onRemoved(entry);
+        return true;
+    }
+
+    List<TemplateEntry> getEntries() {
+        return table.values();
+    }
+
+    void addEntriesTo(List<TemplateEntry> entries) {
+        table.addValuesTo(entries);
+    }
+
+    /**
+     * @return whether the domain is removed from its registry, in which case it has no templates
+     * and templates registered in it are registered in the domain that replaces it.
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * Removes all templates without counting them as withdrawn, and marks the domain as removed
+     * from the registry.
+     */
+    synchronized void remove() {
+        removed = true;
+        for (TemplateEntry entry : table.values()) {
+            registry.onRemoved(entry);
+        }
+        table = TemplateTable.EMPTY;
+    }
+}
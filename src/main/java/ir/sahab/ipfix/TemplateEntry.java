@@ -0,0 +1,37 @@
+package ir.sahab.ipfix;
+
+/**
+ * A template registered in a {@link TemplateDomain}, with bookkeeping needed by
+ * {@link TemplateRegistry} for expiry and eviction.
+ */
+final class TemplateEntry {
+    // Estimated memory of a template object, its field list and layout, and of a field specifier.
+    private final static int TEMPLATE_OVERHEAD = 200;
+    private final static int FIELD_OVERHEAD = 48;
+
+    final TemplateDomain domain;
+    final TemplateRecord templateRecord;
+    final long size;
+
+    // Last time the template is received, renewing its lifetime.
+    volatile long refreshedAt;
+    // Last time the template is looked up. It is written without synchronization by decoder
+    // threads, so it is approximate which is enough for LRU eviction.
+    long lastAccessedAt;
+
+    TemplateEntry(TemplateDomain domain, TemplateRecord templateRecord, long now) {
+        this.domain = domain;
+        this.templateRecord = templateRecord;
+        this.size = TEMPLATE_OVERHEAD + FIELD_OVERHEAD * templateRecord.getFieldCount();
+        this.refreshedAt = now;
+        this.lastAccessedAt = now;
+    }
+
+    int getTemplateId() {
+        return templateRecord.getTemplateId();
+    }
+
+    boolean isExpired(long now, long lifetimeMillis) {
+        return now - refreshedAt > lifetimeMillis;
+    }
+}
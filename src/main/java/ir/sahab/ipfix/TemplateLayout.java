@@ -0,0 +1,122 @@
+package ir.sahab.ipfix;
+
+import java.util.List;
+
+/**
+ * <p>
+ *     Immutable layout of data records of a {@link TemplateRecord}, compiled once from its field
+ *     specifiers, see {@link TemplateRecord#getLayout()}.
+ * </p>
+ * <p>
+ *     Fields before the first variable length field (the fixed-length prefix) are at the same
+ *     offset in every record, so they can be located by offset arithmetic. When the template has
+ *     no variable length field all records have the same size and the whole record is a
+ *     fixed-length prefix.
+ * </p>
+ */
+public final class TemplateLayout {
+    private final static int VARIABLE_LENGTH = 0xffff;
+
+    private final int[] fieldLengths;
+    private final int[] prefixOffsets;
+    private final int firstVariableIndex;
+    private final int prefixLength;
+    private final int fixedRecordLength;
+    private final int minimumRecordLength;
+
+    TemplateLayout(List<FieldSpecifier> fieldSpecifiers) {
+        int fieldCount = fieldSpecifiers.size();
+        fieldLengths = new int[fieldCount];
+        int variableIndex = fieldCount;
+        int fixedLength = 0;
+        int minimumLength = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            FieldSpecifier fieldSpecifier = fieldSpecifiers.get(i);
+            fieldLengths[i] = fieldSpecifier.getFieldLength();
+            minimumLength += fieldSpecifier.getMinimumLengthOfDefinedField();
+            if (fieldSpecifier.isVariableLength()) {
+                if (variableIndex == fieldCount) {
+                    variableIndex = i;
+                }
+            } else {
+                fixedLength += fieldLengths[i];
+            }
+        }
+
+        firstVariableIndex = variableIndex;
+        prefixOffsets = new int[firstVariableIndex];
+        int offset = 0;
+        for (int i = 0; i < firstVariableIndex; i++) {
+            prefixOffsets[i] = offset;
+            offset += fieldLengths[i];
+        }
+        prefixLength = offset;
+        fixedRecordLength = fixedLength;
+        minimumRecordLength = minimumLength;
+    }
+
+    public int getFieldCount() {
+        return fieldLengths.length;
+    }
+
+    /**
+     * @return length of the field as defined in template, 0xffff for variable length fields.
+     */
+    public int getFieldLength(int index) {
+        return fieldLengths[index];
+    }
+
+    public boolean isVariableLength(int index) {
+        return fieldLengths[index] == VARIABLE_LENGTH;
+    }
+
+    /**
+     * @return whether all fields are fixed length, so all records have the same length.
+     */
+    public boolean isFixedLength() {
+        return firstVariableIndex == fieldLengths.length;
+    }
+
+    /**
+     * @return index of the first variable length field, or field count if there is no such field.
+     */
+    public int getFirstVariableIndex() {
+        return firstVariableIndex;
+    }
+
+    /**
+     * @return offset of the field from start of the record.
+     * @throws IllegalArgumentException if the field is not in the fixed-length prefix, so its
+     * offset differs from a record to another.
+     */
+    public int getFieldOffset(int index) throws IllegalArgumentException {
+        if (index >= firstVariableIndex) {
+            throw new IllegalArgumentException("Field " + index + " is not in fixed-length prefix " +
+                                               "of the template.");
+        }
+        return prefixOffsets[index];
+    }
+
+    /**
+     * @return total length of fields before the first variable length field.
+     */
+    public int getPrefixLength() {
+        return prefixLength;
+    }
+
+    /**
+     * @return total length of all fixed length fields, which is length of every record if
+     * {@link #isFixedLength()}.
+     */
+    public int getFixedRecordLength() {
+        return fixedRecordLength;
+    }
+
+    /**
+     * @return minimum possible length of a record, counting one byte for each variable length
+     * field.
+     */
+    public int getMinimumRecordLength() {
+        return minimumRecordLength;
+    }
+}
@@ -1,7 +1,10 @@
 package ir.sahab.ipfix;
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -15,6 +18,9 @@ public class TemplateRecord implements Record, Cloneable {
 
     private int templateId;
     private ArrayList<FieldSpecifier> fieldSpecifiers = new ArrayList<>();
+    private TemplateLayout layout;
+    // TemplateRecord has headers of length 4 bytes
+    private int length = 4;
 
     public TemplateRecord() {}
 
@@ -27,6 +33,8 @@ public class TemplateRecord implements Record, Cloneable {
 
     public TemplateRecord addField(FieldSpecifier field) {
         fieldSpecifiers.add(field);
+        length += field.getLength();
+        layout = null;
         return this;
     }
 
@@ -34,17 +42,74 @@ public class TemplateRecord implements Record, Cloneable {
         return templateId;
     }
 
+    public List<FieldSpecifier> getFieldSpecifiers() {
+        return Collections.unmodifiableList(fieldSpecifiers);
+    }
+
+    /**
+     * @return layout of data records of this template. It is compiled on first call after the
+     * template changes, and templates registered in {@link RecordFactory} are compiled on
+     * registration.
+     */
+    public TemplateLayout getLayout() {
+        TemplateLayout templateLayout = layout;
+        if (templateLayout == null) {
+            templateLayout = new TemplateLayout(fieldSpecifiers);
+            layout = templateLayout;
+        }
+        return templateLayout;
+    }
+
+    public int getFieldCount() {
+        return fieldSpecifiers.size();
+    }
+
+    /**
+     * @return whether this is a template withdrawal, which has no field.
+     */
+    public boolean isWithdrawal() {
+        return fieldSpecifiers.isEmpty();
+    }
+
+    /**
+     * @return index of the first field with given IANA Information Element identifier, or -1 if
+     * the template does not contain such field.
+     */
+    public int indexOf(int elementId) {
+        for (int i = 0; i < fieldSpecifiers.size(); i++) {
+            FieldSpecifier fieldSpecifier = fieldSpecifiers.get(i);
+            if (!fieldSpecifier.isEnterprise() && fieldSpecifier.getElementId() == elementId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the first field with given enterprise-specific Information Element
+     * identifier, or -1 if the template does not contain such field.
+     */
+    public int indexOf(int elementId, long enterpriseNum) {
+        for (int i = 0; i < fieldSpecifiers.size(); i++) {
+            FieldSpecifier fieldSpecifier = fieldSpecifiers.get(i);
+            if (fieldSpecifier.isEnterprise() && fieldSpecifier.getElementId() == elementId &&
+                fieldSpecifier.getEnterpriseNum() == enterpriseNum) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     @Override
     public int length() {
-        // TemplateRecord has headers of length 4 bytes
-        return 4 + fieldSpecifiers.stream().mapToInt(FieldSpecifier::getLength).sum();
+        return length;
     }
 
     @Override
     public int minimumLength() {
-        // 8 bytes for headers.
-        // Can have no field specifier.
-        return 8;
+        // 4 bytes for headers.
+        // Can have no field specifier, in template withdrawals.
+        return 4;
     }
 
     @Override
@@ -54,6 +119,7 @@ public class TemplateRecord implements Record, Cloneable {
 
         // Write field count in message header
         byteBuffer.putShort((short) fieldSpecifiers.size());
+        encodeScopeFieldCount(byteBuffer);
 
         // Encode field specifiers and write them in template record
         for (FieldSpecifier fieldSpecifier: fieldSpecifiers)
@@ -65,6 +131,7 @@ public class TemplateRecord implements Record, Cloneable {
         // Read headers
         templateId = ByteBufferUtils.readUnsignedShort(messageBuffer);
         int fieldCount = ByteBufferUtils.readUnsignedShort(messageBuffer);
+        decodeScopeFieldCount(messageBuffer, fieldCount);
 
         // Read field specifiers
         for (int i = 0; i < fieldCount; i++) {
@@ -72,21 +139,75 @@ public class TemplateRecord implements Record, Cloneable {
         }
     }
 
+    /**
+     * Writes scope field count after the headers, in options templates.
+     */
+    void encodeScopeFieldCount(ByteBuffer byteBuffer) {}
+
+    /**
+     * Reads scope field count after the headers, in options templates.
+     */
+    void decodeScopeFieldCount(ByteBuffer messageBuffer, int fieldCount) {}
+
     public void decodeDataRecord(ByteBuffer messageBuffer, GenericRecord dataRecord) {
+        TemplateLayout templateLayout = getLayout();
+        if (templateLayout.isFixedLength()) {
+            // All bytes of the record are known, so check them once instead of once per field.
+            if (messageBuffer.remaining() < templateLayout.getFixedRecordLength()) {
+                throw new BufferUnderflowException();
+            }
+            for (int i = 0; i < templateLayout.getFieldCount(); i++) {
+                byte[] value = new byte[templateLayout.getFieldLength(i)];
+                messageBuffer.get(value);
+                dataRecord.addFieldValue(new FieldValue(value, false));
+            }
+            return;
+        }
         for (FieldSpecifier fieldSpecifier : fieldSpecifiers)
             dataRecord.addFieldValue(fieldSpecifier.decodeValue(messageBuffer));
     }
 
+    /**
+     * Same as {@link #decodeDataRecord(ByteBuffer, GenericRecord)}, but fills the record with
+     * {@link FieldValueView}s pointing into messageBuffer instead of copying the values.
+     */
+    public void decodeDataRecordView(ByteBuffer messageBuffer, GenericRecord dataRecord) {
+        TemplateLayout templateLayout = getLayout();
+        if (templateLayout.isFixedLength()) {
+            int recordOffset = messageBuffer.position();
+            if (messageBuffer.remaining() < templateLayout.getFixedRecordLength()) {
+                throw new BufferUnderflowException();
+            }
+            for (int i = 0; i < templateLayout.getFieldCount(); i++) {
+                int offset = recordOffset + templateLayout.getFieldOffset(i);
+                int length = templateLayout.getFieldLength(i);
+                FieldValueView view = dataRecord.takeSpareView(i);
+                if (view == null) {
+                    view = new FieldValueView(messageBuffer, offset, length, false);
+                } else {
+                    view.reset(messageBuffer, offset, length);
+                }
+                dataRecord.addFieldValue(view);
+            }
+            messageBuffer.position(recordOffset + templateLayout.getFixedRecordLength());
+            return;
+        }
+        for (int i = 0; i < fieldSpecifiers.size(); i++) {
+            dataRecord.addFieldValue(fieldSpecifiers.get(i).decodeValueView(
+                    messageBuffer, dataRecord.takeSpareView(i)));
+        }
+    }
+
     public int getMinimumLengthOfDefinedRecord() {
-        return fieldSpecifiers.stream().mapToInt(FieldSpecifier::getMinimumLengthOfDefinedField)
-                .sum();
+        return getLayout().getMinimumRecordLength();
     }
 
     @Override
     public boolean equals(Object obj) {
         if (this == obj)
             return true;
-        if (!(obj instanceof TemplateRecord))
+        // Options templates are not equal to templates with the same fields
+        if (obj == null || obj.getClass() != getClass())
             return false;
 
         TemplateRecord otherTemp = (TemplateRecord) obj;
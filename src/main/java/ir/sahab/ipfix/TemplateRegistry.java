@@ -0,0 +1,355 @@
+package ir.sahab.ipfix;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * <p>
+ *     A thread-safe registry of templates learned from exporters. As required by RFC 7011 a
+ *     template is identified by exporter, observation domain Id and template Id, so templates of
+ *     different exporters or domains with the same Id do not overwrite each other.
+ * </p>
+ * <p>
+ *     Templates of each (exporter, observation domain) pair are kept in a {@link TemplateDomain}
+ *     whose lookups are lock-free. Decoder threads usually each own a {@link RecordFactory}
+ *     created by {@link RecordFactory#RecordFactory(TemplateRegistry)} and share one registry.
+ * </p>
+ * <p>
+ *     Registry can be bounded:
+ * </p>
+ * <ul>
+ * <li>By a template lifetime, for UDP transport where templates must be resent periodically
+ * (RFC 7011 section 8.4). A template not received again during its lifetime expires and is no
+ * longer used. Expired templates are removed lazily on lookup or by {@link #expireTemplates()}.</li>
+ * <li>By an estimated memory cap. When templates exceed it, least recently used templates are
+ * evicted until they take 7/8 of the cap.</li>
+ * </ul>
+ */
+public class TemplateRegistry {
+    public final static long UNLIMITED = Long.MAX_VALUE;
+    // Eviction frees memory down to this ratio of the cap.
+    private final static double LOW_WATER_RATIO = 0.875;
+
+    private final ConcurrentMap<DomainKey, TemplateDomain> domains = new ConcurrentHashMap<>();
+    private final long templateLifetimeMillis;
+    private final long maxMemoryBytes;
+    private final LongSupplier clock;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // Used by eviction, under its lock
+    private final List<TemplateEntry> evictionCandidates = new ArrayList<>();
+    private long[] evictionKeys = new long[0];
+
+    private final AtomicLong memoryUsage = new AtomicLong();
+    private final AtomicLong templateCount = new AtomicLong();
+    private final AtomicLong additions = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+    private final LongAdder withdrawals = new LongAdder();
+
+    /**
+     * Creates an unbounded registry, whose templates do not expire.
+     */
+    public TemplateRegistry() {
+        this(UNLIMITED, UNLIMITED);
+    }
+
+    /**
+     * @param templateLifetimeMillis time after last receipt of a template in which it expires, or
+     * {@link #UNLIMITED}.
+     * @param maxMemoryBytes estimated memory of templates after which least recently used ones are
+     * evicted, or {@link #UNLIMITED}.
+     */
+    public TemplateRegistry(long templateLifetimeMillis, long maxMemoryBytes) {
+        this(templateLifetimeMillis, maxMemoryBytes, System::currentTimeMillis);
+    }
+
+    TemplateRegistry(long templateLifetimeMillis, long maxMemoryBytes, LongSupplier clock) {
+        if (templateLifetimeMillis <= 0) {
+            throw new IllegalArgumentException("Template lifetime must be positive.");
+        }
+        if (maxMemoryBytes <= 0) {
+            throw new IllegalArgumentException("Maximum memory must be positive.");
+        }
+        this.templateLifetimeMillis = templateLifetimeMillis;
+        this.maxMemoryBytes = maxMemoryBytes;
+        this.clock = clock;
+    }
+
+    /**
+     * @param exporter address of the exporter, may be null when exporter is not known.
+     * @return templates of the observation domain of the exporter, created if not exists.
+     */
+    public TemplateDomain getDomain(SocketAddress exporter, long observationDomainId) {
+        DomainKey key = new DomainKey(exporter, observationDomainId);
+        TemplateDomain domain = domains.get(key);
+        if (domain == null) {
+            domain = domains.computeIfAbsent(
+                    key, k -> new TemplateDomain(this, exporter, observationDomainId));
+        }
+        return domain;
+    }
+
+    /**
+     * @return the template or null if there is no such template or it is expired.
+     */
+    public TemplateRecord getTemplate(SocketAddress exporter, long observationDomainId,
+                                      int templateId) {
+        TemplateDomain domain = domains.get(new DomainKey(exporter, observationDomainId));
+        if (domain == null) {
+            countLookup(false);
+            return null;
+        }
+        return domain.getTemplate(templateId);
+    }
+
+    /**
+     * Registers the template in observation domain of the exporter, replacing the template with
+     * same Id. The template must not be changed after registration.
+     */
+    public void register(SocketAddress exporter, long observationDomainId,
+                         TemplateRecord templateRecord) {
+        getDomain(exporter, observationDomainId).register(templateRecord);
+    }
+
+    /**
+     * @return a snapshot of all domains of all exporters.
+     */
+    public List<TemplateDomain> getDomains() {
+        return new ArrayList<>(domains.values());
+    }
+
+    /**
+     * Removes all templates of the exporter, e.g. when its transport session is closed.
+     */
+    public void removeExporter(SocketAddress exporter) {
+        Iterator<Map.Entry<DomainKey, TemplateDomain>> iterator = domains.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<DomainKey, TemplateDomain> entry = iterator.next();
+            if (Objects.equals(entry.getKey().exporter, exporter)) {
+                iterator.remove();
+                entry.getValue().remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all expired templates. Expired templates are never used, but without calling this
+     * method periodically those not looked up again keep their memory.
+     *
+     * @return number of removed templates.
+     */
+    public int expireTemplates() {
+        if (templateLifetimeMillis == UNLIMITED) {
+            return 0;
+        }
+        long now = currentTimeMillis();
+        int expired = 0;
+        for (TemplateDomain domain : domains.values()) {
+            for (TemplateEntry entry : domain.getEntries()) {
+                if (entry.isExpired(now, templateLifetimeMillis) && domain.remove(entry)) {
+                    expired++;
+                }
+            }
+        }
+        expirations.add(expired);
+        return expired;
+    }
+
+    public long getTemplateLifetimeMillis() {
+        return templateLifetimeMillis;
+    }
+
+    public long getMaxMemoryBytes() {
+        return maxMemoryBytes;
+    }
+
+    /**
+     * @return number of templates registered in all domains.
+     */
+    public long getTemplateCount() {
+        return templateCount.get();
+    }
+
+    /**
+     * @return estimated memory of registered templates in bytes.
+     */
+    public long getMemoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * @return number of lookups that found a template. Decoding looks up the template of each
+     * data set once, not once per record.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of lookups that did not find a template. Decoding looks up the template of each
+     * data set once, not once per record.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of templates evicted because of memory cap.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of templates removed because their lifetime passed.
+     */
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+
+    /**
+     * @return number of templates removed by template withdrawals.
+     */
+    public long getWithdrawalCount() {
+        return withdrawals.sum();
+    }
+
+    long currentTimeMillis() {
+        return clock.getAsLong();
+    }
+
+    void countLookup(boolean hit) {
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+    }
+
+    void countExpiration() {
+        expirations.increment();
+    }
+
+    void countWithdrawal() {
+        withdrawals.increment();
+    }
+
+    /**
+     * @return number of templates added or replaced so far, which changes whenever a template
+     * that was not known before may be found by lookups.
+     */
+    long getAdditionCount() {
+        return additions.get();
+    }
+
+    void onAdded(TemplateEntry entry) {
+        additions.incrementAndGet();
+        templateCount.incrementAndGet();
+        memoryUsage.addAndGet(entry.size);
+    }
+
+    void onRemoved(TemplateEntry entry) {
+        templateCount.decrementAndGet();
+        memoryUsage.addAndGet(-entry.size);
+    }
+
+    /**
+     * Evicts least recently used templates when memory usage is over the cap, down to a low-water
+     * mark below the cap, so a full scan of templates runs once per batch of new templates instead
+     * of once per template. Order of templates is approximate, see {@link #evictionKey(long, int)}. A thread
+     * that finds another one evicting does not wait for it.
+     */
+    void evictIfNeeded() {
+        if (memoryUsage.get() <= maxMemoryBytes || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            if (memoryUsage.get() <= maxMemoryBytes) {
+                return;
+            }
+            for (TemplateDomain domain : domains.values()) {
+                domain.addEntriesTo(evictionCandidates);
+            }
+            int count = evictionCandidates.size();
+            if (evictionKeys.length < count) {
+                evictionKeys = new long[Math.max(count, evictionKeys.length * 2)];
+            }
+            // Access times are read once, as decoder threads change them while sorting.
+            long oldest = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                evictionKeys[i] = evictionCandidates.get(i).lastAccessedAt;
+                oldest = Math.min(oldest, evictionKeys[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                evictionKeys[i] = evictionKey(evictionKeys[i] - oldest, i);
+            }
+            Arrays.sort(evictionKeys, 0, count);
+            long lowWaterMark = (long) (maxMemoryBytes * LOW_WATER_RATIO);
+            for (int i = 0; i < count && memoryUsage.get() > lowWaterMark; i++) {
+                TemplateEntry entry = evictionCandidates.get((int) evictionKeys[i]);
+                if (entry.domain.remove(entry)) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionCandidates.clear();
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * @param age milliseconds since the oldest access among candidates, ages above 2^31 - 1, about
+     * 24 days, are equally old.
+     * @param index index of the candidate.
+     * @return a key of the candidate that sorts by age and holds its index in low 32 bits.
+     */
+    private static long evictionKey(long age, int index) {
+        return Math.min(age, Integer.MAX_VALUE) << 32 | index;
+    }
+
+    /**
+     * Identifies an observation domain of an exporter.
+     */
+    static final class DomainKey {
+        private final SocketAddress exporter;
+        private final long observationDomainId;
+
+        DomainKey(SocketAddress exporter, long observationDomainId) {
+            this.exporter = exporter;
+            this.observationDomainId = observationDomainId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof DomainKey))
+                return false;
+
+            DomainKey otherKey = (DomainKey) obj;
+
+            return observationDomainId == otherKey.observationDomainId &&
+                   Objects.equals(exporter, otherKey.exporter);
+        }
+
+        @Override
+        public int hashCode() {
+            int hashCode = Objects.hashCode(exporter);
+            hashCode = 31 * hashCode + Long.hashCode(observationDomainId);
+            return hashCode;
+        }
+    }
+}
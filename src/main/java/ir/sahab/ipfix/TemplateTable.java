@@ -0,0 +1,109 @@
+package ir.sahab.ipfix;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An immutable open addressing hash table of template entries keyed by template Id. Updates
+ * return a new table, so a table can be published to and read by any number of threads without
+ * locking. Lookups do not box template Ids.
+ */
+final class TemplateTable {
+    static final TemplateTable EMPTY = new TemplateTable(new int[1], new TemplateEntry[1], 0);
+
+    private final int[] templateIds;
+    private final TemplateEntry[] entries;
+    private final int mask;
+    private final int size;
+
+    private TemplateTable(int[] templateIds, TemplateEntry[] entries, int size) {
+        this.templateIds = templateIds;
+        this.entries = entries;
+        this.mask = entries.length - 1;
+        this.size = size;
+    }
+
+    TemplateEntry get(int templateId) {
+        int index = slot(templateId);
+        TemplateEntry entry;
+        while ((entry = entries[index]) != null) {
+            if (templateIds[index] == templateId) {
+                return entry;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    List<TemplateEntry> values() {
+        List<TemplateEntry> values = new ArrayList<>(size);
+        addValuesTo(values);
+        return values;
+    }
+
+    void addValuesTo(List<TemplateEntry> values) {
+        for (TemplateEntry entry : entries) {
+            if (entry != null) {
+                values.add(entry);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of this table in which the entry replaces any entry with same template Id.
+     */
+    TemplateTable with(TemplateEntry entry) {
+        int templateId = entry.getTemplateId();
+        boolean replace = get(templateId) != null;
+        TemplateTable table = newTable(replace ? size : size + 1);
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != null && templateIds[i] != templateId) {
+                table.put(templateIds[i], entries[i]);
+            }
+        }
+        table.put(templateId, entry);
+        return table;
+    }
+
+    /**
+     * @return a copy of this table without the entry of given template Id, or this table if there
+     * is no such entry.
+     */
+    TemplateTable without(int templateId) {
+        if (get(templateId) == null) {
+            return this;
+        }
+        TemplateTable table = newTable(size - 1);
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != null && templateIds[i] != templateId) {
+                table.put(templateIds[i], entries[i]);
+            }
+        }
+        return table;
+    }
+
+    private static TemplateTable newTable(int size) {
+        // Keep load factor at most 0.5 to keep probe sequences short.
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+        return new TemplateTable(new int[capacity], new TemplateEntry[capacity], size);
+    }
+
+    // Only used while building a new table, before it is published.
+    private void put(int templateId, TemplateEntry entry) {
+        int index = slot(templateId);
+        while (entries[index] != null) {
+            index = (index + 1) & mask;
+        }
+        templateIds[index] = templateId;
+        entries[index] = entry;
+    }
+
+    private int slot(int templateId) {
+        // Template Ids are usually sequential, spread them over the table.
+        return (templateId * 0x9E3779B9) >>> 16 & mask;
+    }
+}
@@ -0,0 +1,87 @@
+package ir.sahab.ipfix.aggregation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A flyweight view of one aggregate in an {@link AggregationTable}: its key fields, summed values
+ * and number of aggregated records. It is valid only during the call it is passed to, copy what
+ * is needed to keep.
+ */
+public final class Aggregate {
+    private final AggregationSpec spec;
+    private ByteBuffer slots;
+    private int keyPosition;
+    private int valuePosition;
+    private int valueCount;
+
+    public Aggregate(AggregationSpec spec) {
+        this.spec = spec;
+    }
+
+    Aggregate wrap(ByteBuffer slots, int keyPosition, int keyWords, int valueCount) {
+        this.slots = slots;
+        this.keyPosition = keyPosition;
+        this.valuePosition = keyPosition + 8 * keyWords;
+        this.valueCount = valueCount;
+        return this;
+    }
+
+    public AggregationSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Reads a key field as an unsigned integer, e.g. a port or an IPv4 address.
+     *
+     * @throws IllegalStateException if the field is wider than 8 bytes.
+     */
+    public long getKeyLong(int keyField) {
+        int width = spec.getKeyFieldWidth(keyField);
+        if (width > 8) {
+            throw new IllegalStateException("Key field " + keyField + " of width " + width +
+                                            " can not be read as long.");
+        }
+        int offset = keyPosition + spec.getKeyFieldOffset(keyField);
+        long value = 0;
+        for (int i = 0; i < width; i++) {
+            value = value << 8 | (0xFF & slots.get(offset + i));
+        }
+        return value;
+    }
+
+    /**
+     * Copies a key field into the given array, e.g. an IPv6 address.
+     *
+     * @return width of the field.
+     * @throws IndexOutOfBoundsException if the field does not fit in destination.
+     */
+    public int getKeyBytes(int keyField, byte[] destination) {
+        int width = spec.getKeyFieldWidth(keyField);
+        if (destination.length < width) {
+            throw new IndexOutOfBoundsException("Key field of width " + width + " does not fit " +
+                                                "in destination.");
+        }
+        int offset = keyPosition + spec.getKeyFieldOffset(keyField);
+        for (int i = 0; i < width; i++) {
+            destination[i] = slots.get(offset + i);
+        }
+        return width;
+    }
+
+    /**
+     * @return sum of the value field over aggregated records.
+     */
+    public long getValue(int valueField) {
+        if (valueField < 0 || valueField >= valueCount) {
+            throw new IndexOutOfBoundsException("No value field at index " + valueField + '.');
+        }
+        return slots.getLong(valuePosition + 8 * valueField);
+    }
+
+    /**
+     * @return number of records aggregated.
+     */
+    public long getRecordCount() {
+        return slots.getLong(valuePosition + 8 * valueCount);
+    }
+}
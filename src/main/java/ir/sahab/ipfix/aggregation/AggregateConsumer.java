@@ -0,0 +1,17 @@
+package ir.sahab.ipfix.aggregation;
+
+/**
+ * Receives aggregates of each window a {@link FlowAggregator} closes.
+ */
+public interface AggregateConsumer {
+
+    /**
+     * Called for each aggregate of a closed window.
+     *
+     * @param windowStart start of the window, inclusive.
+     * @param windowEnd end of the window, exclusive.
+     * @param aggregate view of the aggregate, which is reused for next aggregates, so it must not
+     * be used after this method returns.
+     */
+    void accept(long windowStart, long windowEnd, Aggregate aggregate);
+}
@@ -0,0 +1,177 @@
+package ir.sahab.ipfix.aggregation;
+
+import ir.sahab.ipfix.TemplateRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ *     Defines how data records are aggregated: the fields that make the key of an aggregate, e.g.
+ *     the 5-tuple, and the fields summed per key, e.g. octets and packets. Fields are identified
+ *     by Information Element, so one spec serves all templates that carry them, and is bound to
+ *     field indexes of each template when its first record is aggregated.
+ * </p>
+ * <p>
+ *     Every key field takes a fixed width in keys. Integer values shorter than the width, e.g.
+ *     reduced-size encoded ones, are aligned to the right, and longer values are cut to the width.
+ *     Address fields can be masked to a prefix, to aggregate by network instead of host:
+ * </p>
+ * <pre>
+ *     AggregationSpec spec = new AggregationSpec()
+ *             .addKeyField(12, 4, 24)   // destinationIPv4Address/24
+ *             .addKeyField(17, 4)       // bgpDestinationAsNumber
+ *             .addValueField(1)         // octetDeltaCount
+ *             .addValueField(2);        // packetDeltaCount
+ * </pre>
+ * <p>
+ *     A field that is missing from a template is taken as zero.
+ * </p>
+ */
+public class AggregationSpec {
+    private final List<KeyField> keyFields = new ArrayList<>();
+    private final List<ValueField> valueFields = new ArrayList<>();
+    private int keyLength;
+
+    /**
+     * Adds an IANA Information Element to the key.
+     *
+     * @param width number of bytes the field takes in keys, between 1 and 255.
+     */
+    public AggregationSpec addKeyField(int elementId, int width) {
+        return addKeyField(elementId, 0, width, width * 8);
+    }
+
+    /**
+     * Adds an IANA Information Element to the key, keeping only its first prefixLength bits.
+     */
+    public AggregationSpec addKeyField(int elementId, int width, int prefixLength) {
+        return addKeyField(elementId, 0, width, prefixLength);
+    }
+
+    /**
+     * Adds an Information Element to the key, keeping only its first prefixLength bits.
+     *
+     * @param enterpriseNum enterprise number of the element, 0 for IANA elements.
+     * @param width number of bytes the field takes in keys, between 1 and 255.
+     * @param prefixLength number of leading bits of the field to keep, at most 8 * width.
+     * @throws IllegalArgumentException if width or prefix length is out of range.
+     */
+    public AggregationSpec addKeyField(int elementId, long enterpriseNum, int width,
+                                       int prefixLength) throws IllegalArgumentException {
+        if (width <= 0 || width > 255) {
+            throw new IllegalArgumentException("Width of key field must be between 1 and 255.");
+        }
+        if (prefixLength < 0 || prefixLength > width * 8) {
+            throw new IllegalArgumentException("Prefix length must be between 0 and " +
+                                               width * 8 + '.');
+        }
+        keyFields.add(new KeyField(elementId, enterpriseNum, width, prefixLength, keyLength));
+        keyLength += width;
+        return this;
+    }
+
+    /**
+     * Adds an IANA Information Element to the summed values. Values are read as unsigned integers
+     * of at most 8 bytes.
+     */
+    public AggregationSpec addValueField(int elementId) {
+        return addValueField(elementId, 0);
+    }
+
+    /**
+     * Adds an Information Element to the summed values.
+     *
+     * @param enterpriseNum enterprise number of the element, 0 for IANA elements.
+     */
+    public AggregationSpec addValueField(int elementId, long enterpriseNum) {
+        valueFields.add(new ValueField(elementId, enterpriseNum));
+        return this;
+    }
+
+    public int getKeyFieldCount() {
+        return keyFields.size();
+    }
+
+    public int getValueFieldCount() {
+        return valueFields.size();
+    }
+
+    /**
+     * @return total width of key fields in bytes.
+     */
+    public int getKeyLength() {
+        return keyLength;
+    }
+
+    /**
+     * @return offset of the key field in keys.
+     */
+    public int getKeyFieldOffset(int keyField) {
+        return keyFields.get(keyField).offset;
+    }
+
+    public int getKeyFieldWidth(int keyField) {
+        return keyFields.get(keyField).width;
+    }
+
+    int getKeyFieldPrefixLength(int keyField) {
+        return keyFields.get(keyField).prefixLength;
+    }
+
+    /**
+     * @return indexes of key fields in the template, -1 for fields it does not have.
+     */
+    int[] keyIndexes(TemplateRecord templateRecord) {
+        int[] indexes = new int[keyFields.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            KeyField keyField = keyFields.get(i);
+            indexes[i] = indexOf(templateRecord, keyField.elementId, keyField.enterpriseNum);
+        }
+        return indexes;
+    }
+
+    /**
+     * @return indexes of value fields in the template, -1 for fields it does not have.
+     */
+    int[] valueIndexes(TemplateRecord templateRecord) {
+        int[] indexes = new int[valueFields.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            ValueField valueField = valueFields.get(i);
+            indexes[i] = indexOf(templateRecord, valueField.elementId, valueField.enterpriseNum);
+        }
+        return indexes;
+    }
+
+    private static int indexOf(TemplateRecord templateRecord, int elementId, long enterpriseNum) {
+        return enterpriseNum == 0 ? templateRecord.indexOf(elementId)
+                                  : templateRecord.indexOf(elementId, enterpriseNum);
+    }
+
+    private static final class KeyField {
+        private final int elementId;
+        private final long enterpriseNum;
+        private final int width;
+        private final int prefixLength;
+        private final int offset;
+
+        private KeyField(int elementId, long enterpriseNum, int width, int prefixLength,
+                         int offset) {
+            this.elementId = elementId;
+            this.enterpriseNum = enterpriseNum;
+            this.width = width;
+            this.prefixLength = prefixLength;
+            this.offset = offset;
+        }
+    }
+
+    private static final class ValueField {
+        private final int elementId;
+        private final long enterpriseNum;
+
+        private ValueField(int elementId, long enterpriseNum) {
+            this.elementId = elementId;
+            this.enterpriseNum = enterpriseNum;
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package ir.sahab.ipfix.aggregation;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ *     An open addressing hash table of aggregates with fixed-width keys, kept off-heap in a direct
+ *     buffer, so millions of aggregates neither allocate objects nor add work to garbage
+ *     collector. It is not thread-safe.
+ * </p>
+ * <p>
+ *     Every slot is a run of 8 bytes words: hash of the key (zero for empty slots), key words,
+ *     summed values and number of aggregated records. Keys are compared word by word, and probing
+ *     is linear. Table doubles when it is 70% full, up to a maximum capacity after which new keys
+ *     are rejected.
+ * </p>
+ */
+public final class AggregationTable {
+    // Direct buffers are indexed by int, so slots must fit in 2 GB.
+    private final static long MAX_BUFFER_SIZE = Integer.MAX_VALUE;
+
+    private final int keyWords;
+    private final int valueCount;
+    private final int slotSize;
+    private final int maxCapacity;
+    private ByteBuffer slots;
+    private int capacity;
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    /**
+     * @param keyWords number of 8 bytes words of keys.
+     * @param valueCount number of summed values of aggregates.
+     * @param initialCapacity number of slots initially allocated, rounded up to a power of two.
+     * @param maxCapacity maximum number of slots, rounded down to a power of two.
+     * @throws IllegalArgumentException if capacities are not positive or slots do not fit in a
+     * direct buffer.
+     */
+    public AggregationTable(int keyWords, int valueCount, int initialCapacity, int maxCapacity)
+            throws IllegalArgumentException {
+        if (keyWords < 0 || valueCount < 0) {
+            throw new IllegalArgumentException("Key words and value count must not be negative.");
+        }
+        if (initialCapacity <= 0 || maxCapacity < initialCapacity) {
+            throw new IllegalArgumentException("Capacities must be positive and initial capacity " +
+                                               "must not exceed maximum capacity.");
+        }
+        this.keyWords = keyWords;
+        this.valueCount = valueCount;
+        slotSize = 8 * (keyWords + valueCount + 2);
+        int capacity = Integer.highestOneBit(initialCapacity);
+        if (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        // Largest power of two capacity whose slots fit in a buffer
+        int bufferCapacity = Integer.highestOneBit((int) Math.min(MAX_BUFFER_SIZE / slotSize,
+                                                                  Integer.MAX_VALUE));
+        this.maxCapacity = Math.min(Integer.highestOneBit(maxCapacity), bufferCapacity);
+        if (capacity > this.maxCapacity) {
+            throw new IllegalArgumentException("Initial capacity of " + initialCapacity +
+                                               " slots does not fit in a direct buffer.");
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return number of aggregates in table.
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getKeyWords() {
+        return keyWords;
+    }
+
+    public int getValueCount() {
+        return valueCount;
+    }
+
+    /**
+     * @return bytes of off-heap memory taken by slots.
+     */
+    public long getMemoryUsage() {
+        return (long) capacity * slotSize;
+    }
+
+    /**
+     * Adds values to the aggregate of the key, creating it if not exists.
+     *
+     * @param hash hash of the key computed by {@link #hash(long[])}.
+     * @param recordCount number of records the values are aggregated from.
+     * @return false if the key is new and table is at its maximum capacity, so values are dropped.
+     */
+    public boolean add(long[] key, long hash, long[] values, long recordCount) {
+        int position = find(key, hash);
+        if (slots.getLong(position) == 0) {
+            if (size >= resizeThreshold) {
+                if (capacity >= maxCapacity) {
+                    return false;
+                }
+                resize();
+                position = find(key, hash);
+            }
+            slots.putLong(position, hash);
+            for (int i = 0; i < keyWords; i++) {
+                slots.putLong(position + 8 * (1 + i), key[i]);
+            }
+            size++;
+        }
+        int valuePosition = position + 8 * (1 + keyWords);
+        for (int i = 0; i < valueCount; i++) {
+            int offset = valuePosition + 8 * i;
+            slots.putLong(offset, slots.getLong(offset) + values[i]);
+        }
+        int countPosition = valuePosition + 8 * valueCount;
+        slots.putLong(countPosition, slots.getLong(countPosition) + recordCount);
+        return true;
+    }
+
+    /**
+     * Adds all aggregates of another table with the same key and value layout to this table.
+     *
+     * @return number of aggregates dropped because this table reached its maximum capacity.
+     */
+    public int addAll(AggregationTable other) {
+        if (other.keyWords != keyWords || other.valueCount != valueCount) {
+            throw new IllegalArgumentException("Tables have different layouts.");
+        }
+        long[] key = new long[keyWords];
+        long[] values = new long[valueCount];
+        int dropped = 0;
+        for (int slot = 0; slot < other.capacity; slot++) {
+            int position = slot * other.slotSize;
+            long hash = other.slots.getLong(position);
+            if (hash == 0) {
+                continue;
+            }
+            for (int i = 0; i < keyWords; i++) {
+                key[i] = other.slots.getLong(position + 8 * (1 + i));
+            }
+            int valuePosition = position + 8 * (1 + keyWords);
+            for (int i = 0; i < valueCount; i++) {
+                values[i] = other.slots.getLong(valuePosition + 8 * i);
+            }
+            if (!add(key, hash, values, other.slots.getLong(valuePosition + 8 * valueCount))) {
+                dropped++;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Passes every aggregate to the visitor, through a flyweight valid only during the call.
+     */
+    public void forEach(Aggregate aggregate, AggregateVisitor visitor) {
+        for (int slot = 0; slot < capacity; slot++) {
+            int position = slot * slotSize;
+            if (slots.getLong(position) != 0) {
+                visitor.visit(aggregate.wrap(slots, position + 8, keyWords, valueCount));
+            }
+        }
+    }
+
+    /**
+     * Removes all aggregates, keeping the memory of slots.
+     */
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        int length = capacity * slotSize;
+        for (int position = 0; position < length; position += 8) {
+            slots.putLong(position, 0);
+        }
+        size = 0;
+    }
+
+    /**
+     * Hashes a key. Result is never zero, which marks empty slots.
+     */
+    public static long hash(long[] key) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (long word : key) {
+            hash = (hash ^ word) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * @return position of the slot of the key, or of the empty slot where it should be added.
+     */
+    private int find(long[] key, long hash) {
+        int slot = (int) (hash ^ hash >>> 32) & mask;
+        while (true) {
+            int position = slot * slotSize;
+            long slotHash = slots.getLong(position);
+            if (slotHash == 0 || slotHash == hash && keyEquals(position, key)) {
+                return position;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private boolean keyEquals(int position, long[] key) {
+        for (int i = 0; i < keyWords; i++) {
+            if (slots.getLong(position + 8 * (1 + i)) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void allocate(int capacity) {
+        this.capacity = capacity;
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * 0.7);
+        slots = ByteBuffer.allocateDirect(capacity * slotSize);
+    }
+
+    private void resize() {
+        ByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        allocate(capacity * 2);
+        long[] key = new long[keyWords];
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            int oldPosition = slot * slotSize;
+            long hash = oldSlots.getLong(oldPosition);
+            if (hash == 0) {
+                continue;
+            }
+            for (int i = 0; i < keyWords; i++) {
+                key[i] = oldSlots.getLong(oldPosition + 8 * (1 + i));
+            }
+            int position = find(key, hash);
+            for (int i = 0; i < slotSize; i += 8) {
+                slots.putLong(position + i, oldSlots.getLong(oldPosition + i));
+            }
+        }
+    }
+
+    /**
+     * Receives aggregates of a table.
+     */
+    public interface AggregateVisitor {
+        void visit(Aggregate aggregate);
+    }
+}
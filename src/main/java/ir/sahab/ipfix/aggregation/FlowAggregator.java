@@ -0,0 +1,402 @@
+package ir.sahab.ipfix.aggregation;
+
+import ir.sahab.ipfix.DataRecordCursor;
+import ir.sahab.ipfix.FieldValue;
+import ir.sahab.ipfix.FieldValueView;
+import ir.sahab.ipfix.GenericRecord;
+import ir.sahab.ipfix.TemplateLayout;
+import ir.sahab.ipfix.TemplateRecord;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * <p>
+ *     Aggregates data records by the key and value fields of an {@link AggregationSpec} over time
+ *     windows, e.g. bytes and packets per 5-tuple per minute. Fields are read straight from
+ *     records by their index in the template, which is resolved once per template, and summed in
+ *     off-heap {@link AggregationTable}s, so aggregating a record allocates nothing.
+ * </p>
+ * <p>
+ *     Windows are tumbling when slide equals window length, and sliding when slide is shorter.
+ *     Records are summed per slide-long pane, and a sliding window is the sum of the panes it
+ *     covers, so each record is summed once whatever the number of windows it belongs to.
+ *     Windows are closed by {@link #advanceTo(long)} once time passes their end, and by
+ *     {@link #flush()}. Aggregates of a closed window are passed to the consumer, then panes that
+ *     no later window covers are evicted and their tables are reused. Records of a window that is
+ *     already closed are dropped as late.
+ * </p>
+ * <pre>
+ *     FlowAggregator aggregator = new FlowAggregator(spec, 60_000, 60_000,
+ *             (start, end, aggregate) -&gt; store(start, aggregate));
+ *     while (cursor.next()) {
+ *         aggregator.add(cursor, exportTimeMillis);
+ *     }
+ *     aggregator.advanceTo(System.currentTimeMillis());
+ * </pre>
+ * <p>
+ *     Aggregator is not thread-safe, aggregating threads should each have their own.
+ * </p>
+ */
+public class FlowAggregator {
+    private final static int DEFAULT_INITIAL_CAPACITY = 1 << 12;
+    private final static int DEFAULT_MAX_CAPACITY = 1 << 24;
+
+    private final AggregationSpec spec;
+    private final long windowLength;
+    private final long slide;
+    private final AggregateConsumer consumer;
+    private final int initialCapacity;
+    private final int maxCapacity;
+
+    private final int keyWords;
+    private final byte[] keyBytes;
+    private final ByteBuffer keyBuffer;
+    private final long[] keyMask;
+    private final long[] key;
+    private final long[] values;
+    private final Aggregate aggregate;
+
+    // Bindings of the spec to templates, by layout which changes when a template is redefined
+    private final Map<TemplateLayout, Binding> bindings = new WeakHashMap<>();
+    private TemplateLayout lastLayout;
+    private Binding lastBinding;
+
+    private final TreeMap<Long, AggregationTable> panes = new TreeMap<>();
+    private final ArrayDeque<AggregationTable> freeTables = new ArrayDeque<>();
+    private AggregationTable mergeTable;
+    private long lastPaneStart;
+    private AggregationTable lastPane;
+    private long closedUntil = Long.MIN_VALUE;
+
+    private long aggregatedRecords;
+    private long lateRecords;
+    private long droppedRecords;
+    private long emittedAggregates;
+
+    /**
+     * Creates an aggregator whose tables start with 4096 slots and grow up to 2^24 slots.
+     *
+     * @param windowLength length of windows, usually in milliseconds. Times of records and
+     * {@link #advanceTo(long)} must be in the same unit.
+     * @param slide distance between starts of consecutive windows, equal to window length for
+     * tumbling windows.
+     */
+    public FlowAggregator(AggregationSpec spec, long windowLength, long slide,
+                          AggregateConsumer consumer) {
+        this(spec, windowLength, slide, consumer, DEFAULT_INITIAL_CAPACITY, DEFAULT_MAX_CAPACITY);
+    }
+
+    /**
+     * @param initialCapacity number of slots of a new table of a pane.
+     * @param maxCapacity maximum number of slots of a table, which bounds off-heap memory of each
+     * pane. Records of new keys are dropped when a table is full.
+     * @throws IllegalArgumentException if window length is not a positive multiple of slide.
+     */
+    public FlowAggregator(AggregationSpec spec, long windowLength, long slide,
+                          AggregateConsumer consumer, int initialCapacity, int maxCapacity)
+            throws IllegalArgumentException {
+        if (slide <= 0 || windowLength < slide || windowLength % slide != 0) {
+            throw new IllegalArgumentException("Window length must be a positive multiple of " +
+                                               "slide.");
+        }
+        this.spec = spec;
+        this.windowLength = windowLength;
+        this.slide = slide;
+        this.consumer = consumer;
+        this.initialCapacity = initialCapacity;
+        this.maxCapacity = maxCapacity;
+
+        keyWords = (spec.getKeyLength() + 7) / 8;
+        keyBytes = new byte[8 * keyWords];
+        keyBuffer = ByteBuffer.wrap(keyBytes);
+        keyMask = compileKeyMask(spec, keyWords);
+        key = new long[keyWords];
+        values = new long[spec.getValueFieldCount()];
+        aggregate = new Aggregate(spec);
+        // Fails early for invalid capacities
+        freeTables.push(newTable());
+    }
+
+    /**
+     * Aggregates the current record of the cursor.
+     *
+     * @param time time the record is aggregated at, e.g. its flow end or export time.
+     */
+    public void add(DataRecordCursor cursor, long time) {
+        Binding binding = bind(cursor.getTemplateRecord());
+        ByteBuffer buffer = cursor.getBuffer();
+        for (int i = 0; i < binding.keyIndexes.length; i++) {
+            int index = binding.keyIndexes[i];
+            if (index >= 0) {
+                copyKeyField(i, buffer, cursor.getFieldOffset(index),
+                             cursor.getFieldLength(index));
+            } else {
+                clearKeyField(i);
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            int index = binding.valueIndexes[i];
+            values[i] = index >= 0 ? cursor.getLong(index) : 0;
+        }
+        aggregate(time);
+    }
+
+    /**
+     * Aggregates a decoded record.
+     *
+     * @param time time the record is aggregated at, e.g. its flow end or export time.
+     */
+    public void add(GenericRecord record, long time) {
+        Binding binding = bind(record.getTemplateRecord());
+        List<FieldValue> fieldValues = record.getFieldValues();
+        for (int i = 0; i < binding.keyIndexes.length; i++) {
+            int index = binding.keyIndexes[i];
+            if (index < 0) {
+                clearKeyField(i);
+                continue;
+            }
+            FieldValue fieldValue = fieldValues.get(index);
+            if (fieldValue instanceof FieldValueView) {
+                FieldValueView view = (FieldValueView) fieldValue;
+                copyKeyField(i, view.getBuffer(), view.getOffset(), view.getValueLength());
+            } else {
+                copyKeyField(i, fieldValue.getValue());
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            int index = binding.valueIndexes[i];
+            values[i] = index >= 0 ? fieldValues.get(index).asLong() : 0;
+        }
+        aggregate(time);
+    }
+
+    /**
+     * Closes windows that end at or before the given time, passing their aggregates to the
+     * consumer, and evicts panes no open window covers.
+     */
+    public void advanceTo(long time) {
+        while (!panes.isEmpty()) {
+            // Skip windows without any pane
+            long windowEnd = Math.max(closedUntil + slide, panes.firstKey() + slide);
+            if (windowEnd > time) {
+                return;
+            }
+            emit(windowEnd - windowLength, windowEnd);
+            closedUntil = windowEnd;
+            evictPanesBefore(windowEnd - windowLength + slide);
+        }
+    }
+
+    /**
+     * Closes all windows with aggregates, even those whose end is not passed yet.
+     */
+    public void flush() {
+        advanceTo(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return number of records aggregated.
+     */
+    public long getAggregatedRecordCount() {
+        return aggregatedRecords;
+    }
+
+    /**
+     * @return number of records dropped because their window was already closed.
+     */
+    public long getLateRecordCount() {
+        return lateRecords;
+    }
+
+    /**
+     * @return number of records dropped because the table of their pane or window was full.
+     */
+    public long getDroppedRecordCount() {
+        return droppedRecords;
+    }
+
+    /**
+     * @return number of aggregates passed to the consumer.
+     */
+    public long getEmittedAggregateCount() {
+        return emittedAggregates;
+    }
+
+    /**
+     * @return number of panes not evicted yet.
+     */
+    public int getPaneCount() {
+        return panes.size();
+    }
+
+    /**
+     * @return bytes of off-heap memory taken by tables of panes, including tables kept for reuse.
+     */
+    public long getMemoryUsage() {
+        long memoryUsage = mergeTable == null ? 0 : mergeTable.getMemoryUsage();
+        for (AggregationTable table : panes.values()) {
+            memoryUsage += table.getMemoryUsage();
+        }
+        for (AggregationTable table : freeTables) {
+            memoryUsage += table.getMemoryUsage();
+        }
+        return memoryUsage;
+    }
+
+    private Binding bind(TemplateRecord templateRecord) {
+        TemplateLayout layout = templateRecord.getLayout();
+        if (layout == lastLayout) {
+            return lastBinding;
+        }
+        Binding binding = bindings.get(layout);
+        if (binding == null) {
+            binding = new Binding(spec.keyIndexes(templateRecord),
+                                  spec.valueIndexes(templateRecord));
+            bindings.put(layout, binding);
+        }
+        lastLayout = layout;
+        lastBinding = binding;
+        return binding;
+    }
+
+    private void copyKeyField(int keyField, ByteBuffer buffer, int offset, int length) {
+        int width = spec.getKeyFieldWidth(keyField);
+        int keyOffset = spec.getKeyFieldOffset(keyField);
+        int copied = Math.min(length, width);
+        // Shorter integers are aligned to the right, longer values are cut to the width.
+        int start = keyOffset + width - copied;
+        for (int i = keyOffset; i < start; i++) {
+            keyBytes[i] = 0;
+        }
+        for (int i = 0; i < copied; i++) {
+            keyBytes[start + i] = buffer.get(offset + i);
+        }
+    }
+
+    private void copyKeyField(int keyField, byte[] value) {
+        int width = spec.getKeyFieldWidth(keyField);
+        int keyOffset = spec.getKeyFieldOffset(keyField);
+        int copied = Math.min(value.length, width);
+        int start = keyOffset + width - copied;
+        for (int i = keyOffset; i < start; i++) {
+            keyBytes[i] = 0;
+        }
+        System.arraycopy(value, 0, keyBytes, start, copied);
+    }
+
+    private void clearKeyField(int keyField) {
+        int keyOffset = spec.getKeyFieldOffset(keyField);
+        for (int i = 0; i < spec.getKeyFieldWidth(keyField); i++) {
+            keyBytes[keyOffset + i] = 0;
+        }
+    }
+
+    private void aggregate(long time) {
+        long paneStart = Math.floorDiv(time, slide) * slide;
+        if (paneStart + slide <= closedUntil) {
+            lateRecords++;
+            return;
+        }
+        AggregationTable pane = lastPane;
+        if (pane == null || paneStart != lastPaneStart) {
+            pane = panes.get(paneStart);
+            if (pane == null) {
+                pane = freeTables.isEmpty() ? newTable() : freeTables.pop();
+                panes.put(paneStart, pane);
+            }
+            lastPane = pane;
+            lastPaneStart = paneStart;
+        }
+        for (int i = 0; i < keyWords; i++) {
+            key[i] = keyBuffer.getLong(8 * i) & keyMask[i];
+        }
+        if (pane.add(key, AggregationTable.hash(key), values, 1)) {
+            aggregatedRecords++;
+        } else {
+            droppedRecords++;
+        }
+    }
+
+    private void emit(long windowStart, long windowEnd) {
+        NavigableMap<Long, AggregationTable> windowPanes =
+                panes.subMap(windowStart, true, windowEnd, false);
+        AggregationTable table;
+        if (windowPanes.isEmpty()) {
+            return;
+        } else if (windowPanes.size() == 1) {
+            table = windowPanes.firstEntry().getValue();
+        } else {
+            if (mergeTable == null) {
+                mergeTable = newTable();
+            }
+            mergeTable.clear();
+            for (AggregationTable pane : windowPanes.values()) {
+                droppedRecords += mergeTable.addAll(pane);
+            }
+            table = mergeTable;
+        }
+        table.forEach(aggregate, view -> {
+            emittedAggregates++;
+            consumer.accept(windowStart, windowEnd, view);
+        });
+    }
+
+    private void evictPanesBefore(long paneStart) {
+        Iterator<Map.Entry<Long, AggregationTable>> iterator =
+                panes.headMap(paneStart, false).entrySet().iterator();
+        while (iterator.hasNext()) {
+            AggregationTable table = iterator.next().getValue();
+            iterator.remove();
+            if (table == lastPane) {
+                lastPane = null;
+            }
+            table.clear();
+            freeTables.push(table);
+        }
+    }
+
+    private AggregationTable newTable() {
+        return new AggregationTable(keyWords, values.length, initialCapacity, maxCapacity);
+    }
+
+    /**
+     * @return masks of key words that keep only prefixes of key fields.
+     */
+    private static long[] compileKeyMask(AggregationSpec spec, int keyWords) {
+        byte[] mask = new byte[8 * keyWords];
+        for (int i = 0; i < spec.getKeyFieldCount(); i++) {
+            int offset = spec.getKeyFieldOffset(i);
+            int prefixLength = spec.getKeyFieldPrefixLength(i);
+            for (int j = 0; j < spec.getKeyFieldWidth(i); j++) {
+                int bits = Math.max(0, Math.min(8, prefixLength - 8 * j));
+                mask[offset + j] = (byte) (0xFF00 >>> bits);
+            }
+        }
+        long[] keyMask = new long[keyWords];
+        ByteBuffer maskBuffer = ByteBuffer.wrap(mask);
+        for (int i = 0; i < keyWords; i++) {
+            keyMask[i] = maskBuffer.getLong(8 * i);
+        }
+        return keyMask;
+    }
+
+    /**
+     * Indexes of key and value fields of the spec in a template.
+     */
+    private static final class Binding {
+        private final int[] keyIndexes;
+        private final int[] valueIndexes;
+
+        private Binding(int[] keyIndexes, int[] valueIndexes) {
+            this.keyIndexes = keyIndexes;
+            this.valueIndexes = valueIndexes;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package ir.sahab.ipfix.capture;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>
+ *     Layout of capture files. A capture is a directory of segment files, each starting with a
+ *     16 bytes header:
+ * </p>
+ * <pre>
+ *          magic               4 bytes  "IPFC"
+ *          version             4 bytes
+ *          reserved            8 bytes
+ * </pre>
+ * <p>
+ *     followed by captured messages, each with a 32 bytes header:
+ * </p>
+ * <pre>
+ *          message length      4 bytes, zero marks end of segment
+ *          capture time        8 bytes, milliseconds since epoch
+ *          address family      1 byte, 0 when exporter is unknown, 4 or 6
+ *          reserved            1 byte
+ *          exporter port       2 bytes
+ *          exporter address    16 bytes, IPv4 addresses in the first 4 bytes
+ * </pre>
+ * <p>
+ *     Message length is written after the rest of a captured message, so a segment cut by a crash
+ *     ends at the last complete message. Each segment may have an index file of (capture time,
+ *     offset) entries every {@link #INDEX_INTERVAL} bytes, written when the segment is completed.
+ * </p>
+ */
+final class CaptureFormat {
+    final static int MAGIC = 0x49504643;
+    final static int VERSION = 1;
+    final static int SEGMENT_HEADER_LENGTH = 16;
+    final static int MESSAGE_HEADER_LENGTH = 32;
+    final static int INDEX_INTERVAL = 64 * 1024;
+    final static int INDEX_ENTRY_LENGTH = 12;
+
+    private final static String SEGMENT_SUFFIX = ".ipfixcap";
+    private final static String INDEX_SUFFIX = ".idx";
+
+    private CaptureFormat() {}
+
+    static Path segmentPath(Path directory, long segmentNumber) {
+        return directory.resolve(String.format("segment-%010d%s", segmentNumber, SEGMENT_SUFFIX));
+    }
+
+    static Path indexPath(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return segmentPath.resolveSibling(
+                name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * @return segment files of the capture in order.
+     */
+    static List<Path> listSegments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream =
+                     Files.newDirectoryStream(directory, "segment-*" + SEGMENT_SUFFIX)) {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        }
+        // Numbers are zero padded, so names sort in order.
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static long segmentNumber(Path segmentPath) {
+        String name = segmentPath.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(),
+                                             name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Writes the exporter part of a message header at an absolute position.
+     */
+    static void putExporter(ByteBuffer buffer, int position, SocketAddress exporter) {
+        for (int i = 0; i < 20; i++) {
+            buffer.put(position + i, (byte) 0);
+        }
+        if (!(exporter instanceof InetSocketAddress) ||
+            ((InetSocketAddress) exporter).getAddress() == null) {
+            return;
+        }
+        InetSocketAddress socketAddress = (InetSocketAddress) exporter;
+        byte[] address = socketAddress.getAddress().getAddress();
+        buffer.put(position, (byte) (address.length == 4 ? 4 : 6));
+        buffer.putShort(position + 2, (short) socketAddress.getPort());
+        for (int i = 0; i < address.length; i++) {
+            buffer.put(position + 4 + i, address[i]);
+        }
+    }
+
+    /**
+     * Reads the exporter part of a message header at an absolute position.
+     *
+     * @return the exporter, or null if it was not known.
+     */
+    static SocketAddress getExporter(ByteBuffer buffer, int position) {
+        int family = buffer.get(position);
+        if (family == 0) {
+            return null;
+        }
+        byte[] address = new byte[family == 4 ? 4 : 16];
+        for (int i = 0; i < address.length; i++) {
+            address[i] = buffer.get(position + 4 + i);
+        }
+        int port = 0xFFFF & buffer.getShort(position + 2);
+        try {
+            return new InetSocketAddress(InetAddress.getByAddress(address), port);
+        } catch (IOException e) {
+            throw new IllegalStateException("Invalid exporter address in capture.", e);
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package ir.sahab.ipfix.capture;
+
+import ir.sahab.ipfix.collector.PacketSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     Reads messages of a capture written by {@link CaptureWriter}, in the order they were
+ *     written. Segments are memory-mapped and messages are not copied: the buffer of the current
+ *     message is the mapped segment itself, positioned on the message, so it can be decoded
+ *     directly:
+ * </p>
+ * <pre>
+ *     try (CaptureReader reader = new CaptureReader(directory)) {
+ *         reader.seek(startTime);
+ *         while (reader.next()) {
+ *             recordFactory.setExporter(reader.getExporter());
+ *             IpfixMessage message = IpfixMessage.decode(reader.getMessage(), recordFactory);
+ *         }
+ *     }
+ * </pre>
+ * <p>
+ *     Messages can also be replayed to a {@link PacketSink}, at their original pace or as fast as
+ *     possible, see {@link #replay(PacketSink, boolean)}. Reader is not thread-safe.
+ * </p>
+ */
+public class CaptureReader implements Closeable {
+    private final List<Path> segments;
+    private int segmentIndex = -1;
+    private MappedByteBuffer segment;
+    private int nextPosition;
+
+    private int messagePosition = -1;
+    private int messageLength;
+    private long captureTime;
+    private SocketAddress exporter;
+    private boolean exporterRead;
+    // Exporter part of the header of the message exporter is read from, to reuse the instance
+    private final byte[] exporterBytes = new byte[20];
+    private boolean hasExporterBytes;
+
+    /**
+     * Opens the segments the capture directory has now. Segments added later are not read.
+     */
+    public CaptureReader(Path directory) throws IOException {
+        segments = CaptureFormat.listSegments(directory);
+    }
+
+    /**
+     * Moves to the next message.
+     *
+     * @return false if there is no more messages.
+     */
+    public boolean next() throws IOException {
+        if (segment != null) {
+            segment.clear();
+        }
+        while (true) {
+            if (segment != null && hasMessageAt(nextPosition)) {
+                messagePosition = nextPosition;
+                messageLength = segment.getInt(messagePosition);
+                captureTime = segment.getLong(messagePosition + 4);
+                exporterRead = false;
+                nextPosition = messagePosition + CaptureFormat.MESSAGE_HEADER_LENGTH +
+                               messageLength;
+                return true;
+            }
+            if (segmentIndex + 1 >= segments.size()) {
+                messagePosition = -1;
+                return false;
+            }
+            openSegment(segmentIndex + 1);
+        }
+    }
+
+    /**
+     * Positions the reader before the first message captured at or after the given time. Segments
+     * are found by capture time of their first message, and messages in a segment by its index,
+     * so only a short run of messages is scanned.
+     */
+    public void seek(long time) throws IOException {
+        // Last segment that starts before the time, it or the next one has the message.
+        int low = 0;
+        int high = segments.size() - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            openSegment(middle);
+            if (hasMessageAt(nextPosition) && segment.getLong(nextPosition + 4) < time) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (segments.isEmpty()) {
+            return;
+        }
+        openSegment(found);
+        nextPosition = indexedPositionBefore(segments.get(found), time);
+        while (hasMessageAt(nextPosition) && segment.getLong(nextPosition + 4) < time) {
+            nextPosition += CaptureFormat.MESSAGE_HEADER_LENGTH + segment.getInt(nextPosition);
+        }
+        messagePosition = -1;
+    }
+
+    /**
+     * @return buffer of the current message, positioned on the message with its limit at the end
+     * of the message. The buffer is the mapped segment shared by its messages, so its position and
+     * limit are valid until the reader moves, while its content is valid until the reader is
+     * garbage collected.
+     */
+    public ByteBuffer getMessage() {
+        checkMessage();
+        segment.limit(messagePosition + CaptureFormat.MESSAGE_HEADER_LENGTH + messageLength);
+        segment.position(messagePosition + CaptureFormat.MESSAGE_HEADER_LENGTH);
+        return segment;
+    }
+
+    /**
+     * @return time the current message was captured, milliseconds since epoch.
+     */
+    public long getCaptureTime() {
+        checkMessage();
+        return captureTime;
+    }
+
+    /**
+     * @return exporter of the current message, or null if it was not known. Consecutive messages
+     * of the same exporter return the same instance.
+     */
+    public SocketAddress getExporter() {
+        checkMessage();
+        if (!exporterRead) {
+            int position = messagePosition + 12;
+            boolean sameExporter = hasExporterBytes;
+            for (int i = 0; i < exporterBytes.length; i++) {
+                byte b = segment.get(position + i);
+                sameExporter &= exporterBytes[i] == b;
+                exporterBytes[i] = b;
+            }
+            if (!sameExporter) {
+                exporter = CaptureFormat.getExporter(segment, position);
+                hasExporterBytes = true;
+            }
+            exporterRead = true;
+        }
+        return exporter;
+    }
+
+    /**
+     * Passes the remaining messages to the sink.
+     *
+     * @param originalPace whether to pass messages at the pace they were captured, instead of as
+     * fast as possible.
+     * @return number of messages passed.
+     * @throws InterruptedException if interrupted while waiting for the time of a message.
+     */
+    public long replay(PacketSink sink, boolean originalPace)
+            throws IOException, InterruptedException {
+        long count = 0;
+        long firstCaptureTime = 0;
+        long startNanos = 0;
+        while (next()) {
+            if (originalPace) {
+                if (count == 0) {
+                    firstCaptureTime = captureTime;
+                    startNanos = System.nanoTime();
+                }
+                long delayNanos = TimeUnit.MILLISECONDS.toNanos(captureTime - firstCaptureTime) -
+                                  (System.nanoTime() - startNanos);
+                if (delayNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delayNanos);
+                }
+            }
+            sink.onPacket(getExporter(), getMessage());
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        // Mapped segments are unmapped when garbage collected
+        segment = null;
+        messagePosition = -1;
+    }
+
+    private boolean hasMessageAt(int position) {
+        if (segment.capacity() - position < CaptureFormat.MESSAGE_HEADER_LENGTH) {
+            return false;
+        }
+        int length = segment.getInt(position);
+        return length > 0 &&
+               segment.capacity() - position - CaptureFormat.MESSAGE_HEADER_LENGTH >= length;
+    }
+
+    private void openSegment(int index) throws IOException {
+        if (index == segmentIndex && segment != null) {
+            segment.clear();
+            nextPosition = CaptureFormat.SEGMENT_HEADER_LENGTH;
+            return;
+        }
+        Path path = segments.get(index);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (segment.capacity() < CaptureFormat.SEGMENT_HEADER_LENGTH ||
+            segment.getInt(0) != CaptureFormat.MAGIC) {
+            throw new IOException(path + " is not a capture segment.");
+        }
+        if (segment.getInt(4) != CaptureFormat.VERSION) {
+            throw new IOException("Version " + segment.getInt(4) + " of " + path +
+                                  " is not supported.");
+        }
+        segmentIndex = index;
+        nextPosition = CaptureFormat.SEGMENT_HEADER_LENGTH;
+    }
+
+    /**
+     * @return position of the last indexed message captured before the time, or of the first
+     * message if the segment has no index.
+     */
+    private int indexedPositionBefore(Path segmentPath, long time) throws IOException {
+        Path indexPath = CaptureFormat.indexPath(segmentPath);
+        int position = CaptureFormat.SEGMENT_HEADER_LENGTH;
+        if (!Files.exists(indexPath)) {
+            return position;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexPath));
+        int low = 0;
+        int high = index.capacity() / CaptureFormat.INDEX_ENTRY_LENGTH - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = middle * CaptureFormat.INDEX_ENTRY_LENGTH;
+            if (index.getLong(entry) < time) {
+                position = index.getInt(entry + 8);
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return position;
+    }
+
+    private void checkMessage() {
+        if (messagePosition < 0) {
+            throw new IllegalStateException("Reader is not positioned on a message.");
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package ir.sahab.ipfix.capture;
+
+import ir.sahab.ipfix.collector.PacketSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ *     Appends IPFIX messages with their exporter and capture time to a capture directory, in the
+ *     format of {@link CaptureFormat}, in spirit of IPFIX files of RFC 5655 but with exporter
+ *     addresses kept per message. Messages are copied into a memory-mapped segment file, so
+ *     writing a message is a copy to memory and the page cache writes it to disk. A new segment
+ *     is started when the current one is full, and the completed segment is truncated to its
+ *     content and indexed by capture time.
+ * </p>
+ * <p>
+ *     Writer is a {@link PacketSink}, so a collector can capture traffic by a sink that writes and
+ *     then passes packets on. It is thread-safe, so receivers of a collector may share it.
+ *     Capture times must not decrease, an earlier time is written as the last written time to
+ *     keep segments ordered for seeking.
+ * </p>
+ * <pre>
+ *     CaptureWriter writer = new CaptureWriter(directory, 256 * 1024 * 1024);
+ *     UdpCollector collector = new UdpCollector(address, 1, () -&gt; writer);
+ * </pre>
+ */
+public class CaptureWriter implements PacketSink, Closeable {
+    private final Path directory;
+    private final int segmentSize;
+    private long segmentNumber;
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private Path segmentPath;
+    private ByteBuffer index;
+    private int nextIndexedPosition;
+    private long lastCaptureTime = Long.MIN_VALUE;
+    private long messageCount;
+    private long byteCount;
+    private boolean closed;
+
+    /**
+     * Opens a capture directory, creating it if not exists. Messages are appended in new segments
+     * after existing ones.
+     *
+     * @param segmentSize maximum size of a segment file in bytes.
+     * @throws IllegalArgumentException if a maximum size message does not fit in a segment.
+     */
+    public CaptureWriter(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < CaptureFormat.SEGMENT_HEADER_LENGTH +
+                          CaptureFormat.MESSAGE_HEADER_LENGTH + 0xffff) {
+            throw new IllegalArgumentException("Segment size must fit a message of 65535 bytes.");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        List<Path> segments = CaptureFormat.listSegments(directory);
+        segmentNumber = segments.isEmpty() ?
+                        0 : CaptureFormat.segmentNumber(segments.get(segments.size() - 1)) + 1;
+        openSegment();
+    }
+
+    /**
+     * Writes the packet with current time, see {@link #write(SocketAddress, long, ByteBuffer)}.
+     *
+     * @throws UncheckedIOException if writing fails.
+     */
+    @Override
+    public void onPacket(SocketAddress exporter, ByteBuffer packet) {
+        try {
+            write(exporter, System.currentTimeMillis(), packet);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Appends a message. Position of the message buffer is not changed.
+     *
+     * @param exporter address of the exporter, may be null when exporter is not known.
+     * @param captureTime time the message is received, milliseconds since epoch.
+     * @param message content of the message between its position and limit.
+     * @throws IllegalArgumentException if the message is longer than 65535 bytes.
+     */
+    public synchronized void write(SocketAddress exporter, long captureTime, ByteBuffer message)
+            throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Capture writer is closed.");
+        }
+        int length = message.remaining();
+        if (length == 0 || length > 0xffff) {
+            throw new IllegalArgumentException("Message length must be between 1 and 65535.");
+        }
+        // Keep room for the end marker of the segment
+        if (segment.remaining() < CaptureFormat.MESSAGE_HEADER_LENGTH + length + 4) {
+            completeSegment();
+            segmentNumber++;
+            openSegment();
+        }
+        captureTime = Math.max(captureTime, lastCaptureTime);
+        lastCaptureTime = captureTime;
+
+        int position = segment.position();
+        if (position >= nextIndexedPosition) {
+            addIndexEntry(captureTime, position);
+            nextIndexedPosition = position + CaptureFormat.INDEX_INTERVAL;
+        }
+        segment.putLong(position + 4, captureTime);
+        CaptureFormat.putExporter(segment, position + 12, exporter);
+        int messagePosition = message.position();
+        segment.position(position + CaptureFormat.MESSAGE_HEADER_LENGTH);
+        segment.put(message);
+        message.position(messagePosition);
+        // Length is written last, so readers never see a partial message.
+        segment.putInt(position, length);
+        messageCount++;
+        byteCount += length;
+    }
+
+    /**
+     * Forces written messages of the current segment to disk.
+     */
+    public synchronized void flush() {
+        if (!closed) {
+            segment.force();
+        }
+    }
+
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    /**
+     * @return bytes of messages written, excluding headers.
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Completes the current segment, truncating it to its content and writing its index.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            completeSegment();
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segmentPath = CaptureFormat.segmentPath(directory, segmentNumber);
+        channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW,
+                                   StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segment.putInt(CaptureFormat.MAGIC);
+        segment.putInt(CaptureFormat.VERSION);
+        segment.putLong(0);
+        index = ByteBuffer.allocate(64 * CaptureFormat.INDEX_ENTRY_LENGTH);
+        nextIndexedPosition = CaptureFormat.SEGMENT_HEADER_LENGTH;
+    }
+
+    private void completeSegment() throws IOException {
+        int end = segment.position();
+        // End marker, for readers of segments not truncated by a crash
+        segment.putInt(end, 0);
+        segment.force();
+        // Mapping stays until garbage collected, but truncating the file frees the unused part.
+        channel.truncate(end + 4);
+        channel.close();
+        index.flip();
+        Files.write(CaptureFormat.indexPath(segmentPath),
+                    Arrays.copyOf(index.array(), index.limit()));
+    }
+
+    private void addIndexEntry(long captureTime, int position) {
+        if (index.remaining() < CaptureFormat.INDEX_ENTRY_LENGTH) {
+            ByteBuffer newIndex = ByteBuffer.allocate(index.capacity() * 2);
+            index.flip();
+            newIndex.put(index);
+            index = newIndex;
+        }
+        index.putLong(captureTime).putInt(position);
+    }
+}
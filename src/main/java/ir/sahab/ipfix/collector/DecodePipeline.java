@@ -0,0 +1,243 @@
+package ir.sahab.ipfix.collector;
+
+import java.io.Closeable;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ *     A {@link PacketSink} that spreads decoding of packets over worker threads. Packets are
+ *     sharded by exporter and observation domain Id, so all messages of an observation domain
+ *     are handled in order by the same worker, and templates of the domain are always learned
+ *     and used by one thread.
+ * </p>
+ * <p>
+ *     Each worker has a bounded queue and its own sink, e.g. a {@link DecodingSink} with its own
+ *     {@link ir.sahab.ipfix.RecordFactory}, so workers share no decoding state. Unlike other
+ *     sinks, the pipeline may be called by several threads at once, so all receivers of a
+ *     collector can feed the same pipeline:
+ * </p>
+ * <pre>
+ *     DecodePipeline pipeline = new DecodePipeline(16, 4096,
+ *             () -&gt; new DecodingSink(new RecordFactory(), message -&gt; ...));
+ *     pipeline.start();
+ *     UdpCollector collector = new UdpCollector(address, 4, () -&gt; pipeline);
+ * </pre>
+ * <p>
+ *     Packets are copied into the queue, since buffers of collectors are reused. When the queue
+ *     of a worker is full the packet is dropped and counted, as a receiver must not be blocked
+ *     by a slow worker. Idle workers spin briefly and then park for short periods, so there is no
+ *     wakeup cost on the receive path.
+ * </p>
+ */
+public class DecodePipeline implements PacketSink, Closeable {
+    // Offset of observation domain Id in message header
+    private final static int OBSERVATION_DOMAIN_OFFSET = 12;
+    private final static int HEADER_LENGTH = 16;
+    private final static int SPIN_TRIES = 1000;
+    private final static long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Worker[] workers;
+    private volatile boolean running;
+    private boolean started;
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder malformed = new LongAdder();
+
+    /**
+     * @param workerCount number of worker threads.
+     * @param queueCapacity maximum number of packets waiting for each worker, rounded up to a
+     * power of two. Under steady traffic each queued packet takes at least 2 KB, so queues take
+     * about workerCount * queueCapacity * 2 KB, e.g. 128 MB for 16 workers of 4096 packets.
+     * @param sinkSupplier called once per worker to create its sink.
+     */
+    public DecodePipeline(int workerCount, int queueCapacity,
+                          Supplier<? extends PacketSink> sinkSupplier) {
+        if (workerCount <= 0) {
+            throw new IllegalArgumentException("Worker count must be positive.");
+        }
+        workers = new Worker[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(new PacketQueue(queueCapacity), sinkSupplier.get(), i);
+        }
+    }
+
+    /**
+     * Starts worker threads.
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("Pipeline is already started.");
+        }
+        started = true;
+        running = true;
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Queues the packet for the worker of its exporter and observation domain. Packets received
+     * before {@link #start()} are queued too.
+     */
+    @Override
+    public void onPacket(SocketAddress exporter, ByteBuffer packet) {
+        if (packet.remaining() < HEADER_LENGTH) {
+            malformed.increment();
+            return;
+        }
+        long observationDomainId =
+                0xFFFFFFFFL & packet.getInt(packet.position() + OBSERVATION_DOMAIN_OFFSET);
+        Worker worker = workers[shard(exporter, observationDomainId)];
+        if (!worker.queue.offer(exporter, packet)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Queues the session close for all workers, as domains of the exporter may be spread over
+     * them. A worker gets it after the packets of the session queued for it. When a queue is full
+     * this waits for the worker to free a slot, since a lost session close leaves templates of the
+     * session in place.
+     */
+    @Override
+    public void onSessionClosed(SocketAddress exporter) {
+        for (Worker worker : workers) {
+            while (!worker.queue.offerSessionClosed(exporter)) {
+                if (!running) {
+                    dropped.increment();
+                    break;
+                }
+                Thread.yield();
+            }
+        }
+    }
+
+    private int shard(SocketAddress exporter, long observationDomainId) {
+        int hash = 31 * (exporter == null ? 0 : exporter.hashCode()) +
+                   Long.hashCode(observationDomainId);
+        // Spread bits, addresses of exporters usually differ in a few low bits only
+        hash *= 0x9E3779B9;
+        return (int) (((hash >>> 16) & 0xFFFFL) * workers.length >>> 16);
+    }
+
+    public int getWorkerCount() {
+        return workers.length;
+    }
+
+    /**
+     * @return sink of the worker at given index, e.g. to read its counters.
+     */
+    public PacketSink getWorkerSink(int index) {
+        return workers[index].sink;
+    }
+
+    /**
+     * @return number of packets dropped because queue of their worker was full.
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return number of packets dropped because they were shorter than a message header.
+     */
+    public long getMalformedCount() {
+        return malformed.sum();
+    }
+
+    /**
+     * @return number of packets whose worker sink threw an exception.
+     */
+    public long getSinkErrorCount() {
+        long sinkErrors = 0;
+        for (Worker worker : workers) {
+            sinkErrors += worker.sinkErrors;
+        }
+        return sinkErrors;
+    }
+
+    /**
+     * Stops workers after they handle packets already queued, and waits for them to finish.
+     * Packets offered afterwards are not handled.
+     */
+    @Override
+    public synchronized void close() {
+        running = false;
+        boolean interrupted = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+            try {
+                if (worker.thread.isAlive()) {
+                    worker.thread.join();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final PacketQueue queue;
+        private final PacketSink sink;
+        private final PacketSink guardedSink;
+        private final Thread thread;
+        // Written by the worker thread only
+        private volatile long sinkErrors;
+
+        Worker(PacketQueue queue, PacketSink sink, int index) {
+            this.queue = queue;
+            this.sink = sink;
+            this.guardedSink = new PacketSink() {
+                @Override
+                public void onPacket(SocketAddress exporter, ByteBuffer packet) {
+                    handle(exporter, packet);
+                }
+
+                @Override
+                public void onSessionClosed(SocketAddress exporter) {
+                    try {
+                        sink.onSessionClosed(exporter);
+                    } catch (RuntimeException e) {
+                        sinkErrors++;
+                    }
+                }
+            };
+            this.thread = new Thread(this, "ipfix-decode-worker-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            int idleTries = 0;
+            while (running) {
+                if (queue.poll(guardedSink)) {
+                    idleTries = 0;
+                } else if (idleTries < SPIN_TRIES) {
+                    idleTries++;
+                } else {
+                    LockSupport.parkNanos(PARK_NANOS);
+                }
+            }
+            // Handle what was queued before close
+            while (queue.poll(guardedSink)) {
+                // Keep polling until the queue is empty
+            }
+        }
+
+        private void handle(SocketAddress exporter, ByteBuffer packet) {
+            try {
+                sink.onPacket(exporter, packet);
+            } catch (RuntimeException e) {
+                sinkErrors++;
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package ir.sahab.ipfix.collector;
+
+import ir.sahab.ipfix.IpfixMessage;
+import ir.sahab.ipfix.RecordFactory;
+import ir.sahab.ipfix.SequenceTracker;
+import ir.sahab.ipfix.TemplateNotDefinedException;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     A {@link PacketSink} that decodes each packet as an {@link IpfixMessage} by its own
+ *     {@link RecordFactory} and passes it to a consumer. Templates are learned per exporter and
+ *     observation domain, so create the factories of all sinks of a collector on the same
+ *     {@link ir.sahab.ipfix.TemplateRegistry} when an exporter may reach more than one receiver:
+ * </p>
+ * <pre>
+ *     TemplateRegistry registry = new TemplateRegistry();
+ *     UdpCollector collector = new UdpCollector(new InetSocketAddress(4739), 4,
+ *             () -&gt; new DecodingSink(new RecordFactory(registry), message -&gt; ...));
+ * </pre>
+ * <p>
+ *     Decoded message must be consumed within the consumer call: in zero-copy mode its values
+ *     point into the reused packet buffer, and in pooled record mode its records are released
+ *     when the consumer returns.
+ * </p>
+ * <p>
+ *     Packets that are not valid IPFIX messages, or whose templates are not known yet, are
+ *     dropped and counted. With {@link RecordFactory#setLenientDecoding(boolean)} only the sets
+ *     of unknown templates are held back, until their templates arrive.
+ * </p>
+ */
+public class DecodingSink implements PacketSink {
+    private final RecordFactory recordFactory;
+    private final Consumer<? super IpfixMessage> consumer;
+    // Read by other threads, e.g. by monitoring, while the receiver thread writes them
+    private final LongAdder decodedCount = new LongAdder();
+    private final LongAdder malformedCount = new LongAdder();
+    private final LongAdder templateNotDefinedCount = new LongAdder();
+    private SequenceTracker sequenceTracker;
+
+    public DecodingSink(RecordFactory recordFactory, Consumer<? super IpfixMessage> consumer) {
+        this.recordFactory = recordFactory;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void onPacket(SocketAddress exporter, ByteBuffer packet) {
+        recordFactory.setExporter(exporter);
+        IpfixMessage ipfixMessage;
+        try {
+            ipfixMessage = IpfixMessage.decode(packet, recordFactory);
+        } catch (TemplateNotDefinedException e) {
+            templateNotDefinedCount.increment();
+            return;
+        } catch (IllegalArgumentException e) {
+            malformedCount.increment();
+            return;
+        }
+        decodedCount.increment();
+        if (sequenceTracker != null) {
+            sequenceTracker.track(exporter, ipfixMessage);
+        }
+        try {
+            consumer.accept(ipfixMessage);
+        } finally {
+            if (recordFactory.isRecordPooling()) {
+                recordFactory.release(ipfixMessage);
+            }
+        }
+    }
+
+    /**
+     * Forgets templates, options data and sequence numbers of the exporter, whose session is
+     * closed, as templates of a session must not be used by the next one (RFC 7011 section 8.1).
+     * Templates are removed from the registry of the record factory, so from all sinks sharing it.
+     */
+    @Override
+    public void onSessionClosed(SocketAddress exporter) {
+        recordFactory.getTemplateRegistry().removeExporter(exporter);
+        if (recordFactory.getOptionsDataCache() != null) {
+            recordFactory.getOptionsDataCache().removeExporter(exporter);
+        }
+        if (sequenceTracker != null) {
+            sequenceTracker.removeExporter(exporter);
+        }
+    }
+
+    /**
+     * Tracks sequence numbers of decoded messages to account for lost records. The tracker must
+     * be owned by this sink, and messages must be decoded fully, without lenient decoding.
+     */
+    public void setSequenceTracker(SequenceTracker sequenceTracker) {
+        this.sequenceTracker = sequenceTracker;
+    }
+
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    public RecordFactory getRecordFactory() {
+        return recordFactory;
+    }
+
+    public long getDecodedCount() {
+        return decodedCount.sum();
+    }
+
+    public long getMalformedCount() {
+        return malformedCount.sum();
+    }
+
+    /**
+     * @return number of messages dropped because a data set referred to an unknown template.
+     */
+    public long getTemplateNotDefinedCount() {
+        return templateNotDefinedCount.sum();
+    }
+}
@@ -0,0 +1,133 @@
+package ir.sahab.ipfix.collector;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * <p>
+ *     Splits a byte stream of IPFIX messages, as sent over TCP or SCTP streams, into messages by
+ *     length field of their headers and hands each complete message to a {@link PacketSink}.
+ * </p>
+ * <p>
+ *     Bytes are read into a compacting direct buffer owned by the framer. A complete message is
+ *     handed to the sink in place, by setting position and limit of this buffer around it, so
+ *     nothing is copied or allocated per message. Bytes of a message that spans reads are kept
+ *     until the rest arrives; they are moved to the beginning of the buffer only when the
+ *     message would not fit in the space left after them. A compacting buffer is used instead of
+ *     a ring so that every message is contiguous.
+ * </p>
+ * <p>
+ *     A framer belongs to one stream and one thread. The stream can not be resynchronized after
+ *     an invalid length is read, so the connection must be closed then.
+ * </p>
+ */
+public class MessageFramer {
+    // Maximum size of an IPFIX message, length in message header is 16 bits.
+    private final static int MAX_MESSAGE_SIZE = 0xffff;
+    private final static int HEADER_LENGTH = 16;
+    private final static int DEFAULT_BUFFER_SIZE = 4 * MAX_MESSAGE_SIZE;
+
+    private final ByteBuffer buffer;
+    // Buffered bytes not handed to the sink yet are in [start, end) of buffer.
+    private int start;
+    private int end;
+
+    public MessageFramer() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize size of the reassembly buffer, larger buffers take more messages per
+     * read. It must be at least 65535 bytes, so that any message fits.
+     */
+    public MessageFramer(int bufferSize) {
+        if (bufferSize < MAX_MESSAGE_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at least " + MAX_MESSAGE_SIZE +
+                                               " bytes.");
+        }
+        buffer = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    /**
+     * Reads available bytes of the channel once, and hands complete messages to the sink.
+     *
+     * @return number of bytes read, or -1 at end of stream.
+     * @throws IllegalArgumentException if a message header has an invalid length.
+     */
+    public int readFrom(ReadableByteChannel channel, SocketAddress exporter, PacketSink sink)
+            throws IOException {
+        buffer.limit(buffer.capacity()).position(end);
+        int read = channel.read(buffer);
+        if (read > 0) {
+            end += read;
+            deliver(exporter, sink);
+        }
+        return read;
+    }
+
+    /**
+     * Appends bytes of a stream received by other means, and hands complete messages to the sink.
+     * All remaining bytes of data are consumed.
+     *
+     * @throws IllegalArgumentException if a message header has an invalid length.
+     */
+    public void write(ByteBuffer data, SocketAddress exporter, PacketSink sink) {
+        while (data.hasRemaining()) {
+            int length = Math.min(data.remaining(), buffer.capacity() - end);
+            int dataLimit = data.limit();
+            data.limit(data.position() + length);
+            buffer.limit(buffer.capacity()).position(end);
+            buffer.put(data);
+            data.limit(dataLimit);
+            end += length;
+            deliver(exporter, sink);
+        }
+    }
+
+    private void deliver(SocketAddress exporter, PacketSink sink) {
+        while (end - start >= HEADER_LENGTH) {
+            // Sink of the previous message has seen the buffer limited to that message
+            buffer.limit(buffer.capacity());
+            int length = 0xFFFF & buffer.getShort(start + 2);
+            if (length < HEADER_LENGTH) {
+                throw new IllegalArgumentException("Invalid IPFIX message.");
+            }
+            if (end - start < length) {
+                break;
+            }
+            int messageStart = start;
+            // Message is consumed even if the sink fails
+            start += length;
+            buffer.limit(messageStart + length).position(messageStart);
+            sink.onPacket(exporter, buffer);
+        }
+
+        if (start == end) {
+            start = 0;
+            end = 0;
+        } else if (buffer.capacity() - start < MAX_MESSAGE_SIZE) {
+            // Rest of the partial message may not fit after it
+            buffer.limit(end).position(start);
+            buffer.compact();
+            end -= start;
+            start = 0;
+        }
+    }
+
+    /**
+     * @return number of bytes of an incomplete message waiting for the rest of it.
+     */
+    public int getBufferedBytes() {
+        return end - start;
+    }
+
+    /**
+     * Drops buffered bytes, e.g. when the stream is reconnected.
+     */
+    public void reset() {
+        start = 0;
+        end = 0;
+    }
+}
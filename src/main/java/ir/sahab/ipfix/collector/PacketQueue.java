@@ -0,0 +1,155 @@
+package ir.sahab.ipfix.collector;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ *     A bounded multi-producer single-consumer queue of packets. Packets are copied into slots,
+ *     so the buffer of a producer can be reused as soon as {@link #offer} returns, and nothing is
+ *     allocated per packet once slot buffers have grown to the largest packet size.
+ * </p>
+ * <p>
+ *     Buffer of a slot is allocated by the first packet put in it, so a queue that is rarely
+ *     more than a few packets deep touches only as many slots as traffic needs until it wraps
+ *     around. Slots are reused in turn, so under steady traffic every slot gets a buffer, and the
+ *     queue holds about capacity times the largest packet size, at least 2 KB per slot.
+ * </p>
+ * <p>
+ *     Each slot has a sequence number that tells whether it is free for the producer that claimed
+ *     it, or published for the consumer (D. Vyukov's bounded queue). Producers claim slots by a
+ *     compare-and-set on the tail; the consumer needs no atomic operation other than publishing
+ *     the freed slot.
+ * </p>
+ */
+class PacketQueue {
+    private final static int INITIAL_SLOT_SIZE = 2048;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final SocketAddress[] exporters;
+    private final ByteBuffer[] packets;
+    // Slots that hold a session close of their exporter instead of a packet
+    private final boolean[] sessionCloses;
+    private final AtomicLong tail = new AtomicLong();
+    // Only accessed by the consumer thread
+    private long head;
+
+    /**
+     * @param capacity rounded up to a power of two.
+     */
+    PacketQueue(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Queue capacity is out of range.");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        exporters = new SocketAddress[size];
+        packets = new ByteBuffer[size];
+        sessionCloses = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Copies remaining bytes of packet into the queue, without changing its position.
+     *
+     * @return false if the queue is full.
+     */
+    boolean offer(SocketAddress exporter, ByteBuffer packet) {
+        long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        int index = (int) position & mask;
+        ByteBuffer slot = packets[index];
+        if (slot == null || slot.capacity() < packet.remaining()) {
+            slot = ByteBuffer.allocate(Math.max(INITIAL_SLOT_SIZE, packet.remaining()));
+            packets[index] = slot;
+        }
+        int packetPosition = packet.position();
+        slot.clear();
+        slot.put(packet).flip();
+        packet.position(packetPosition);
+        exporters[index] = exporter;
+        sessionCloses[index] = false;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * Queues a session close of the exporter, to be handed to the sink after packets queued
+     * before it.
+     *
+     * @return false if the queue is full.
+     */
+    boolean offerSessionClosed(SocketAddress exporter) {
+        long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        int index = (int) position & mask;
+        exporters[index] = exporter;
+        sessionCloses[index] = true;
+        sequences.lazySet(index, position + 1);
+        return true;
+    }
+
+    /**
+     * @return position of the claimed slot, or -1 if the queue is full.
+     */
+    private long claim() {
+        long position = tail.get();
+        while (true) {
+            long sequence = sequences.get((int) position & mask);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+                position = tail.get();
+            } else if (sequence < position) {
+                // Slot is not consumed since previous round
+                return -1;
+            } else {
+                // Another producer claimed the slot
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Hands the oldest packet, or session close, to the sink and frees its slot. Must be called
+     * by the consumer thread only.
+     *
+     * @return false if the queue is empty.
+     */
+    boolean poll(PacketSink sink) {
+        int index = (int) head & mask;
+        if (sequences.get(index) != head + 1) {
+            return false;
+        }
+        try {
+            if (sessionCloses[index]) {
+                sink.onSessionClosed(exporters[index]);
+            } else {
+                sink.onPacket(exporters[index], packets[index]);
+            }
+        } finally {
+            exporters[index] = null;
+            sequences.lazySet(index, head + mask + 1);
+            head++;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,28 @@
+package ir.sahab.ipfix.collector;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Receives raw IPFIX packets from a collector. Each receiver thread of a collector has its own
+ * sink, so a sink is called by one thread only and needs no synchronization.
+ */
+public interface PacketSink {
+
+    /**
+     * Called for each received packet.
+     *
+     * @param exporter address of the exporter that sent the packet.
+     * @param packet content of the packet between its position and limit. Buffer is reused for
+     * next packets, so it must not be used after this method returns. Sink may change its position
+     * and limit.
+     */
+    void onPacket(SocketAddress exporter, ByteBuffer packet);
+
+    /**
+     * Called when the transport session of an exporter is closed, after its last packet. Templates
+     * and other state of the session must be forgotten (RFC 7011 section 8.1), as a new session
+     * of the same address starts over. Collectors without sessions, e.g. UDP ones, never call it.
+     */
+    default void onSessionClosed(SocketAddress exporter) {}
+}
@@ -0,0 +1,307 @@
+package ir.sahab.ipfix.collector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *     Accepts IPFIX exporters over TCP and hands each message of their streams to a
+ *     {@link PacketSink}, usually a {@link DecodingSink}.
+ * </p>
+ * <p>
+ *     All connections are served by one thread on a selector. Each connection has its own
+ *     {@link MessageFramer}, so messages are reassembled in a reused buffer and handed to the
+ *     sink in place. The sink is called by this thread only. A connection whose stream has an
+ *     invalid message length is closed, since its message boundaries are lost. Closing of each
+ *     connection is reported to the sink by {@link PacketSink#onSessionClosed(SocketAddress)}.
+ * </p>
+ */
+public class TcpCollector implements Closeable {
+    private final static long SELECT_TIMEOUT_MILLIS = 100;
+    // Pause of accepting after it fails, e.g. by too many open files, so the pending connection
+    // does not keep the selector spinning.
+    private final static long ACCEPT_BACKOFF_MILLIS = 100;
+
+    private final InetSocketAddress bindAddress;
+    private final PacketSink sink;
+    private final PacketSink guardedSink;
+    private int bufferSize = 4 * 0xffff;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private SelectionKey serverKey;
+    // Time accepting is resumed after a failure, zero when accepting is not paused
+    private long acceptPausedUntil;
+    private Thread thread;
+    private volatile boolean running;
+
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder framingErrors = new LongAdder();
+    private final LongAdder sinkErrors = new LongAdder();
+    private final LongAdder acceptErrors = new LongAdder();
+
+    /**
+     * @param bindAddress local address to listen on, port 0 binds an ephemeral port.
+     */
+    public TcpCollector(InetSocketAddress bindAddress, PacketSink sink) {
+        this.bindAddress = bindAddress;
+        this.sink = sink;
+        this.guardedSink = this::onMessage;
+    }
+
+    /**
+     * Sets size of the reassembly buffer of each connection, see
+     * {@link MessageFramer#MessageFramer(int)}. It must be called before {@link #start()}.
+     */
+    public void setBufferSize(int bufferSize) {
+        if (bufferSize < 0xffff) {
+            throw new IllegalArgumentException("Buffer size must be at least 65535 bytes.");
+        }
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Starts listening and the collector thread.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Collector is already started.");
+        }
+        running = true;
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(bindAddress);
+            serverChannel.configureBlocking(false);
+            serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        thread = new Thread(this::run, "ipfix-tcp-collector");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return address the collector listens on, e.g. to find the chosen ephemeral port.
+     * @throws IllegalStateException if the collector is not started.
+     */
+    public synchronized InetSocketAddress getLocalAddress() throws IOException {
+        if (serverChannel == null) {
+            throw new IllegalStateException("Collector is not started.");
+        }
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * @return whether the collector thread serves connections, false after close or if selecting
+     * failed.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return number of accepted connections since start.
+     */
+    public long getConnectionCount() {
+        return connections.sum();
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return number of connections closed because of an invalid message length.
+     */
+    public long getFramingErrorCount() {
+        return framingErrors.sum();
+    }
+
+    /**
+     * @return number of messages whose sink threw an exception, those messages are dropped.
+     */
+    public long getSinkErrorCount() {
+        return sinkErrors.sum();
+    }
+
+    /**
+     * @return number of connections that could not be accepted, e.g. because of too many open
+     * files or a reset by the exporter while being accepted.
+     */
+    public long getAcceptErrorCount() {
+        return acceptErrors.sum();
+    }
+
+    /**
+     * Stops the collector thread, waits for it to finish and closes all connections.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        boolean interrupted = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            thread = null;
+        }
+        if (selector != null) {
+            // Collector thread is finished, so the sink is still called by one thread at a time.
+            for (SelectionKey key : selector.keys()) {
+                closeConnection(key);
+            }
+            selector.close();
+            selector = null;
+        }
+        if (serverChannel != null) {
+            serverChannel.close();
+            serverChannel = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                if (acceptPausedUntil != 0 && System.currentTimeMillis() >= acceptPausedUntil) {
+                    acceptPausedUntil = 0;
+                    serverKey.interestOps(SelectionKey.OP_ACCEPT);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.isReadable()) {
+                        read(key);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                // Selector is broken, connections are not served anymore.
+                running = false;
+                throw new IllegalStateException("Selecting connections failed.", e);
+            }
+        }
+    }
+
+    private void accept() {
+        while (true) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                // Usually too many open files, serve established connections and retry later.
+                acceptErrors.increment();
+                serverKey.interestOps(0);
+                acceptPausedUntil = System.currentTimeMillis() + ACCEPT_BACKOFF_MILLIS;
+                return;
+            }
+            if (channel == null) {
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                Connection connection = new Connection(channel.getRemoteAddress(),
+                                                       new MessageFramer(bufferSize));
+                channel.register(selector, SelectionKey.OP_READ, connection);
+                connections.increment();
+            } catch (IOException e) {
+                // Exporter reset the connection while it was being accepted
+                acceptErrors.increment();
+                try {
+                    channel.close();
+                } catch (IOException closeException) {
+                    // Nothing to do, connection is dropped anyway
+                }
+            }
+        }
+    }
+
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+        try {
+            int read;
+            // Drain the socket, a read may fill the buffer before taking all available bytes.
+            while ((read = connection.framer.readFrom(channel, connection.exporter,
+                                                      guardedSink)) > 0) {
+                bytes.add(read);
+            }
+            if (read < 0) {
+                closeConnection(key);
+            }
+        } catch (IllegalArgumentException e) {
+            framingErrors.increment();
+            closeConnection(key);
+        } catch (IOException e) {
+            // Connection is reset by the exporter
+            closeConnection(key);
+        }
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            // Nothing to do, connection is dropped anyway
+        }
+        if (key.attachment() instanceof Connection) {
+            try {
+                sink.onSessionClosed(((Connection) key.attachment()).exporter);
+            } catch (RuntimeException e) {
+                sinkErrors.increment();
+            }
+        }
+    }
+
+    private void onMessage(SocketAddress exporter, ByteBuffer message) {
+        messages.increment();
+        try {
+            sink.onPacket(exporter, message);
+        } catch (RuntimeException e) {
+            sinkErrors.increment();
+        }
+    }
+
+    private static class Connection {
+        private final SocketAddress exporter;
+        private final MessageFramer framer;
+
+        Connection(SocketAddress exporter, MessageFramer framer) {
+            this.exporter = exporter;
+            this.framer = framer;
+        }
+    }
+}
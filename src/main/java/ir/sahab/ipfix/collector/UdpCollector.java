@@ -0,0 +1,286 @@
+package ir.sahab.ipfix.collector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ *     Receives IPFIX messages over UDP and hands each packet to a {@link PacketSink}, usually a
+ *     {@link DecodingSink}.
+ * </p>
+ * <p>
+ *     Each receiver thread owns a non-blocking {@link DatagramChannel}, a selector, a direct
+ *     buffer that is reused for all packets and a sink created for it, so nothing is shared
+ *     between receivers and nothing is allocated per packet by the collector. After each wakeup
+ *     a receiver drains all queued packets of its socket before selecting again.
+ * </p>
+ * <p>
+ *     With more than one receiver all sockets are bound to the same address with SO_REUSEPORT,
+ *     and the kernel spreads packets of different exporters among them. On Linux packets of an
+ *     exporter always reach the same socket, since the socket is chosen by hash of source and
+ *     destination addresses. SO_REUSEPORT needs Linux 3.9 or later, or BSD, and a JDK that
+ *     supports it; otherwise only one receiver can be used.
+ * </p>
+ */
+public class UdpCollector implements Closeable {
+    // Maximum size of an IPFIX message, length in message header is 16 bits.
+    private final static int MAX_PACKET_SIZE = 0xffff;
+    private final static long SELECT_TIMEOUT_MILLIS = 100;
+
+    private final InetSocketAddress bindAddress;
+    private final int receiverCount;
+    private final Supplier<? extends PacketSink> sinkSupplier;
+    private int receiveBufferSize;
+    private final List<Receiver> receivers = new ArrayList<>();
+    private volatile boolean running;
+    private volatile boolean receiverFailed;
+
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder sinkErrors = new LongAdder();
+    private final LongAdder receiveErrors = new LongAdder();
+
+    /**
+     * @param bindAddress local address to receive packets on, port 0 binds an ephemeral port.
+     * @param receiverCount number of sockets and receiver threads.
+     * @param sinkSupplier called once per receiver to create its sink.
+     */
+    public UdpCollector(InetSocketAddress bindAddress, int receiverCount,
+                        Supplier<? extends PacketSink> sinkSupplier) {
+        if (receiverCount <= 0) {
+            throw new IllegalArgumentException("Receiver count must be positive.");
+        }
+        this.bindAddress = bindAddress;
+        this.receiverCount = receiverCount;
+        this.sinkSupplier = sinkSupplier;
+    }
+
+    /**
+     * Sets SO_RCVBUF of sockets, to absorb bursts of exporters. It must be called before
+     * {@link #start()}.
+     *
+     * @param receiveBufferSize size in bytes, or 0 to keep default of the operating system.
+     */
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 0) {
+            throw new IllegalArgumentException("Receive buffer size must not be negative.");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    /**
+     * Binds the sockets and starts receiver threads.
+     *
+     * @throws UnsupportedOperationException if more than one receiver is requested and SO_REUSEPORT
+     * is not supported.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            throw new IllegalStateException("Collector is already started.");
+        }
+        running = true;
+        receiverFailed = false;
+        try {
+            SocketAddress localAddress = bindAddress;
+            for (int i = 0; i < receiverCount; i++) {
+                DatagramChannel channel = openChannel(localAddress);
+                // Other sockets bind the port chosen for the first one if it was ephemeral.
+                localAddress = channel.getLocalAddress();
+                receivers.add(new Receiver(channel, sinkSupplier.get(), i));
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+        for (Receiver receiver : receivers) {
+            receiver.thread.start();
+        }
+    }
+
+    private DatagramChannel openChannel(SocketAddress localAddress) throws IOException {
+        DatagramChannel channel = DatagramChannel.open();
+        try {
+            if (receiverCount > 1) {
+                SocketOption<Boolean> reusePort = findReusePortOption(channel);
+                if (reusePort == null) {
+                    throw new UnsupportedOperationException("SO_REUSEPORT is not supported, " +
+                                                            "use a single receiver.");
+                }
+                channel.setOption(reusePort, true);
+            }
+            if (receiveBufferSize > 0) {
+                channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+            }
+            channel.bind(localAddress);
+            channel.configureBlocking(false);
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * StandardSocketOptions.SO_REUSEPORT is only available since Java 9, so it is found by name
+     * among the supported options.
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> findReusePortOption(DatagramChannel channel) {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if ("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class) {
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return address the sockets are bound to, e.g. to find the chosen ephemeral port.
+     * @throws IllegalStateException if the collector is not started.
+     */
+    public synchronized InetSocketAddress getLocalAddress() throws IOException {
+        if (receivers.isEmpty()) {
+            throw new IllegalStateException("Collector is not started.");
+        }
+        return (InetSocketAddress) receivers.get(0).channel.getLocalAddress();
+    }
+
+    /**
+     * @return whether all receiver threads receive packets, false after close or if selecting
+     * of a receiver failed.
+     */
+    public boolean isRunning() {
+        return running && !receiverFailed;
+    }
+
+    public long getPacketCount() {
+        return packets.sum();
+    }
+
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    /**
+     * @return number of packets whose sink threw an exception, those packets are dropped.
+     */
+    public long getSinkErrorCount() {
+        return sinkErrors.sum();
+    }
+
+    /**
+     * @return number of failed receives, e.g. by ICMP errors reported on the socket. Receivers
+     * keep receiving after them.
+     */
+    public long getReceiveErrorCount() {
+        return receiveErrors.sum();
+    }
+
+    /**
+     * Stops receiver threads, waits for them to finish and closes the sockets.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        running = false;
+        for (Receiver receiver : receivers) {
+            receiver.selector.wakeup();
+        }
+        boolean interrupted = false;
+        for (Receiver receiver : receivers) {
+            try {
+                if (receiver.thread.isAlive()) {
+                    receiver.thread.join();
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            receiver.selector.close();
+            receiver.channel.close();
+        }
+        receivers.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Receiver implements Runnable {
+        private final DatagramChannel channel;
+        private final Selector selector;
+        private final PacketSink sink;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        private final Thread thread;
+
+        Receiver(DatagramChannel channel, PacketSink sink, int index) throws IOException {
+            this.channel = channel;
+            this.sink = sink;
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+            this.thread = new Thread(this, "ipfix-udp-receiver-" + index);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(SELECT_TIMEOUT_MILLIS);
+                    selector.selectedKeys().clear();
+                    receiveAll();
+                }
+            } catch (IOException | RuntimeException e) {
+                if (running) {
+                    // Selector or socket is broken, this receiver does not receive anymore.
+                    receiverFailed = true;
+                    throw new IllegalStateException("Receiving packets failed.", e);
+                }
+            }
+        }
+
+        private void receiveAll() throws IOException {
+            SocketAddress exporter;
+            buffer.clear();
+            // JDK reuses the returned address object as long as the sender does not change.
+            while (running && (exporter = receive()) != null) {
+                buffer.flip();
+                packets.increment();
+                bytes.add(buffer.remaining());
+                try {
+                    sink.onPacket(exporter, buffer);
+                } catch (RuntimeException e) {
+                    sinkErrors.increment();
+                }
+                buffer.clear();
+            }
+        }
+
+        /**
+         * @return sender of the received packet, or null if there is no packet or receiving it
+         * failed.
+         */
+        private SocketAddress receive() throws IOException {
+            try {
+                return channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                throw e;
+            } catch (IOException e) {
+                // Only this receive failed, e.g. by an ICMP error, select again for next packets.
+                receiveErrors.increment();
+                buffer.clear();
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package ir.sahab.ipfix.exporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A {@link MessageSender} that writes messages to a channel, e.g. a connected
+ * {@link java.nio.channels.DatagramChannel} that sends each message as a packet, or a
+ * {@link java.nio.channels.SocketChannel} in blocking mode for export over TCP.
+ */
+public class ChannelSender implements MessageSender, Closeable {
+    private final WritableByteChannel channel;
+
+    public ChannelSender(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public void send(ByteBuffer message) throws IOException {
+        while (message.hasRemaining()) {
+            channel.write(message);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,501 @@
+package ir.sahab.ipfix.exporter;
+
+import ir.sahab.ipfix.OptionsTemplateRecord;
+import ir.sahab.ipfix.Record;
+import ir.sahab.ipfix.TemplateRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ *     Exports records of an observation domain as IPFIX messages. Records are encoded straight
+ *     into a reused direct buffer as they are added, and the buffered message is sent when the
+ *     next record does not fit in the maximum message size, when it is older than the linger
+ *     time, or on {@link #flush()}:
+ * </p>
+ * <pre>
+ *     IpfixExporter exporter = new IpfixExporter(1, 1452, new ChannelSender(channel));
+ *     exporter.setLinger(100, TimeUnit.MILLISECONDS);
+ *     exporter.exportTemplate(template);
+ *     exporter.export(template.getTemplateId(), record);
+ * </pre>
+ * <p>
+ *     Consecutive records of the same set Id go to the same set, a new set is opened whenever the
+ *     set Id changes. Message headers are filled in on flush: export time is the current time and
+ *     sequence number is the number of data records exported before the message, as RFC 7011
+ *     defines it.
+ * </p>
+ * <p>
+ *     Templates registered by {@link #registerTemplate(TemplateRecord)} are resent at the start
+ *     of a message once the template refresh timeout has passed or the template refresh packet
+ *     count has been sent since the last refresh, as export over UDP requires. They are encoded
+ *     once on registration, so a refresh only copies their bytes into the message.
+ * </p>
+ * <p>
+ *     Methods are synchronized, so records can be exported by several threads, though records of
+ *     a thread then share sets and messages with records of other threads.
+ * </p>
+ */
+public class IpfixExporter implements Closeable {
+    private final static int VERSION_NUMBER = 10;
+    private final static int HEADER_LENGTH = 16;
+    private final static int SET_HEADER_LENGTH = 4;
+    private final static int TEMPLATE_SET_ID = 2;
+    private final static int OPTIONS_TEMPLATE_SET_ID = 3;
+    private final static int MIN_DATA_SET_ID = 256;
+    private final static int MAX_UNSIGNED_SHORT = 0xffff;
+    private final static long MAX_UNSIGNED_INT = 0xffffffffL;
+
+    private final long observationDomainId;
+    private final MessageSender sender;
+    // Buffered message, its header is written on flush
+    private final ByteBuffer buffer;
+    // Id and header position of the set records are added to, -1 if no set is open
+    private int setId = -1;
+    private int setPosition;
+    private int dataRecordCount;
+    private long sequenceNumber;
+    // When the first record of the buffered message was added
+    private long firstRecordNanos;
+    private volatile long lingerNanos;
+    private Thread lingerThread;
+    private volatile boolean closed;
+
+    // Encoded registered templates and options templates by template Id
+    private final Map<Integer, byte[]> templates = new LinkedHashMap<>();
+    private final Map<Integer, byte[]> optionsTemplates = new LinkedHashMap<>();
+    // Template sets of registered templates, each block fits in a message
+    private final List<ByteBuffer> templateBlocks = new ArrayList<>();
+    private boolean templatesChanged;
+    private long templateRefreshTimeoutNanos;
+    private int templateRefreshPacketCount;
+    private long lastTemplateRefreshNanos;
+    private int messagesSinceTemplateRefresh;
+
+    private long messageCount;
+    private long recordCount;
+    private long byteCount;
+    private long lingerSendErrorCount;
+    private long templateRefreshCount;
+
+    /**
+     * @param observationDomainId observation domain Id of messages.
+     * @param maxMessageSize maximum length of messages in bytes. For UDP export it should keep
+     * packets within the path MTU, e.g. 1452 on Ethernet over IPv6.
+     * @param sender sends flushed messages.
+     */
+    public IpfixExporter(long observationDomainId, int maxMessageSize, MessageSender sender) {
+        if (observationDomainId < 0 || observationDomainId > MAX_UNSIGNED_INT) {
+            throw new IllegalArgumentException("Observation domain Id is out of range.");
+        }
+        if (maxMessageSize <= HEADER_LENGTH + SET_HEADER_LENGTH ||
+            maxMessageSize > MAX_UNSIGNED_SHORT) {
+            throw new IllegalArgumentException("Maximum message size must be between 21 and " +
+                                               "65535.");
+        }
+        this.observationDomainId = observationDomainId;
+        this.sender = sender;
+        buffer = ByteBuffer.allocateDirect(maxMessageSize);
+        buffer.position(HEADER_LENGTH);
+    }
+
+    /**
+     * Sets the longest time a record may wait in the buffer before its message is sent. Messages
+     * are then flushed by a daemon thread too, so that records are sent even if no other record
+     * is exported after them.
+     *
+     * @param linger time to wait, 0 to wait until the message is full or flushed explicitly. The
+     * daemon thread is parked while linger is 0.
+     */
+    public synchronized void setLinger(long linger, TimeUnit unit) {
+        if (linger < 0) {
+            throw new IllegalArgumentException("Linger must not be negative.");
+        }
+        lingerNanos = unit.toNanos(linger);
+        if (lingerThread != null) {
+            // Wakes a thread parked by zero linger, or waiting for a longer linger.
+            LockSupport.unpark(lingerThread);
+        } else if (lingerNanos > 0 && !closed) {
+            lingerThread = new Thread(this::flushLingering, "ipfix-exporter-linger");
+            lingerThread.setDaemon(true);
+            lingerThread.start();
+        }
+    }
+
+    /**
+     * Sets the time after which registered templates are resent.
+     *
+     * @param timeout time since the last refresh, 0 to not resend templates by time.
+     */
+    public synchronized void setTemplateRefreshTimeout(long timeout, TimeUnit unit) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Template refresh timeout must not be negative.");
+        }
+        templateRefreshTimeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Sets the number of messages after which registered templates are resent.
+     *
+     * @param packetCount messages sent since the last refresh, 0 to not resend templates by
+     * count of messages.
+     */
+    public synchronized void setTemplateRefreshPacketCount(int packetCount) {
+        if (packetCount < 0) {
+            throw new IllegalArgumentException("Template refresh packet count must not be " +
+                                               "negative.");
+        }
+        templateRefreshPacketCount = packetCount;
+    }
+
+    /**
+     * Sets sequence number of the next message, e.g. to continue numbering of a previous
+     * exporting process.
+     */
+    public synchronized void setSequenceNumber(long sequenceNumber) {
+        if (sequenceNumber < 0 || sequenceNumber > MAX_UNSIGNED_INT) {
+            throw new IllegalArgumentException("Sequence number is out of range.");
+        }
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * @return sequence number of the next message.
+     */
+    public synchronized long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public long getObservationDomainId() {
+        return observationDomainId;
+    }
+
+    public int getMaxMessageSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Registers a template to be resent periodically, replacing a registered template with the
+     * same Id. It is sent in the buffered message, or at the start of the next one if no message
+     * is buffered.
+     *
+     * @throws IllegalArgumentException if the template does not fit in a message.
+     */
+    public synchronized void registerTemplate(TemplateRecord templateRecord) throws IOException {
+        byte[] encodedTemplate = new byte[templateRecord.length()];
+        templateRecord.encode(ByteBuffer.wrap(encodedTemplate));
+        if (SET_HEADER_LENGTH + encodedTemplate.length > buffer.capacity() - HEADER_LENGTH) {
+            throw new IllegalArgumentException("Template " + templateRecord.getTemplateId() +
+                                               " does not fit in a message.");
+        }
+        templates.remove(templateRecord.getTemplateId());
+        optionsTemplates.remove(templateRecord.getTemplateId());
+        (templateRecord instanceof OptionsTemplateRecord ? optionsTemplates : templates)
+                .put(templateRecord.getTemplateId(), encodedTemplate);
+        buildTemplateBlocks();
+        if (isEmpty()) {
+            templatesChanged = true;
+        } else {
+            exportTemplate(templateRecord);
+        }
+    }
+
+    /**
+     * Stops resending a registered template and exports its withdrawal. Withdrawals are only
+     * meaningful for export over reliable transports, collectors ignore them over UDP.
+     */
+    public synchronized void withdrawTemplate(int templateId) throws IOException {
+        boolean options = optionsTemplates.remove(templateId) != null;
+        if (options || templates.remove(templateId) != null) {
+            buildTemplateBlocks();
+        }
+        // Withdrawals of templates and options templates only differ in set Id.
+        export(options ? OPTIONS_TEMPLATE_SET_ID : TEMPLATE_SET_ID, new TemplateRecord(templateId));
+    }
+
+    /**
+     * Packs encoded templates into blocks of template sets, each of which fits in an empty
+     * message.
+     */
+    private void buildTemplateBlocks() {
+        templateBlocks.clear();
+        ByteBuffer block = addTemplateSets(null, TEMPLATE_SET_ID, templates);
+        block = addTemplateSets(block, OPTIONS_TEMPLATE_SET_ID, optionsTemplates);
+        if (block != null) {
+            block.flip();
+            templateBlocks.add(block);
+        }
+    }
+
+    /**
+     * Adds encoded templates to sets of given Id in the last block, and in new blocks when it
+     * is full.
+     *
+     * @return the last block.
+     */
+    private ByteBuffer addTemplateSets(ByteBuffer block, int setId,
+                                       Map<Integer, byte[]> encodedTemplates) {
+        int setPosition = -1;
+        for (byte[] encodedTemplate : encodedTemplates.values()) {
+            int requiredLength = setPosition < 0 ? SET_HEADER_LENGTH + encodedTemplate.length
+                                                 : encodedTemplate.length;
+            if (block == null || block.remaining() < requiredLength) {
+                if (block != null) {
+                    closeTemplateSet(block, setPosition);
+                    block.flip();
+                    templateBlocks.add(block);
+                }
+                block = ByteBuffer.allocate(buffer.capacity() - HEADER_LENGTH);
+                setPosition = -1;
+            }
+            if (setPosition < 0) {
+                setPosition = block.position();
+                block.putShort((short) setId);
+                block.putShort((short) 0);
+            }
+            block.put(encodedTemplate);
+        }
+        if (block != null) {
+            closeTemplateSet(block, setPosition);
+        }
+        return block;
+    }
+
+    private static void closeTemplateSet(ByteBuffer block, int setPosition) {
+        if (setPosition >= 0) {
+            block.putShort(setPosition + 2, (short) (block.position() - setPosition));
+        }
+    }
+
+    private boolean isTemplateRefreshDue(long now) {
+        if (templateBlocks.isEmpty()) {
+            return false;
+        }
+        return templatesChanged ||
+               (templateRefreshTimeoutNanos > 0 &&
+                now - lastTemplateRefreshNanos >= templateRefreshTimeoutNanos) ||
+               (templateRefreshPacketCount > 0 &&
+                messagesSinceTemplateRefresh >= templateRefreshPacketCount);
+    }
+
+    /**
+     * Copies registered templates into the empty buffer. When they do not fit in one message,
+     * all but the last template set are sent in messages of their own.
+     */
+    private void refreshTemplates(long now) throws IOException {
+        for (int i = 0; i < templateBlocks.size(); i++) {
+            if (i > 0) {
+                flush();
+            }
+            ByteBuffer block = templateBlocks.get(i);
+            buffer.put(block.duplicate());
+        }
+        templatesChanged = false;
+        lastTemplateRefreshNanos = now;
+        messagesSinceTemplateRefresh = 0;
+        templateRefreshCount++;
+    }
+
+    /**
+     * Adds a template to a template set, or an options template to an options template set, of
+     * the buffered message.
+     */
+    public void exportTemplate(TemplateRecord templateRecord) throws IOException {
+        export(templateRecord instanceof OptionsTemplateRecord ? OPTIONS_TEMPLATE_SET_ID
+                                                               : TEMPLATE_SET_ID,
+               templateRecord);
+    }
+
+    /**
+     * Adds a record to a set with given Id in the buffered message. The buffered message is sent
+     * first if the record does not fit in it.
+     *
+     * @param setId 2 for templates, 3 for options templates, or template Id of data records.
+     * @throws IllegalArgumentException if the record does not fit in an empty message.
+     * @throws IOException if a message had to be sent and sending failed.
+     */
+    public synchronized void export(int setId, Record record) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Exporter is closed.");
+        }
+        if (setId != TEMPLATE_SET_ID && setId != OPTIONS_TEMPLATE_SET_ID &&
+            (setId < MIN_DATA_SET_ID || setId > MAX_UNSIGNED_SHORT)) {
+            throw new IllegalArgumentException("Set Id " + setId + " is not valid.");
+        }
+        int length = record.length();
+        if (SET_HEADER_LENGTH + length > buffer.capacity() - HEADER_LENGTH) {
+            throw new IllegalArgumentException("Record of length " + length + " does not fit " +
+                                               "in a message.");
+        }
+        if (requiredLength(setId, length) > buffer.remaining()) {
+            flush();
+        }
+
+        if (isEmpty()) {
+            firstRecordNanos = System.nanoTime();
+            if (isTemplateRefreshDue(firstRecordNanos)) {
+                refreshTemplates(firstRecordNanos);
+                if (requiredLength(setId, length) > buffer.remaining()) {
+                    flush();
+                    firstRecordNanos = System.nanoTime();
+                }
+            }
+        }
+        if (this.setId != setId) {
+            closeSet();
+            this.setId = setId;
+            setPosition = buffer.position();
+            buffer.putShort((short) setId);
+            // Length of the set is written when it is closed
+            buffer.putShort((short) 0);
+        }
+        record.encode(buffer);
+        if (setId >= MIN_DATA_SET_ID) {
+            dataRecordCount++;
+        }
+        recordCount++;
+
+        if (lingerNanos > 0 && System.nanoTime() - firstRecordNanos >= lingerNanos) {
+            flush();
+        }
+    }
+
+    private int requiredLength(int setId, int recordLength) {
+        return this.setId == setId ? recordLength : SET_HEADER_LENGTH + recordLength;
+    }
+
+    /**
+     * Sends the buffered message if it has any record. The message is dropped if sending fails,
+     * its data records are still counted in sequence numbers, so collectors see the loss.
+     */
+    public synchronized void flush() throws IOException {
+        if (isEmpty()) {
+            return;
+        }
+        closeSet();
+        int length = buffer.position();
+        buffer.putShort(0, (short) VERSION_NUMBER);
+        buffer.putShort(2, (short) length);
+        buffer.putInt(4, (int) (System.currentTimeMillis() / 1000));
+        buffer.putInt(8, (int) sequenceNumber);
+        buffer.putInt(12, (int) observationDomainId);
+        sequenceNumber = (sequenceNumber + dataRecordCount) & MAX_UNSIGNED_INT;
+        dataRecordCount = 0;
+        messagesSinceTemplateRefresh++;
+
+        buffer.flip();
+        try {
+            sender.send(buffer);
+            messageCount++;
+            byteCount += length;
+        } finally {
+            buffer.clear();
+            buffer.position(HEADER_LENGTH);
+        }
+    }
+
+    /**
+     * Sends the buffered message if its first record has waited longer than the linger time.
+     *
+     * @return whether a message was sent.
+     */
+    public synchronized boolean flushIfLingerExpired() throws IOException {
+        if (isEmpty() || lingerNanos <= 0 || System.nanoTime() - firstRecordNanos < lingerNanos) {
+            return false;
+        }
+        flush();
+        return true;
+    }
+
+    private boolean isEmpty() {
+        return buffer.position() == HEADER_LENGTH;
+    }
+
+    /**
+     * Writes length of the open set in its header.
+     */
+    private void closeSet() {
+        if (setId != -1) {
+            buffer.putShort(setPosition + 2, (short) (buffer.position() - setPosition));
+            setId = -1;
+        }
+    }
+
+    private void flushLingering() {
+        while (!closed) {
+            long linger = lingerNanos;
+            if (linger == 0) {
+                // Nothing lingers, wait until a positive linger is set or the exporter is closed.
+                LockSupport.park(this);
+                continue;
+            }
+            // Checking twice per linger keeps records at most one and a half lingers in buffer.
+            LockSupport.parkNanos(Math.max(linger / 2, TimeUnit.MILLISECONDS.toNanos(1)));
+            try {
+                flushIfLingerExpired();
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    lingerSendErrorCount++;
+                }
+            }
+        }
+    }
+
+    public synchronized long getMessageCount() {
+        return messageCount;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * @return number of times registered templates were resent.
+     */
+    public synchronized long getTemplateRefreshCount() {
+        return templateRefreshCount;
+    }
+
+    /**
+     * @return number of messages the linger thread failed to send, those messages are dropped.
+     */
+    public synchronized long getLingerSendErrorCount() {
+        return lingerSendErrorCount;
+    }
+
+    /**
+     * Sends the buffered message and stops the linger thread. Sender is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread thread;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            thread = lingerThread;
+        }
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+}
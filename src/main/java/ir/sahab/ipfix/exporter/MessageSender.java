@@ -0,0 +1,18 @@
+package ir.sahab.ipfix.exporter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sends encoded IPFIX messages of an {@link IpfixExporter} to a collector.
+ */
+public interface MessageSender {
+
+    /**
+     * Called for each message the exporter flushes.
+     *
+     * @param message content of the message between its position and limit. Buffer is reused for
+     * next messages, so it must not be used after this method returns.
+     */
+    void send(ByteBuffer message) throws IOException;
+}
@@ -0,0 +1,114 @@
+package ir.sahab.ipfix.metrics;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *     A histogram of non-negative values, e.g. latencies in nanoseconds, with buckets laid out as
+ *     in HdrHistogram: values below 64 have a bucket each, and each power of two range above has
+ *     32 linear buckets, so a value is reported within about 3% of it. Buckets cover all long
+ *     values, so no value is clamped.
+ * </p>
+ * <p>
+ *     Counts are striped {@link LongAdder}s, so recording from many threads does not contend.
+ *     Readers see counts of concurrent recordings eventually, so percentiles read while recording
+ *     are approximate.
+ * </p>
+ */
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 5;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final LongAdder[] counts = new LongAdder[BUCKET_COUNT];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param value the value, negative values are recorded as zero.
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts[bucketIndex(value)].increment();
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return sum of recorded values.
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile between 0 and 100.
+     * @return the highest value of the bucket that the percentile falls in, or zero if no value is
+     * recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100.");
+        }
+        long[] snapshot = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts[i].sum();
+            snapshotCount += snapshot[i];
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * snapshotCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), getMax());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Clears recorded values. Values recorded concurrently may be partly cleared.
+     */
+    public void reset() {
+        for (LongAdder bucket : counts) {
+            bucket.reset();
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    static int bucketIndex(long value) {
+        // Values below 2 * SUB_BUCKET_COUNT have a bucket each, higher ones drop their low bits.
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    static long lowestValue(int index) {
+        int shift = Math.max(0, index / SUB_BUCKET_COUNT - 1);
+        return (long) (index - shift * SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long highestValue(int index) {
+        int shift = Math.max(0, index / SUB_BUCKET_COUNT - 1);
+        return lowestValue(index) + (1L << shift) - 1;
+    }
+}
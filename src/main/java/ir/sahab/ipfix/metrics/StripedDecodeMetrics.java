@@ -0,0 +1,238 @@
+package ir.sahab.ipfix.metrics;
+
+import ir.sahab.ipfix.DecodeMetrics;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ *     Counts all events of {@link DecodeMetrics} in striped {@link LongAdder}s, in total, per
+ *     observation domain and per template, and keeps a histogram of decode latency of messages.
+ *     It is thread-safe and meant to be shared by factories of all decoder threads, which update
+ *     it without contention. Counters of the last domain and template are cached per thread, so
+ *     consecutive sets of a domain do not look up the maps.
+ * </p>
+ * <p>
+ *     Counters are read by getters, e.g. by gauges or function counters of a metrics library:
+ * </p>
+ * <pre>
+ *     StripedDecodeMetrics metrics = new StripedDecodeMetrics();
+ *     recordFactory.setMetrics(metrics);
+ *     registry.gauge("ipfix.records", metrics, StripedDecodeMetrics::getRecordCount);
+ *     registry.gauge("ipfix.decode.p99", metrics,
+ *                    m -&gt; m.getDecodeLatency().getValueAtPercentile(99));
+ * </pre>
+ * <p>
+ *     Domains of different exporters with the same observation domain Id share counters.
+ * </p>
+ */
+public class StripedDecodeMetrics implements DecodeMetrics {
+
+    /**
+     * Counters of an observation domain, or of a template in an observation domain.
+     */
+    public static final class Counters {
+        private final long observationDomainId;
+        private final int templateId;
+        private final LongAdder messageCount = new LongAdder();
+        private final LongAdder setCount = new LongAdder();
+        private final LongAdder recordCount = new LongAdder();
+        private final LongAdder byteCount = new LongAdder();
+
+        Counters(long observationDomainId, int templateId) {
+            this.observationDomainId = observationDomainId;
+            this.templateId = templateId;
+        }
+
+        public long getObservationDomainId() {
+            return observationDomainId;
+        }
+
+        /**
+         * @return Id of the sets counted, which is template Id of data sets, or -1 for counters of
+         * a domain.
+         */
+        public int getTemplateId() {
+            return templateId;
+        }
+
+        /**
+         * @return number of messages of a domain, zero for a template.
+         */
+        public long getMessageCount() {
+            return messageCount.sum();
+        }
+
+        public long getSetCount() {
+            return setCount.sum();
+        }
+
+        public long getRecordCount() {
+            return recordCount.sum();
+        }
+
+        /**
+         * @return bytes of messages of a domain, or bytes of sets of a template.
+         */
+        public long getByteCount() {
+            return byteCount.sum();
+        }
+    }
+
+    private final LongAdder messageCount = new LongAdder();
+    private final LongAdder byteCount = new LongAdder();
+    private final LongAdder setCount = new LongAdder();
+    private final LongAdder recordCount = new LongAdder();
+    private final LongAdder templateRegistrationCount = new LongAdder();
+    private final LongAdder templateNotDefinedCount = new LongAdder();
+    private final LongAdder malformedMessageCount = new LongAdder();
+    private final LatencyHistogram decodeLatency = new LatencyHistogram();
+    private final ConcurrentHashMap<Long, Counters> domainCounters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Counters> templateCounters = new ConcurrentHashMap<>();
+    // Counters of the last domain and the last template each thread updated
+    private final ThreadLocal<Counters[]> lastCounters =
+            ThreadLocal.withInitial(() -> new Counters[2]);
+
+    @Override
+    public void onMessage(long observationDomainId, int length, long decodeNanos) {
+        messageCount.increment();
+        byteCount.add(length);
+        decodeLatency.record(decodeNanos);
+        Counters counters = domainCounters(observationDomainId);
+        counters.messageCount.increment();
+        counters.byteCount.add(length);
+    }
+
+    @Override
+    public void onSet(long observationDomainId, int setId, int recordCount, int length) {
+        setCount.increment();
+        this.recordCount.add(recordCount);
+        Counters counters = domainCounters(observationDomainId);
+        counters.setCount.increment();
+        counters.recordCount.add(recordCount);
+        counters = templateCounters(observationDomainId, setId);
+        counters.setCount.increment();
+        counters.recordCount.add(recordCount);
+        counters.byteCount.add(length);
+    }
+
+    @Override
+    public void onTemplateRegistered(long observationDomainId, int templateId) {
+        templateRegistrationCount.increment();
+    }
+
+    @Override
+    public void onTemplateNotDefined(long observationDomainId, int templateId) {
+        templateNotDefinedCount.increment();
+    }
+
+    @Override
+    public void onMalformedMessage() {
+        malformedMessageCount.increment();
+    }
+
+    /**
+     * @return number of messages decoded successfully.
+     */
+    public long getMessageCount() {
+        return messageCount.sum();
+    }
+
+    /**
+     * @return bytes of messages decoded successfully.
+     */
+    public long getByteCount() {
+        return byteCount.sum();
+    }
+
+    public long getSetCount() {
+        return setCount.sum();
+    }
+
+    public long getRecordCount() {
+        return recordCount.sum();
+    }
+
+    public long getTemplateRegistrationCount() {
+        return templateRegistrationCount.sum();
+    }
+
+    /**
+     * @return number of data sets whose template was not known.
+     */
+    public long getTemplateNotDefinedCount() {
+        return templateNotDefinedCount.sum();
+    }
+
+    public long getMalformedMessageCount() {
+        return malformedMessageCount.sum();
+    }
+
+    /**
+     * @return histogram of time spent decoding messages, in nanoseconds.
+     */
+    public LatencyHistogram getDecodeLatency() {
+        return decodeLatency;
+    }
+
+    /**
+     * @return counters of the observation domain, or null if none of its messages is decoded.
+     */
+    public Counters getDomainCounters(long observationDomainId) {
+        return domainCounters.get(observationDomainId);
+    }
+
+    /**
+     * @return counters of the template in the observation domain, or null if none of its sets is
+     * decoded.
+     */
+    public Counters getTemplateCounters(long observationDomainId, int templateId) {
+        return templateCounters.get(templateKey(observationDomainId, templateId));
+    }
+
+    /**
+     * @return live view of counters of all observation domains seen.
+     */
+    public Collection<Counters> getDomainCounters() {
+        return Collections.unmodifiableCollection(domainCounters.values());
+    }
+
+    /**
+     * @return live view of counters of all templates seen.
+     */
+    public Collection<Counters> getTemplateCounters() {
+        return Collections.unmodifiableCollection(templateCounters.values());
+    }
+
+    private Counters domainCounters(long observationDomainId) {
+        Counters[] last = lastCounters.get();
+        Counters counters = last[0];
+        if (counters == null || counters.observationDomainId != observationDomainId) {
+            counters = domainCounters.computeIfAbsent(observationDomainId,
+                                                      id -> new Counters(id, -1));
+            last[0] = counters;
+        }
+        return counters;
+    }
+
+    private Counters templateCounters(long observationDomainId, int templateId) {
+        Counters[] last = lastCounters.get();
+        Counters counters = last[1];
+        if (counters == null || counters.observationDomainId != observationDomainId ||
+            counters.templateId != templateId) {
+            counters = templateCounters.computeIfAbsent(
+                    templateKey(observationDomainId, templateId),
+                    key -> new Counters(observationDomainId, templateId));
+            last[1] = counters;
+        }
+        return counters;
+    }
+
+    private static long templateKey(long observationDomainId, int templateId) {
+        // Domain Ids are 32 bits and set Ids 16 bits
+        return observationDomainId << 16 | templateId;
+    }
+}
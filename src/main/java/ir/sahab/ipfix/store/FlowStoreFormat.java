@@ -0,0 +1,102 @@
+package ir.sahab.ipfix.store;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * <p>
+ *     Layout of flow store files. A file is a sequence of segments, each holding data records of
+ *     one template in columns. A segment starts with a header:
+ * </p>
+ * <pre>
+ *          magic               4 bytes  "IPFS"
+ *          version             4 bytes
+ *          header length       4 bytes
+ *          body length         4 bytes, compressed
+ *          inflated length     4 bytes
+ *          record count        4 bytes
+ *          template            template Id, field count and field specifiers as in IPFIX
+ *          columns             18 bytes per field: encoding, flags, minimum and maximum
+ * </pre>
+ * <p>
+ *     followed by its body, the encoded columns one after another compressed by deflate. Minimum
+ *     and maximum of a numeric column are unsigned, and are valid if {@link #HAS_RANGE} flag is
+ *     set. Columns are encoded by one of:
+ * </p>
+ * <ul>
+ * <li>{@link #DELTA}: numeric values as zigzag varints of their difference from previous value,
+ * for timestamps and counters.</li>
+ * <li>{@link #DICTIONARY}: count of distinct values, distinct values, and then index of value of
+ * each record as a varint, for addresses. Numeric distinct values are sorted and delta encoded,
+ * and byte values are length-prefixed.</li>
+ * <li>{@link #PLAIN}: byte values, each length-prefixed.</li>
+ * </ul>
+ * <p>
+ *     Segments are appended whole, so a file cut by a crash ends at the last complete segment.
+ * </p>
+ */
+final class FlowStoreFormat {
+    final static int MAGIC = 0x49504653;
+    final static int VERSION = 1;
+    final static int FIXED_HEADER_LENGTH = 24;
+    final static int COLUMN_HEADER_LENGTH = 18;
+
+    final static byte DELTA = 0;
+    final static byte DICTIONARY = 1;
+    final static byte PLAIN = 2;
+
+    final static byte HAS_RANGE = 1;
+
+    private FlowStoreFormat() {}
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            if (shift == 63) {
+                throw new IllegalArgumentException("Varint is longer than 10 bytes.");
+            }
+        }
+    }
+
+    /**
+     * Growable byte array that encoded columns are appended to.
+     */
+    static final class Output {
+        byte[] bytes = new byte[4096];
+        int size;
+
+        void putVarLong(long value) {
+            ensureRoom(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void put(byte[] source, int offset, int length) {
+            ensureRoom(length);
+            System.arraycopy(source, offset, bytes, size, length);
+            size += length;
+        }
+
+        void ensureRoom(int length) {
+            if (bytes.length - size < length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + length));
+            }
+        }
+    }
+}
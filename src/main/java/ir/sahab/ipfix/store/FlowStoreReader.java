@@ -0,0 +1,347 @@
+package ir.sahab.ipfix.store;
+
+import ir.sahab.ipfix.ColumnBatch;
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.TemplateRecord;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * <p>
+ *     Reads segments of a flow store file written by {@link FlowStoreWriter}. Moving to a segment
+ *     reads only its header, so a range scan checks ranges of the segment and decompresses its
+ *     records only if they may match:
+ * </p>
+ * <pre>
+ *     try (FlowStoreReader reader = new FlowStoreReader(file)) {
+ *         while (reader.next()) {
+ *             int index = reader.getTemplateRecord().indexOf(FLOW_START_MILLISECONDS);
+ *             if (index &gt;= 0 &amp;&amp; reader.mayContain(index, from, to)) {
+ *                 reader.read(batch);
+ *             }
+ *         }
+ *     }
+ * </pre>
+ * <p>
+ *     Consecutive segments of the same template share the template instance, so a reused batch
+ *     keeps its columns. Reader is not thread-safe.
+ * </p>
+ */
+public class FlowStoreReader implements Closeable {
+    private final FileChannel channel;
+    private final Inflater inflater = new Inflater();
+    private ByteBuffer header = ByteBuffer.allocate(1024);
+    private long nextPosition;
+    private long bodyPosition = -1;
+    private int compressedLength;
+    private int inflatedLength;
+    private int recordCount;
+
+    private TemplateRecord templateRecord;
+    // Encoded template of the current template record, to reuse it for the same template
+    private byte[] templateBytes = new byte[0];
+    private byte[] encodings = new byte[0];
+    private boolean[] hasRange = new boolean[0];
+    private long[] mins = new long[0];
+    private long[] maxs = new long[0];
+
+    // Buffers reused by segments
+    private byte[] compressed = new byte[4096];
+    private byte[] body = new byte[4096];
+    private long[] values = new long[0];
+    private long[] dictionary = new long[0];
+    private int[] entryOffsets = new int[0];
+    private int[] entryLengths = new int[0];
+
+    public FlowStoreReader(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Moves to the next segment, reading its header.
+     *
+     * @return false if there is no more complete segments.
+     * @throws IOException if the file is not a flow store or is of an unsupported version.
+     */
+    public boolean next() throws IOException {
+        bodyPosition = -1;
+        long size = channel.size();
+        if (size - nextPosition < FlowStoreFormat.FIXED_HEADER_LENGTH) {
+            return false;
+        }
+        header.clear().limit(FlowStoreFormat.FIXED_HEADER_LENGTH);
+        readFully(header, nextPosition);
+        if (header.getInt(0) != FlowStoreFormat.MAGIC) {
+            throw new IOException("Segment at " + nextPosition + " is not a flow store segment.");
+        }
+        if (header.getInt(4) != FlowStoreFormat.VERSION) {
+            throw new IOException("Version " + header.getInt(4) + " of flow store is not " +
+                                  "supported.");
+        }
+        int headerLength = header.getInt(8);
+        compressedLength = header.getInt(12);
+        inflatedLength = header.getInt(16);
+        recordCount = header.getInt(20);
+        if (size - nextPosition - headerLength < compressedLength) {
+            // Segment is cut by a crash while it was written
+            return false;
+        }
+        if (header.capacity() < headerLength) {
+            header = ByteBuffer.allocate(headerLength);
+        }
+        header.clear().limit(headerLength);
+        readFully(header, nextPosition);
+        header.position(FlowStoreFormat.FIXED_HEADER_LENGTH);
+        readTemplate();
+        readColumnHeaders();
+
+        bodyPosition = nextPosition + headerLength;
+        nextPosition = bodyPosition + compressedLength;
+        return true;
+    }
+
+    /**
+     * @return template of records of the current segment.
+     */
+    public TemplateRecord getTemplateRecord() {
+        checkSegment();
+        return templateRecord;
+    }
+
+    public int getRecordCount() {
+        checkSegment();
+        return recordCount;
+    }
+
+    /**
+     * @return whether minimum and maximum of the field in the current segment are known, i.e. the
+     * field is numeric.
+     */
+    public boolean hasRange(int index) {
+        checkSegment();
+        return hasRange[index];
+    }
+
+    /**
+     * @return minimum value of the field in the current segment, as an unsigned integer.
+     */
+    public long getMin(int index) {
+        checkSegment();
+        return mins[index];
+    }
+
+    /**
+     * @return maximum value of the field in the current segment, as an unsigned integer.
+     */
+    public long getMax(int index) {
+        checkSegment();
+        return maxs[index];
+    }
+
+    /**
+     * @return false if no record of the current segment has a value of the field between from and
+     * to inclusive, compared as unsigned integers. Fields without range may contain any value.
+     */
+    public boolean mayContain(int index, long from, long to) {
+        checkSegment();
+        return !hasRange[index] ||
+               (Long.compareUnsigned(mins[index], to) <= 0 &&
+                Long.compareUnsigned(maxs[index], from) >= 0);
+    }
+
+    /**
+     * Decompresses records of the current segment into a batch, replacing its content.
+     *
+     * @throws IOException if the segment is corrupted.
+     */
+    public void read(ColumnBatch batch) throws IOException {
+        checkSegment();
+        inflate();
+        batch.reset(templateRecord);
+        batch.allocate(recordCount);
+        ByteBuffer in = ByteBuffer.wrap(body, 0, inflatedLength);
+        try {
+            for (int i = 0; i < encodings.length; i++) {
+                switch (batch.getColumnType(i)) {
+                    case INT:
+                        decodeNumeric(in, encodings[i]);
+                        int[] ints = batch.getInts(i);
+                        for (int j = 0; j < recordCount; j++) {
+                            ints[j] = (int) values[j];
+                        }
+                        break;
+                    case LONG:
+                        decodeNumeric(in, encodings[i]);
+                        System.arraycopy(values, 0, batch.getLongs(i), 0, recordCount);
+                        break;
+                    default:
+                        decodeBytes(in, encodings[i], batch, i);
+                }
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Segment at " + bodyPosition + " is corrupted.", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        channel.close();
+    }
+
+    /**
+     * Decodes values of a numeric column into values.
+     */
+    private void decodeNumeric(ByteBuffer in, byte encoding) {
+        if (values.length < recordCount) {
+            values = new long[recordCount];
+        }
+        if (encoding == FlowStoreFormat.DELTA) {
+            long value = 0;
+            for (int j = 0; j < recordCount; j++) {
+                value += FlowStoreFormat.unzigzag(FlowStoreFormat.getVarLong(in));
+                values[j] = value;
+            }
+            return;
+        }
+        if (encoding != FlowStoreFormat.DICTIONARY) {
+            throw new IllegalArgumentException("Invalid encoding of numeric column: " + encoding);
+        }
+        int distinct = (int) FlowStoreFormat.getVarLong(in);
+        if (dictionary.length < distinct) {
+            dictionary = new long[distinct];
+        }
+        long value = 0;
+        for (int i = 0; i < distinct; i++) {
+            value += FlowStoreFormat.getVarLong(in);
+            dictionary[i] = value;
+        }
+        for (int j = 0; j < recordCount; j++) {
+            values[j] = dictionary[(int) FlowStoreFormat.getVarLong(in)];
+        }
+    }
+
+    private void decodeBytes(ByteBuffer in, byte encoding, ColumnBatch batch, int index) {
+        if (encoding == FlowStoreFormat.PLAIN) {
+            for (int j = 0; j < recordCount; j++) {
+                int length = (int) FlowStoreFormat.getVarLong(in);
+                batch.setBytes(index, j, body, in.position(), length);
+                in.position(in.position() + length);
+            }
+            return;
+        }
+        if (encoding != FlowStoreFormat.DICTIONARY) {
+            throw new IllegalArgumentException("Invalid encoding of bytes column: " + encoding);
+        }
+        int distinct = (int) FlowStoreFormat.getVarLong(in);
+        if (entryOffsets.length < distinct) {
+            entryOffsets = new int[distinct];
+            entryLengths = new int[distinct];
+        }
+        for (int i = 0; i < distinct; i++) {
+            entryLengths[i] = (int) FlowStoreFormat.getVarLong(in);
+            entryOffsets[i] = in.position();
+            in.position(in.position() + entryLengths[i]);
+        }
+        for (int j = 0; j < recordCount; j++) {
+            int entry = (int) FlowStoreFormat.getVarLong(in);
+            batch.setBytes(index, j, body, entryOffsets[entry], entryLengths[entry]);
+        }
+    }
+
+    private void readTemplate() {
+        int start = header.position();
+        int templateId = header.getShort() & 0xffff;
+        int fieldCount = header.getShort() & 0xffff;
+        if (templateRecord != null && sameTemplateBytes(start)) {
+            header.position(start + templateBytes.length);
+            return;
+        }
+        TemplateRecord newTemplateRecord = new TemplateRecord(templateId);
+        for (int i = 0; i < fieldCount; i++) {
+            newTemplateRecord.addField(FieldSpecifier.decode(header));
+        }
+        templateBytes = new byte[header.position() - start];
+        for (int i = 0; i < templateBytes.length; i++) {
+            templateBytes[i] = header.get(start + i);
+        }
+        templateRecord = newTemplateRecord;
+    }
+
+    private boolean sameTemplateBytes(int start) {
+        if (header.limit() - start < templateBytes.length) {
+            return false;
+        }
+        for (int i = 0; i < templateBytes.length; i++) {
+            if (header.get(start + i) != templateBytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void readColumnHeaders() {
+        int fieldCount = templateRecord.getFieldCount();
+        if (encodings.length != fieldCount) {
+            encodings = new byte[fieldCount];
+            hasRange = new boolean[fieldCount];
+            mins = new long[fieldCount];
+            maxs = new long[fieldCount];
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            encodings[i] = header.get();
+            hasRange[i] = (header.get() & FlowStoreFormat.HAS_RANGE) != 0;
+            mins[i] = header.getLong();
+            maxs[i] = header.getLong();
+        }
+    }
+
+    private void inflate() throws IOException {
+        if (compressed.length < compressedLength) {
+            compressed = new byte[compressedLength];
+        }
+        if (body.length < inflatedLength) {
+            body = new byte[inflatedLength];
+        }
+        readFully(ByteBuffer.wrap(compressed, 0, compressedLength), bodyPosition);
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int length = 0;
+            while (length < inflatedLength && !inflater.finished()) {
+                int inflated = inflater.inflate(body, length, inflatedLength - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != inflatedLength) {
+                throw new IOException("Segment at " + bodyPosition + " is truncated.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Segment at " + bodyPosition + " is corrupted.", e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private void checkSegment() {
+        if (bodyPosition < 0) {
+            throw new IllegalStateException("Reader is not positioned on a segment.");
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package ir.sahab.ipfix.store;
+
+import ir.sahab.ipfix.ColumnBatch;
+import ir.sahab.ipfix.ColumnBatch.ColumnType;
+import ir.sahab.ipfix.DataType;
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.InformationElement;
+import ir.sahab.ipfix.InformationElementRegistry;
+import ir.sahab.ipfix.TemplateRecord;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * <p>
+ *     Appends decoded data records to a flow store file, in compressed columnar segments of the
+ *     format of {@link FlowStoreFormat}. Records are collected per template and a segment is
+ *     written when a template has the given number of records, or on {@link #flush()}. Each
+ *     segment carries its template and the range of each numeric column, so files are
+ *     self-describing and {@link FlowStoreReader} can skip segments out of a scanned range.
+ * </p>
+ * <p>
+ *     Columns of addresses, by data type of their Information Element, are dictionary encoded and
+ *     other numeric columns are delta encoded. Columns of bytes, e.g. IPv6 addresses and strings,
+ *     are dictionary encoded too. Dictionary encoding falls back to delta or plain encoding when
+ *     more than half of values of a segment are distinct.
+ * </p>
+ * <pre>
+ *     try (FlowStoreWriter writer = new FlowStoreWriter(file, 64 * 1024)) {
+ *         writer.addSet(templateRecord, buffer, setOffset);
+ *     }
+ * </pre>
+ * <p>
+ *     Writer is not thread-safe.
+ * </p>
+ */
+public class FlowStoreWriter implements Closeable {
+    private final FileChannel channel;
+    private final int segmentRecords;
+    private final InformationElementRegistry registry;
+    private final Map<TemplateRecord, ColumnBatch> batches = new HashMap<>();
+    private final Deflater deflater = new Deflater();
+    private final FlowStoreFormat.Output body = new FlowStoreFormat.Output();
+    // Buffers reused by segments
+    private byte[] compressed = new byte[4096];
+    private long[] values = new long[0];
+    private long[] dictionary = new long[0];
+    private int[] indexes = new int[0];
+    private final Map<ByteBuffer, Integer> bytesDictionary = new HashMap<>();
+    private final List<ByteBuffer> bytesEntries = new ArrayList<>();
+
+    private long segmentCount;
+    private long recordCount;
+    private long byteCount;
+    private boolean closed;
+
+    /**
+     * Opens a flow store file, creating it if not exists. Segments are appended after existing
+     * ones.
+     *
+     * @param segmentRecords number of records of a template collected before writing them as a
+     * segment.
+     */
+    public FlowStoreWriter(Path file, int segmentRecords) throws IOException {
+        this(file, segmentRecords, new InformationElementRegistry());
+    }
+
+    /**
+     * @param registry registry to find data types of fields by, to choose their encoding.
+     */
+    public FlowStoreWriter(Path file, int segmentRecords, InformationElementRegistry registry)
+            throws IOException {
+        if (segmentRecords <= 0) {
+            throw new IllegalArgumentException("Segment records must be positive.");
+        }
+        this.segmentRecords = segmentRecords;
+        this.registry = registry;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                   StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Collects records of a data set, and writes a segment if the template has enough records.
+     *
+     * @param setOffset absolute position of set header in buffer.
+     * @throws IllegalArgumentException if set Id does not match template Id or the set is
+     * malformed. Records before the malformed one remain collected.
+     */
+    public void addSet(TemplateRecord templateRecord, ByteBuffer buffer, int setOffset)
+            throws IOException {
+        checkOpen();
+        ColumnBatch batch = batches.get(templateRecord);
+        if (batch == null) {
+            batch = new ColumnBatch(Math.min(segmentRecords, 1024)).reset(templateRecord);
+            batches.put(templateRecord, batch);
+        }
+        batch.addSet(buffer, setOffset);
+        if (batch.getRecordCount() >= segmentRecords) {
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Writes records of a batch as a segment, regardless of segment records. Batch is not changed.
+     */
+    public void write(ColumnBatch batch) throws IOException {
+        checkOpen();
+        int count = batch.getRecordCount();
+        if (count == 0) {
+            return;
+        }
+        TemplateRecord templateRecord = batch.getTemplateRecord();
+        List<FieldSpecifier> fieldSpecifiers = templateRecord.getFieldSpecifiers();
+        int fieldCount = fieldSpecifiers.size();
+        // Field specifiers take at most 8 bytes
+        int maxHeaderLength = FlowStoreFormat.FIXED_HEADER_LENGTH + 4 +
+                              fieldCount * (8 + FlowStoreFormat.COLUMN_HEADER_LENGTH);
+        ByteBuffer header = ByteBuffer.allocate(maxHeaderLength);
+        header.position(FlowStoreFormat.FIXED_HEADER_LENGTH);
+        // Fields only, options templates are stored as their fields too.
+        header.putShort((short) templateRecord.getTemplateId());
+        header.putShort((short) fieldCount);
+        for (FieldSpecifier fieldSpecifier : fieldSpecifiers) {
+            fieldSpecifier.encode(header);
+        }
+
+        body.size = 0;
+        for (int i = 0; i < fieldCount; i++) {
+            encodeColumn(batch, i, fieldSpecifiers.get(i), header);
+        }
+        int compressedLength = compress();
+        header.putInt(0, FlowStoreFormat.MAGIC);
+        header.putInt(4, FlowStoreFormat.VERSION);
+        header.putInt(8, header.position());
+        header.putInt(12, compressedLength);
+        header.putInt(16, body.size);
+        header.putInt(20, count);
+        header.flip();
+        writeFully(header);
+        writeFully(ByteBuffer.wrap(compressed, 0, compressedLength));
+
+        segmentCount++;
+        recordCount += count;
+        byteCount += header.limit() + compressedLength;
+    }
+
+    /**
+     * Writes collected records of all templates as segments, and forces the file to disk.
+     */
+    public void flush() throws IOException {
+        checkOpen();
+        for (ColumnBatch batch : batches.values()) {
+            write(batch);
+        }
+        // Templates may be redefined, so their batches are not kept.
+        batches.clear();
+        channel.force(false);
+    }
+
+    public long getSegmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return number of records written in segments, excluding collected ones.
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return bytes written to file.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Flushes collected records and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!closed) {
+            try {
+                flush();
+            } finally {
+                closed = true;
+                deflater.end();
+                channel.close();
+            }
+        }
+    }
+
+    private void encodeColumn(ColumnBatch batch, int index, FieldSpecifier fieldSpecifier,
+                              ByteBuffer header) {
+        int count = batch.getRecordCount();
+        if (batch.getColumnType(index) == ColumnType.BYTES) {
+            byte encoding = encodeBytes(batch, index);
+            header.put(encoding).put((byte) 0).putLong(0).putLong(0);
+            return;
+        }
+
+        if (values.length < count) {
+            values = new long[Math.max(count, values.length * 2)];
+        }
+        if (batch.getColumnType(index) == ColumnType.INT) {
+            int[] column = batch.getInts(index);
+            for (int i = 0; i < count; i++) {
+                values[i] = Integer.toUnsignedLong(column[i]);
+            }
+        } else {
+            System.arraycopy(batch.getLongs(index), 0, values, 0, count);
+        }
+        long min = values[0];
+        long max = values[0];
+        for (int i = 1; i < count; i++) {
+            if (Long.compareUnsigned(values[i], min) < 0) {
+                min = values[i];
+            } else if (Long.compareUnsigned(values[i], max) > 0) {
+                max = values[i];
+            }
+        }
+        byte encoding = FlowStoreFormat.DELTA;
+        if (isAddress(fieldSpecifier) && encodeDictionary(count)) {
+            encoding = FlowStoreFormat.DICTIONARY;
+        } else {
+            long previous = 0;
+            for (int i = 0; i < count; i++) {
+                body.putVarLong(FlowStoreFormat.zigzag(values[i] - previous));
+                previous = values[i];
+            }
+        }
+        header.put(encoding).put(FlowStoreFormat.HAS_RANGE).putLong(min).putLong(max);
+    }
+
+    /**
+     * Dictionary encodes the first count values, unless more than half of them are distinct.
+     *
+     * @return whether the values are encoded.
+     */
+    private boolean encodeDictionary(int count) {
+        if (dictionary.length < count) {
+            dictionary = new long[values.length];
+        }
+        System.arraycopy(values, 0, dictionary, 0, count);
+        Arrays.sort(dictionary, 0, count);
+        int distinct = 1;
+        for (int i = 1; i < count; i++) {
+            if (dictionary[i] != dictionary[distinct - 1]) {
+                dictionary[distinct++] = dictionary[i];
+            }
+        }
+        if (distinct > count / 2) {
+            return false;
+        }
+        body.putVarLong(distinct);
+        long previous = 0;
+        for (int i = 0; i < distinct; i++) {
+            body.putVarLong(dictionary[i] - previous);
+            previous = dictionary[i];
+        }
+        for (int i = 0; i < count; i++) {
+            body.putVarLong(Arrays.binarySearch(dictionary, 0, distinct, values[i]));
+        }
+        return true;
+    }
+
+    /**
+     * @return encoding of the column.
+     */
+    private byte encodeBytes(ColumnBatch batch, int index) {
+        int count = batch.getRecordCount();
+        byte[] heap = batch.getHeap();
+        int[] offsets = batch.getOffsets(index);
+        int[] lengths = batch.getLengths(index);
+        if (indexes.length < count) {
+            indexes = new int[Math.max(count, indexes.length * 2)];
+        }
+        bytesDictionary.clear();
+        bytesEntries.clear();
+        for (int i = 0; i < count && bytesEntries.size() <= count / 2; i++) {
+            ByteBuffer value = ByteBuffer.wrap(heap, offsets[i], lengths[i]);
+            Integer entry = bytesDictionary.get(value);
+            if (entry == null) {
+                entry = bytesEntries.size();
+                bytesDictionary.put(value, entry);
+                bytesEntries.add(value);
+            }
+            indexes[i] = entry;
+        }
+        if (bytesEntries.size() > count / 2) {
+            for (int i = 0; i < count; i++) {
+                body.putVarLong(lengths[i]);
+                body.put(heap, offsets[i], lengths[i]);
+            }
+            return FlowStoreFormat.PLAIN;
+        }
+        body.putVarLong(bytesEntries.size());
+        for (ByteBuffer entry : bytesEntries) {
+            body.putVarLong(entry.remaining());
+            body.put(heap, entry.position(), entry.remaining());
+        }
+        for (int i = 0; i < count; i++) {
+            body.putVarLong(indexes[i]);
+        }
+        return FlowStoreFormat.DICTIONARY;
+    }
+
+    private boolean isAddress(FieldSpecifier fieldSpecifier) {
+        InformationElement element = registry.get(fieldSpecifier);
+        if (element == null) {
+            return false;
+        }
+        DataType dataType = element.getDataType();
+        return dataType == DataType.IPV4_ADDRESS || dataType == DataType.IPV6_ADDRESS ||
+               dataType == DataType.MAC_ADDRESS;
+    }
+
+    /**
+     * @return length of the compressed body.
+     */
+    private int compress() {
+        deflater.reset();
+        deflater.setInput(body.bytes, 0, body.size);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length) {
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            }
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        return length;
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Flow store writer is closed.");
+        }
+    }
+}
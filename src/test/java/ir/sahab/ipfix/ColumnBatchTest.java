@@ -0,0 +1,75 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ColumnBatchTest {
+
+    @Test
+    public void testColumns() {
+        // sourceIPv4Address, octetDeltaCount, sourceIPv6Address, interfaceName (variable length)
+        TemplateRecord template = new TemplateRecord(1000)
+                .addField(new FieldSpecifier(8, 4))
+                .addField(new FieldSpecifier(1, 8))
+                .addField(new FieldSpecifier(27, 16))
+                .addField(new FieldSpecifier(82));
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        int secondSet = writeSet(buffer, 0, 0, 3);
+        writeSet(buffer, secondSet, 3, 2);
+
+        // Capacity of 2 records makes columns grow
+        ColumnBatch batch = new ColumnBatch(2).reset(template);
+        Assert.assertEquals(3, batch.addSet(buffer, 0));
+        Assert.assertEquals(2, batch.addSet(buffer, secondSet));
+        Assert.assertEquals(5, batch.getRecordCount());
+        Assert.assertEquals(ColumnBatch.ColumnType.INT, batch.getColumnType(0));
+        Assert.assertEquals(ColumnBatch.ColumnType.LONG, batch.getColumnType(1));
+        Assert.assertEquals(ColumnBatch.ColumnType.BYTES, batch.getColumnType(2));
+        Assert.assertEquals(ColumnBatch.ColumnType.BYTES, batch.getColumnType(3));
+
+        int[] addresses = batch.getInts(0);
+        long[] octets = batch.getLongs(1);
+        int[] ipv6Offsets = batch.getOffsets(2);
+        int[] nameOffsets = batch.getOffsets(3);
+        int[] nameLengths = batch.getLengths(3);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0x0A000000 + i, addresses[i]);
+            Assert.assertEquals(1000L * i, octets[i]);
+            Assert.assertEquals(16, batch.getLengths(2)[i]);
+            Assert.assertEquals(i, batch.getHeap()[ipv6Offsets[i] + 15]);
+            Assert.assertEquals("if" + i, new String(batch.getHeap(), nameOffsets[i],
+                                                     nameLengths[i], StandardCharsets.UTF_8));
+        }
+
+        // Reused batch starts empty
+        batch.reset(template);
+        Assert.assertEquals(0, batch.getRecordCount());
+        Assert.assertEquals(3, batch.addSet(buffer, 0));
+        Assert.assertEquals(0x0A000002, batch.getInts(0)[2]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWrongColumnType() {
+        TemplateRecord template = new TemplateRecord(1000).addField(new FieldSpecifier(8, 4));
+        new ColumnBatch(16).reset(template).getLongs(0);
+    }
+
+    /**
+     * @return position after the set.
+     */
+    private static int writeSet(ByteBuffer buffer, int setOffset, int first, int count) {
+        buffer.position(setOffset + 4);
+        for (int i = first; i < first + count; i++) {
+            buffer.putInt(0x0A000000 + i);
+            buffer.putLong(1000L * i);
+            buffer.put(new byte[15]).put((byte) i);
+            buffer.put((byte) 3).put(("if" + i).getBytes(StandardCharsets.UTF_8));
+        }
+        int end = buffer.position();
+        buffer.putShort(setOffset, (short) 1000).putShort(setOffset + 2, (short) (end - setOffset));
+        return end;
+    }
+}
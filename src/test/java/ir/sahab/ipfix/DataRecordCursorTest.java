@@ -0,0 +1,163 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * These tests check reading data records in place by {@link DataRecordCursor}.
+ */
+public class DataRecordCursorTest {
+
+    private static final long ENTERPRISE_NUMBER = 11112222L;
+
+    @Test
+    public void testReadRecords() throws IOException {
+        TemplateRecord templateRecord = createTemplate();
+        ByteBuffer messageBuffer = ByteBuffer.wrap(createDataMessage(templateRecord).encode());
+
+        DataRecordCursor cursor = new DataRecordCursor().wrap(templateRecord, messageBuffer, 16);
+        int bytesIndex = cursor.fieldIndex(1);
+        int nameIndex = cursor.fieldIndex(82);
+        int portIndex = cursor.fieldIndex(7);
+        int enterpriseIndex = cursor.fieldIndex(1, ENTERPRISE_NUMBER);
+        Assert.assertEquals(-1, cursor.fieldIndex(2));
+
+        byte[] name = new byte[300];
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(1000L * i, cursor.getLong(bytesIndex));
+            Assert.assertEquals(40000 + i, cursor.getInt(portIndex));
+            Assert.assertEquals(0xffffffffL - i, cursor.getLong(enterpriseIndex));
+
+            int nameLength = cursor.getBytes(nameIndex, name);
+            Assert.assertEquals(i == 2 ? 260 : 3, nameLength);
+            Assert.assertEquals('a' + i, name[0]);
+        }
+        Assert.assertFalse(cursor.next());
+        Assert.assertEquals(messageBuffer.limit(), cursor.getSetEnd());
+        // Cursor must not touch position of the buffer
+        Assert.assertEquals(0, messageBuffer.position());
+    }
+
+    @Test
+    public void testFixedLengthRecords() throws IOException {
+        TemplateRecord templateRecord = new TemplateRecord(1001)
+                .addField(new FieldSpecifier(8, 4))     // sourceIPv4Address
+                .addField(new FieldSpecifier(7, 2))     // sourceTransportPort
+                .addField(new FieldSpecifier(2, 8));    // packetDeltaCount
+        TemplateLayout layout = templateRecord.getLayout();
+        Assert.assertTrue(layout.isFixedLength());
+        Assert.assertEquals(14, layout.getFixedRecordLength());
+        Assert.assertEquals(6, layout.getFieldOffset(2));
+
+        RecordSet<GenericRecord> dataSet = new RecordSet<>(1001);
+        for (int i = 0; i < 2; i++) {
+            GenericRecord record = new GenericRecord(templateRecord);
+            record.addFieldValue(new FieldValue(0x0a000001 + i, false));
+            record.addFieldValue(new FieldValue((short) 53, false));
+            record.addFieldValue(new FieldValue(10L + i, false));
+            dataSet.addRecord(record);
+        }
+        // Add padding shorter than a record at the end of the set
+        ByteBuffer messageBuffer = ByteBuffer.allocate(4 + 2 * 14 + 3);
+        dataSet.encode(messageBuffer);
+        messageBuffer.putShort(2, (short) messageBuffer.capacity());
+
+        DataRecordCursor cursor = new DataRecordCursor().wrap(templateRecord, messageBuffer, 0);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(cursor.next());
+            Assert.assertEquals(4 + 14 * i, cursor.getRecordOffset());
+            Assert.assertEquals(0x0a000001 + i, cursor.getInt(0));
+            Assert.assertEquals(53, cursor.getInt(1));
+            Assert.assertEquals(10L + i, cursor.getLong(2));
+        }
+        Assert.assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testTemplateLayout() {
+        TemplateLayout layout = createTemplate().getLayout();
+        Assert.assertFalse(layout.isFixedLength());
+        Assert.assertEquals(1, layout.getFirstVariableIndex());
+        Assert.assertEquals(8, layout.getPrefixLength());
+        Assert.assertEquals(8 + 2 + 4, layout.getFixedRecordLength());
+        Assert.assertEquals(8 + 1 + 2 + 4, layout.getMinimumRecordLength());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordExceedingSet() throws IOException {
+        TemplateRecord templateRecord = createTemplate();
+        ByteBuffer messageBuffer = ByteBuffer.wrap(createDataMessage(templateRecord).encode());
+        // Shrink the set so that the last record crosses its boundary
+        messageBuffer.putShort(18, (short) (messageBuffer.getShort(18) - 10));
+
+        DataRecordCursor cursor = new DataRecordCursor().wrap(templateRecord, messageBuffer, 16);
+        while (cursor.next()) {
+            cursor.getLong(0);
+        }
+    }
+
+    @Test
+    public void testLengthPrefixExceedingSet() {
+        TemplateRecord templateRecord = new TemplateRecord(1000)
+                .addField(new FieldSpecifier(1, 8))     // octetDeltaCount
+                .addField(new FieldSpecifier(82))       // interfaceName
+                .addField(new FieldSpecifier(83));      // interfaceDescription
+        // Set ends right before the 1-byte prefix of the second variable-length field.
+        ByteBuffer shortPrefix = ByteBuffer.allocate(4 + 8 + 2);
+        shortPrefix.putShort((short) 1000).putShort((short) 14).putLong(1).put((byte) 1);
+        // Set ends inside the 3-byte prefix of the first variable-length field.
+        ByteBuffer longPrefix = ByteBuffer.allocate(4 + 8 + 2);
+        longPrefix.putShort((short) 1000).putShort((short) 14).putLong(1).put((byte) 255);
+        for (ByteBuffer messageBuffer : new ByteBuffer[] {shortPrefix, longPrefix}) {
+            DataRecordCursor cursor = new DataRecordCursor().wrap(templateRecord, messageBuffer, 0);
+            try {
+                cursor.next();
+                Assert.fail("Record exceeding the set is read.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Invalid IPFIX message.", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testSetHeaderExceedingBuffer() {
+        TemplateRecord templateRecord = createTemplate();
+        ByteBuffer buffer = ByteBuffer.allocate(10);
+        for (int setOffset : new int[] {7, 10, 12, -1}) {
+            try {
+                new DataRecordCursor().wrap(templateRecord, buffer, setOffset);
+                Assert.fail("Set header out of buffer is read.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Invalid IPFIX message.", e.getMessage());
+            }
+        }
+    }
+
+    private static TemplateRecord createTemplate() {
+        return new TemplateRecord(1000)
+                .addField(new FieldSpecifier(1, 8))                     // octetDeltaCount
+                .addField(new FieldSpecifier(82))                       // interfaceName
+                .addField(new FieldSpecifier(7, 2))                     // sourceTransportPort
+                .addField(new FieldSpecifier(1, 4, ENTERPRISE_NUMBER));
+    }
+
+    private static IpfixMessage createDataMessage(TemplateRecord templateRecord) {
+        RecordSet<GenericRecord> dataSet = new RecordSet<>(templateRecord.getTemplateId());
+        for (int i = 0; i < 3; i++) {
+            GenericRecord record = new GenericRecord(templateRecord);
+            record.addFieldValue(new FieldValue(1000L * i, false));
+            // The last name is long enough to need 3 bytes length prefix
+            byte[] name = new byte[i == 2 ? 260 : 3];
+            name[0] = (byte) ('a' + i);
+            record.addFieldValue(new FieldValue(name, true));
+            record.addFieldValue(new FieldValue((short) (40000 + i), false));
+            record.addFieldValue(new FieldValue((int) (0xffffffffL - i), false));
+            dataSet.addRecord(record);
+        }
+        return new IpfixMessage(10, 1234567890L, 1234, 1).addSet(dataSet);
+    }
+}
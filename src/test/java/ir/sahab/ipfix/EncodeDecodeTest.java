@@ -5,7 +5,10 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntPredicate;
 
 /**
  * These tests check decode and encode process of different types of records.
@@ -31,6 +34,31 @@ public class EncodeDecodeTest {
         Assert.assertEquals(dataMessage, IpfixMessage.decode(dataMessage.encode(), recordFactory));
     }
 
+    @Test
+    public void testZeroCopyGenericRecord() throws Exception {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setZeroCopyDecoding(true);
+        IpfixMessage.decode(createTemplateMessage().encode(), recordFactory);
+
+        // decode a data message in zero-copy mode, then compare decoded object to original object
+        // and check that values are views into the message buffer.
+        IpfixMessage dataMessage = createDataMessage();
+        ByteBuffer messageBuffer = ByteBuffer.wrap(dataMessage.encode());
+        IpfixMessage decodedMessage = IpfixMessage.decode(messageBuffer, recordFactory);
+        Assert.assertEquals(dataMessage, decodedMessage);
+
+        GenericRecord decodedRecord =
+                (GenericRecord) decodedMessage.getRecordSets().get(0).getRecords().get(0);
+        FieldValueView exampleArray = (FieldValueView) decodedRecord.getFieldValues().get(1);
+        Assert.assertSame(messageBuffer, exampleArray.getBuffer());
+        // 16 bytes message header, 4 bytes set header, 4 bytes exampleInt and 1 byte length
+        Assert.assertEquals(25, exampleArray.getOffset());
+        Assert.assertEquals(new FieldValue(new byte[5], true), exampleArray.copy());
+
+        // encoding decoded views must give the same bytes
+        Assert.assertTrue(Arrays.equals(decodedMessage.encode(), createDataMessageByHands()));
+    }
+
     @Test
     public void testCustomRecord() throws IOException {
         RecordFactory recordFactory = new RecordFactory();
@@ -46,6 +74,239 @@ public class EncodeDecodeTest {
         Assert.assertEquals(Message, IpfixMessage.decode(Message.encode(), recordFactory));
     }
 
+    @Test
+    public void testMultipleRecordsInSet() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        // A template set defining two templates
+        TemplateRecord otherTemplate = new TemplateRecord(1001).addField(new FieldSpecifier(2, 8));
+        IpfixMessage templateMessage = createTemplateMessage();
+        templateMessage.getRecordSets().get(0).addRecord(otherTemplate);
+        Assert.assertEquals(templateMessage, IpfixMessage.decode(
+                templateMessage.encode(), recordFactory));
+        Assert.assertEquals(otherTemplate, recordFactory.getTemplate(1001));
+
+        IpfixMessage dataMessage = createDataMessage(3);
+        IpfixMessage decodedMessage = IpfixMessage.decode(dataMessage.encode(), recordFactory);
+        Assert.assertEquals(dataMessage, decodedMessage);
+        List<?> records = decodedMessage.getRecordSets().get(0).getRecords();
+        Assert.assertNotSame(records.get(0), records.get(1));
+    }
+
+    @Test
+    public void testPooledRecords() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setRecordPooling(true);
+        IpfixMessage.decode(createTemplateMessage().encode(), recordFactory);
+
+        IpfixMessage dataMessage = createDataMessage(3);
+        byte[] encodedMessage = dataMessage.encode();
+        IpfixMessage decodedMessage = IpfixMessage.decode(encodedMessage, recordFactory);
+        Assert.assertEquals(dataMessage, decodedMessage);
+        List<Object> records = new ArrayList<>(decodedMessage.getRecordSets().get(0).getRecords());
+
+        // Released records are reused for the next message, and decoded from scratch.
+        recordFactory.release(decodedMessage);
+        Assert.assertTrue(decodedMessage.getRecordSets().get(0).getRecords().isEmpty());
+        decodedMessage = IpfixMessage.decode(encodedMessage, recordFactory);
+        Assert.assertEquals(dataMessage, decodedMessage);
+        for (Object record : decodedMessage.getRecordSets().get(0).getRecords()) {
+            Assert.assertTrue(records.stream().anyMatch(pooled -> pooled == record));
+        }
+    }
+
+    @Test
+    public void testCustomRecordSupplier() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.registerCustomRecord(ExampleRecord.getTemplateId(), ExampleRecord::new);
+        IpfixMessage message = createDataMessageWithCustomRecord();
+        Assert.assertEquals(message, IpfixMessage.decode(message.encode(), recordFactory));
+    }
+
+    @Test
+    public void testEncodeAtBufferOffset() throws IOException {
+        // Lengths are written back at header positions, so they must be relative to the start of
+        // the message, not the buffer.
+        ByteBuffer byteBuffer = ByteBuffer.allocate(64);
+        byteBuffer.position(7);
+        createDataMessage().encode(byteBuffer);
+        Assert.assertEquals(37, byteBuffer.position());
+
+        byte[] encodedMessage = new byte[30];
+        byteBuffer.position(7);
+        byteBuffer.get(encodedMessage);
+        Assert.assertTrue(Arrays.equals(createDataMessageByHands(), encodedMessage));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEncodeTooLongSet() throws IOException {
+        IpfixMessage ipfixMessage = createDataMessage();
+        GenericRecord record = new GenericRecord(1000);
+        record.addFieldValue(new FieldValue(new byte[0x10000], false));
+        ipfixMessage.getRecordSets().get(0).addRecord(record);
+        ipfixMessage.encode(ByteBuffer.allocate(0x20000));
+    }
+
+    @Test
+    public void testLenientDecoding() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setLenientDecoding(true);
+
+        // Data arrives before its template, the set is skipped and kept until the template arrives.
+        IpfixMessage dataMessage = createDataMessage(2);
+        IpfixMessage decodedMessage = IpfixMessage.decode(dataMessage.encode(), recordFactory);
+        Assert.assertTrue(decodedMessage.getRecordSets().isEmpty());
+        Assert.assertEquals(1, recordFactory.getDeferredSetCount());
+        Assert.assertEquals(1, recordFactory.getPendingSetCount());
+
+        // The skipped set is appended to the message that defines its template.
+        IpfixMessage templateMessage = createTemplateMessage();
+        decodedMessage = IpfixMessage.decode(templateMessage.encode(), recordFactory);
+        Assert.assertEquals(2, decodedMessage.getRecordSets().size());
+        Assert.assertEquals(templateMessage.getRecordSets().get(0),
+                            decodedMessage.getRecordSets().get(0));
+        Assert.assertEquals(dataMessage.getRecordSets().get(0),
+                            decodedMessage.getRecordSets().get(1));
+        Assert.assertEquals(1, recordFactory.getReplayedSetCount());
+        Assert.assertEquals(0, recordFactory.getPendingSetCount());
+        Assert.assertEquals(dataMessage, IpfixMessage.decode(dataMessage.encode(), recordFactory));
+    }
+
+    @Test
+    public void testLenientDecodingLimits() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setLenientDecoding(true);
+        recordFactory.setPendingSetLimits(2, 1024);
+        byte[] encodedMessage = createDataMessage().encode();
+        for (int i = 0; i < 3; i++) {
+            IpfixMessage.decode(encodedMessage, recordFactory);
+        }
+        Assert.assertEquals(3, recordFactory.getDeferredSetCount());
+        Assert.assertEquals(2, recordFactory.getPendingSetCount());
+        Assert.assertEquals(1, recordFactory.getDroppedSetCount());
+
+        // A set that exceeds the byte limit is dropped right away.
+        recordFactory.setPendingSetLimits(2, 8);
+        Assert.assertEquals(3, recordFactory.getDroppedSetCount());
+        IpfixMessage.decode(encodedMessage, recordFactory);
+        Assert.assertEquals(0, recordFactory.getPendingSetCount());
+        Assert.assertEquals(4, recordFactory.getDroppedSetCount());
+    }
+
+    @Test(expected = TemplateNotDefinedException.class)
+    public void testStrictDecodingOfUnknownTemplate() throws IOException {
+        IpfixMessage.decode(createDataMessage().encode(), new RecordFactory());
+    }
+
+    @Test
+    public void testPeekHeader() throws IOException {
+        ByteBuffer messageBuffer = ByteBuffer.wrap(createDataMessage().encode());
+        messageBuffer.position(0);
+        IpfixMessage header = IpfixMessage.peekHeader(messageBuffer);
+        Assert.assertEquals(0, messageBuffer.position());
+        Assert.assertEquals(1, header.getVersionNum());
+        Assert.assertEquals(1234567890L, header.getExportTime());
+        Assert.assertEquals(1234, header.getSequenceNum());
+        Assert.assertEquals(87654321, header.getObservationDomainId());
+        Assert.assertTrue(header.getRecordSets().isEmpty());
+    }
+
+    @Test
+    public void testSetFilter() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        // Template sets are decoded even if they are not accepted by the filter.
+        IpfixMessage templateMessage = createTemplateMessage();
+        Assert.assertEquals(templateMessage, IpfixMessage.decode(
+                ByteBuffer.wrap(templateMessage.encode()), recordFactory, setId -> false));
+        Assert.assertNotNull(recordFactory.getTemplate(1000));
+
+        IpfixMessage dataMessage = createDataMessage(2);
+        // A set of an unknown template is skipped without failing the message.
+        dataMessage.addSet(new RecordSet<>(1001).addRecord(new GenericRecord(1001)));
+        ByteBuffer messageBuffer = ByteBuffer.wrap(dataMessage.encode());
+        IpfixMessage decodedMessage =
+                IpfixMessage.decode(messageBuffer, recordFactory, setId -> setId == 1000);
+        Assert.assertEquals(messageBuffer.limit(), messageBuffer.position());
+        Assert.assertEquals(1, decodedMessage.getRecordSets().size());
+        Assert.assertEquals(dataMessage.getRecordSets().get(0),
+                            decodedMessage.getRecordSets().get(0));
+    }
+
+    @Test
+    public void testTemplateLookupCountedPerSet() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        IpfixMessage.decode(createTemplateMessage().encode(), recordFactory);
+        IpfixMessage.decode(createDataMessage(3).encode(), recordFactory);
+        TemplateRegistry registry = recordFactory.getTemplateRegistry();
+        Assert.assertEquals(1, registry.getHitCount());
+        Assert.assertEquals(0, registry.getMissCount());
+    }
+
+    @Test
+    public void testPaddedSet() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        IpfixMessage.decode(createTemplateMessage().encode(), recordFactory);
+        IpfixMessage dataMessage = createDataMessage();
+        byte[] encoded = dataMessage.encode();
+        // Pad the only set by 3 bytes, so the message is longer than its sets re-encoded.
+        ByteBuffer padded = ByteBuffer.allocate(encoded.length + 3);
+        padded.put(encoded);
+        padded.putShort(2, (short) (encoded.length + 3));
+        padded.putShort(18, (short) (padded.getShort(18) + 3));
+        padded.position(0);
+        IpfixMessage decodedMessage = IpfixMessage.decode(padded, recordFactory);
+        Assert.assertEquals(padded.limit(), padded.position());
+        Assert.assertEquals(dataMessage.getRecordSets(), decodedMessage.getRecordSets());
+        Assert.assertEquals(encoded.length, decodedMessage.getLength());
+    }
+
+    @Test
+    public void testTruncatedSetHeader() {
+        // Header of the last set is cut to 2 bytes.
+        ByteBuffer message = ByteBuffer.allocate(18);
+        message.putShort((short) 10).putShort((short) 18).putInt(0).putInt(0).putInt(1);
+        message.putShort((short) 256);
+        int[] malformedCount = new int[1];
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setMetrics(new DecodeMetrics() {
+            @Override
+            public void onMalformedMessage() {
+                malformedCount[0]++;
+            }
+        });
+        List<IntPredicate> setFilters = Arrays.asList(null, setId -> true);
+        for (IntPredicate setFilter : setFilters) {
+            message.position(0);
+            try {
+                IpfixMessage.decode(message, recordFactory, setFilter);
+                Assert.fail("Truncated message is decoded.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Invalid IPFIX message.", e.getMessage());
+            }
+        }
+        Assert.assertEquals(2, malformedCount[0]);
+    }
+
+    @Test
+    public void testTemplateSetExceedingMessage() throws IOException {
+        byte[] encoded = createTemplateMessage().encode();
+        // One trailing byte, and a template set claiming more bytes than the buffer holds.
+        ByteBuffer message = ByteBuffer.allocate(encoded.length + 1);
+        message.put(encoded);
+        message.putShort(2, (short) message.capacity());
+        message.putShort(18, (short) (message.getShort(18) + 5));
+        for (boolean lenient : new boolean[] {false, true}) {
+            RecordFactory recordFactory = new RecordFactory();
+            recordFactory.setLenientDecoding(lenient);
+            message.position(0);
+            try {
+                IpfixMessage.decode(message, recordFactory);
+                Assert.fail("Set exceeding the message is decoded.");
+            } catch (IllegalArgumentException e) {
+                Assert.assertEquals("Invalid IPFIX message.", e.getMessage());
+            }
+        }
+    }
+
     private static IpfixMessage createTemplateMessage() throws IOException {
         long enterpriseNumber = 11112222L;
         IpfixMessage ipfixMessage = new IpfixMessage(1, 1234567890L, 1234, 87654321);
@@ -69,22 +330,28 @@ public class EncodeDecodeTest {
     }
 
     private static IpfixMessage createDataMessage() throws IOException {
+        return createDataMessage(1);
+    }
+
+    private static IpfixMessage createDataMessage(int recordCount) throws IOException {
         IpfixMessage ipfixMessage = new IpfixMessage(1, 1234567890L, 1234, 87654321);
         // Id for a set of ExampleRecords should be 1000
         RecordSet<GenericRecord> dataRecordSet = new RecordSet<>(1000);
         ipfixMessage.addSet(dataRecordSet);
 
-        // Data record has no header
-        GenericRecord genericDataRecord = new GenericRecord(1000);
-        dataRecordSet.addRecord(genericDataRecord);
+        for (int i = 1; i <= recordCount; i++) {
+            // Data record has no header
+            GenericRecord genericDataRecord = new GenericRecord(1000);
+            dataRecordSet.addRecord(genericDataRecord);
 
-        // exampleInt
-        FieldValue fieldValue = new FieldValue(1, false);
-        genericDataRecord.addFieldValue(fieldValue);
+            // exampleInt
+            FieldValue fieldValue = new FieldValue(i, false);
+            genericDataRecord.addFieldValue(fieldValue);
 
-        // exampleArray
-        fieldValue = new FieldValue(new byte[5], true);
-        genericDataRecord.addFieldValue(fieldValue);
+            // exampleArray
+            fieldValue = new FieldValue(new byte[4 + i], true);
+            genericDataRecord.addFieldValue(fieldValue);
+        }
 
         return ipfixMessage;
     }
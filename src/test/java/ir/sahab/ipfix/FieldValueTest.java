@@ -0,0 +1,77 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * These tests check typed accessors of field values and encoding of primitive field values.
+ */
+public class FieldValueTest {
+
+    @Test
+    public void testPrimitiveConstructors() {
+        Assert.assertTrue(Arrays.equals(new byte[] {1, 2},
+                                        new FieldValue((short) 0x0102, false).getValue()));
+        Assert.assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4},
+                                        new FieldValue(0x01020304, false).getValue()));
+        Assert.assertTrue(Arrays.equals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8},
+                                        new FieldValue(0x0102030405060708L, false).getValue()));
+    }
+
+    @Test
+    public void testReducedSizeIntegers() {
+        // An unsigned64 counter sent in 3 bytes
+        FieldValue fieldValue = new FieldValue(new byte[] {1, 2, (byte) 0xff}, false);
+        Assert.assertEquals(0x0102ffL, fieldValue.asLong());
+        Assert.assertEquals(0x0102ff, fieldValue.asInt());
+        Assert.assertEquals(0xffffffffL, new FieldValue(-1, false).asLong());
+        Assert.assertEquals(-1, new FieldValue(-1, false).asInt());
+        Assert.assertEquals(-1, new FieldValue(new byte[] {(byte) 0xff}, false).asSignedLong());
+        Assert.assertEquals(0xff, new FieldValue(new byte[] {(byte) 0xff}, false).asLong());
+
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] {9, 0, 0, 1, 0, 0});
+        FieldValueView view = new FieldValueView(buffer, 1, 5, false);
+        Assert.assertEquals(0x10000L, view.asLong());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLongValueAsInt() {
+        new FieldValue(1L, false).asInt();
+    }
+
+    @Test
+    public void testLongFieldValue() {
+        LongFieldValue fieldValue = new LongFieldValue(0x0102030405L, 5);
+        Assert.assertEquals(0x0102030405L, fieldValue.asLong());
+        Assert.assertEquals(new FieldValue(new byte[] {1, 2, 3, 4, 5}, false), fieldValue);
+        Assert.assertEquals(5, fieldValue.getLength());
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        new LongFieldValue(-1, 2).encode(buffer);
+        new LongFieldValue(7, 8).encode(buffer);
+        Assert.assertEquals(10, buffer.position());
+        Assert.assertEquals(0xffff, new LongFieldValue(-1, 2).asLong());
+        buffer.flip();
+        Assert.assertEquals((short) -1, buffer.getShort());
+        Assert.assertEquals(7, buffer.getLong());
+    }
+
+    @Test
+    public void testInet4FieldValue() throws Exception {
+        Inet4Address address = (Inet4Address) InetAddress.getByName("192.168.1.2");
+        Inet4FieldValue fieldValue = new Inet4FieldValue(address);
+        Assert.assertEquals(0xc0a80102, fieldValue.asInt());
+        Assert.assertEquals(address, fieldValue.asInet4());
+        Assert.assertEquals(address, new FieldValue(address.getAddress(), false).asInet4());
+        Assert.assertEquals(new FieldValue(address.getAddress(), false), fieldValue);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        fieldValue.encode(buffer);
+        Assert.assertTrue(Arrays.equals(address.getAddress(), buffer.array()));
+    }
+}
@@ -0,0 +1,86 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+/**
+ * These tests check lookup of information elements and reading records by compiled accessors.
+ */
+public class InformationElementRegistryTest {
+
+    private static final long ENTERPRISE_NUMBER = 11112222L;
+
+    @Test
+    public void testLookup() {
+        InformationElementRegistry registry = new InformationElementRegistry();
+        InformationElement element = registry.get("flowStartMilliseconds");
+        Assert.assertEquals(152, element.getElementId());
+        Assert.assertEquals(DataType.DATE_TIME_MILLISECONDS, element.getDataType());
+        Assert.assertSame(element, registry.get(new FieldSpecifier(152, 8)));
+        Assert.assertNull(registry.get(152, ENTERPRISE_NUMBER));
+
+        InformationElement custom =
+                new InformationElement(152, ENTERPRISE_NUMBER, "customCounter", DataType.SIGNED32);
+        registry.register(custom);
+        Assert.assertSame(custom, registry.get(new FieldSpecifier(152, 4, ENTERPRISE_NUMBER)));
+        Assert.assertSame(custom, registry.get("customCounter"));
+        Assert.assertSame(element, registry.get(152));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConflictingName() {
+        new InformationElementRegistry().register(
+                new InformationElement(1, ENTERPRISE_NUMBER, "octetDeltaCount", DataType.UNSIGNED64));
+    }
+
+    @Test
+    public void testAccessors() throws Exception {
+        InformationElementRegistry registry = new InformationElementRegistry();
+        registry.register(
+                new InformationElement(1, ENTERPRISE_NUMBER, "customCounter", DataType.SIGNED32));
+        TemplateRecord template = new TemplateRecord(1000)
+                .addField(new FieldSpecifier(8, 4))
+                .addField(new FieldSpecifier(152, 8))
+                .addField(new FieldSpecifier(82))
+                // Reduced-size signed integer
+                .addField(new FieldSpecifier(1, 2, ENTERPRISE_NUMBER));
+
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.putShort((short) 1000).putShort((short) 25);
+        buffer.put(new byte[] {10, 0, 0, 1}).putLong(1500000000123L);
+        buffer.put((byte) 4).put("eth0".getBytes()).putShort((short) -2);
+
+        FieldAccessor source = registry.accessor(template, "sourceIPv4Address");
+        FieldAccessor start = registry.accessor(template, "flowStartMilliseconds");
+        FieldAccessor interfaceName = registry.accessor(template, "interfaceName");
+        FieldAccessor custom = registry.accessor(template, "customCounter");
+        FieldAccessor missing = registry.accessor(template, "octetDeltaCount");
+        Assert.assertFalse(missing.isPresent());
+        Assert.assertEquals(4, start.getFieldOffset());
+        Assert.assertEquals(-1, custom.getFieldOffset());
+        Assert.assertTrue(start.isCompiledFor(template));
+
+        DataRecordCursor cursor = new DataRecordCursor().wrap(template, buffer, 0);
+        Assert.assertTrue(cursor.next());
+        Assert.assertEquals(0x0a000001L, source.getLong(cursor));
+        Assert.assertEquals(InetAddress.getByName("10.0.0.1"), source.getObject(cursor));
+        Assert.assertEquals(1500000000123L, start.getLong(cursor));
+        Assert.assertEquals(1500000000123L, start.getLong(buffer, cursor.getRecordOffset()));
+        Assert.assertEquals(Instant.ofEpochMilli(1500000000123L), start.getObject(cursor));
+        Assert.assertEquals("eth0", interfaceName.getObject(cursor));
+        Assert.assertEquals(-2, custom.getLong(cursor));
+
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.registerGenericRecordType(template);
+        buffer.limit(25).position(0);
+        GenericRecord record = (GenericRecord) RecordSet.decode(buffer, recordFactory)
+                                                        .getRecords().get(0);
+        Assert.assertEquals(1500000000123L, start.getLong(record));
+        Assert.assertEquals("eth0", interfaceName.getObject(record));
+        Assert.assertEquals(-2, custom.getLong(record));
+    }
+}
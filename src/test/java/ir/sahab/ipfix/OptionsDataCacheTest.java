@@ -0,0 +1,100 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * These tests check decoding of options templates and caching of options data.
+ */
+public class OptionsDataCacheTest {
+
+    private static final SocketAddress EXPORTER = new InetSocketAddress("10.0.0.1", 4739);
+    private static final int SELECTOR_ID = 302;
+    private static final int SAMPLING_PACKET_INTERVAL = 305;
+
+    @Test
+    public void testOptionsTemplate() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setExporter(EXPORTER);
+        IpfixMessage templateMessage = createOptionsTemplateMessage();
+        byte[] encodedMessage = templateMessage.encode();
+        // 16 bytes message header, 4 bytes set header, 6 bytes template headers and 2 fields
+        Assert.assertEquals(16 + 4 + 6 + 8, encodedMessage.length);
+        IpfixMessage decodedMessage = IpfixMessage.decode(encodedMessage, recordFactory);
+        Assert.assertEquals(templateMessage, decodedMessage);
+        Assert.assertTrue(decodedMessage.getRecordSets().get(0).isOptionsTemplateSet());
+        Assert.assertTrue(decodedMessage.getRecordSets().get(0).isTemplateSet());
+
+        TemplateRecord template = recordFactory.getTemplate(1001);
+        Assert.assertTrue(template instanceof OptionsTemplateRecord);
+        Assert.assertEquals(1, ((OptionsTemplateRecord) template).getScopeFieldCount());
+
+        // Withdrawal of all options templates
+        OptionsTemplateRecord withdrawAll = new OptionsTemplateRecord();
+        withdrawAll.decodeFrom(ByteBuffer.wrap(new byte[]{0, 3, 0, 0}));
+        IpfixMessage.decode(new IpfixMessage(10, 0, 0, 1).addSet(
+                new RecordSet<TemplateRecord>(3).addRecord(withdrawAll)).encode(), recordFactory);
+        Assert.assertNull(recordFactory.getTemplate(1001));
+    }
+
+    @Test
+    public void testOptionsDataCache() throws IOException {
+        OptionsDataCache cache = new OptionsDataCache();
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setZeroCopyDecoding(true);
+        recordFactory.setOptionsDataCache(cache);
+        recordFactory.setExporter(EXPORTER);
+        IpfixMessage.decode(createOptionsTemplateMessage().encode(), recordFactory);
+
+        ByteBuffer messageBuffer = ByteBuffer.wrap(createOptionsDataMessage(new int[][] {
+                {1, 100}, {2, 1000}}));
+        IpfixMessage.decode(messageBuffer, recordFactory);
+        // Cached values are copies, independent of the decoded buffer.
+        messageBuffer.put(28, (byte) 9);
+
+        OptionsDataCache.OptionsDomain options = cache.getDomain(EXPORTER, 1);
+        Assert.assertEquals(2, options.size());
+        GenericRecord sampler = options.get(SELECTOR_ID, 1);
+        FieldAccessor interval = new InformationElementRegistry().accessor(
+                sampler.getTemplateRecord(), "samplingPacketInterval");
+        Assert.assertEquals(100, interval.getLong(sampler));
+        Assert.assertEquals(1000, interval.getLong(cache.get(EXPORTER, 1, SELECTOR_ID, 2)));
+        Assert.assertNull(options.get(SELECTOR_ID, 3));
+        Assert.assertNull(cache.get(EXPORTER, 2, SELECTOR_ID, 1));
+
+        // Newer options data replaces the older one.
+        IpfixMessage.decode(createOptionsDataMessage(new int[][] {{1, 50}, {3, 10}}),
+                            recordFactory);
+        Assert.assertEquals(3, options.size());
+        Assert.assertEquals(50, interval.getLong(options.get(SELECTOR_ID, 1)));
+        Assert.assertEquals(10, interval.getLong(options.get(SELECTOR_ID, 3)));
+        Assert.assertEquals(4, cache.getUpdateCount());
+
+        cache.removeExporter(EXPORTER);
+        Assert.assertNull(cache.get(EXPORTER, 1, SELECTOR_ID, 1));
+    }
+
+    private static IpfixMessage createOptionsTemplateMessage() {
+        OptionsTemplateRecord template = new OptionsTemplateRecord(1001, 1);
+        template.addField(new FieldSpecifier(SELECTOR_ID, 4))
+                .addField(new FieldSpecifier(SAMPLING_PACKET_INTERVAL, 4));
+        return new IpfixMessage(10, 0, 0, 1)
+                .addSet(new RecordSet<TemplateRecord>(3).addRecord(template));
+    }
+
+    private static byte[] createOptionsDataMessage(int[][] samplers) {
+        int length = 16 + 4 + 8 * samplers.length;
+        ByteBuffer message = ByteBuffer.allocate(length);
+        message.putShort((short) 10).putShort((short) length).putInt(0).putInt(0).putInt(1);
+        message.putShort((short) 1001).putShort((short) (length - 16));
+        for (int[] sampler : samplers) {
+            message.putInt(sampler[0]).putInt(sampler[1]);
+        }
+        return message.array();
+    }
+}
@@ -0,0 +1,78 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+public class SequenceTrackerTest {
+    private static final SocketAddress EXPORTER = new InetSocketAddress("10.0.0.1", 4739);
+    private static final SocketAddress OTHER_EXPORTER = new InetSocketAddress("10.0.0.2", 4739);
+
+    @Test
+    public void testGapsAndReordering() {
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.track(EXPORTER, 1, 100, 10);
+        tracker.track(EXPORTER, 1, 110, 10);
+        Assert.assertEquals(0, tracker.getLostRecordCount());
+
+        // Message of sequence 120 is missing
+        tracker.track(EXPORTER, 1, 125, 5);
+        Assert.assertEquals(5, tracker.getLostRecordCount());
+        Assert.assertEquals(1, tracker.getGapCount());
+        Assert.assertEquals(130, tracker.getDomain(EXPORTER, 1).getExpectedSequenceNum());
+
+        // and arrives late
+        tracker.track(EXPORTER, 1, 120, 5);
+        Assert.assertEquals(0, tracker.getLostRecordCount());
+        Assert.assertEquals(1, tracker.getReorderCount());
+        Assert.assertEquals(130, tracker.getDomain(EXPORTER, 1).getExpectedSequenceNum());
+        Assert.assertEquals(30, tracker.getReceivedRecordCount());
+    }
+
+    @Test
+    public void testDomainsAreSeparate() {
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.track(EXPORTER, 1, 0, 10);
+        tracker.track(EXPORTER, 2, 500, 10);
+        tracker.track(OTHER_EXPORTER, 1, 1000, 10);
+        tracker.track(EXPORTER, 1, 10, 10);
+        tracker.track(EXPORTER, 2, 510, 10);
+        tracker.track(OTHER_EXPORTER, 1, 1012, 10);
+        Assert.assertEquals(0, tracker.getDomain(EXPORTER, 1).getLostRecordCount());
+        Assert.assertEquals(0, tracker.getDomain(EXPORTER, 2).getLostRecordCount());
+        Assert.assertEquals(2, tracker.getDomain(OTHER_EXPORTER, 1).getLostRecordCount());
+        Assert.assertEquals(2, tracker.getLostRecordCount());
+
+        tracker.removeExporter(OTHER_EXPORTER);
+        Assert.assertNull(tracker.getDomain(OTHER_EXPORTER, 1));
+    }
+
+    @Test
+    public void testWrapAroundAndReset() {
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.track(EXPORTER, 0xffffffffL, 0xfffffff0L, 16);
+        Assert.assertEquals(0, tracker.getDomain(EXPORTER, 0xffffffffL).getExpectedSequenceNum());
+        tracker.track(EXPORTER, 0xffffffffL, 4, 1);
+        Assert.assertEquals(4, tracker.getLostRecordCount());
+
+        // Exporter restarts from zero
+        tracker.track(EXPORTER, 0xffffffffL, 1L << 30, 1);
+        tracker.track(EXPORTER, 0xffffffffL, 0, 1);
+        Assert.assertEquals(2, tracker.getResetCount());
+        Assert.assertEquals(4, tracker.getLostRecordCount());
+        Assert.assertEquals(1, tracker.getDomain(EXPORTER, 0xffffffffL).getExpectedSequenceNum());
+    }
+
+    @Test
+    public void testTrackMessage() throws Exception {
+        IpfixMessage message = new IpfixMessage(10, 0, 7, 3);
+        message.addSet(new RecordSet<>(2).addRecord(new TemplateRecord(1000)));
+        message.addSet(new RecordSet<>(1000).addRecord(new GenericRecord(1000))
+                                            .addRecord(new GenericRecord(1000)));
+        SequenceTracker tracker = new SequenceTracker();
+        tracker.track(EXPORTER, message);
+        Assert.assertEquals(9, tracker.getDomain(EXPORTER, 3).getExpectedSequenceNum());
+    }
+}
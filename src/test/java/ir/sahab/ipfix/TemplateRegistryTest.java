@@ -0,0 +1,187 @@
+package ir.sahab.ipfix;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * These tests check scoping, expiry, eviction and withdrawal of templates in
+ * {@link TemplateRegistry}.
+ */
+public class TemplateRegistryTest {
+
+    private static final SocketAddress EXPORTER_1 = new InetSocketAddress("10.0.0.1", 4739);
+    private static final SocketAddress EXPORTER_2 = new InetSocketAddress("10.0.0.2", 4739);
+
+    @Test
+    public void testTemplatesAreScoped() throws IOException {
+        TemplateRegistry registry = new TemplateRegistry();
+        RecordFactory recordFactory = new RecordFactory(registry);
+
+        // Both exporters define template 1000, differently.
+        TemplateRecord shortTemplate = new TemplateRecord(1000).addField(new FieldSpecifier(1, 4));
+        TemplateRecord longTemplate = new TemplateRecord(1000).addField(new FieldSpecifier(1, 8));
+        recordFactory.setExporter(EXPORTER_1);
+        IpfixMessage.decode(createTemplateMessage(shortTemplate, 1).encode(), recordFactory);
+        recordFactory.setExporter(EXPORTER_2);
+        IpfixMessage.decode(createTemplateMessage(longTemplate, 1).encode(), recordFactory);
+
+        Assert.assertEquals(shortTemplate, registry.getTemplate(EXPORTER_1, 1, 1000));
+        Assert.assertEquals(longTemplate, registry.getTemplate(EXPORTER_2, 1, 1000));
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 2, 1000));
+
+        // Another factory sharing the registry decodes data by template of the right exporter.
+        RecordFactory otherFactory = new RecordFactory(registry);
+        otherFactory.setExporter(EXPORTER_2);
+        GenericRecord record = new GenericRecord(longTemplate);
+        record.addFieldValue(new FieldValue(5L, false));
+        IpfixMessage dataMessage = new IpfixMessage(10, 0, 0, 1)
+                .addSet(new RecordSet<GenericRecord>(1000).addRecord(record));
+        Assert.assertEquals(dataMessage, IpfixMessage.decode(dataMessage.encode(), otherFactory));
+
+        // Data of an observation domain without the template can not be decoded.
+        IpfixMessage otherDomainMessage = new IpfixMessage(10, 0, 0, 2)
+                .addSet(new RecordSet<GenericRecord>(1000).addRecord(record));
+        try {
+            IpfixMessage.decode(otherDomainMessage.encode(), otherFactory);
+            Assert.fail("Template of another domain must not be used.");
+        } catch (TemplateNotDefinedException e) {
+            // expected
+        }
+
+        registry.removeExporter(EXPORTER_1);
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 1, 1000));
+        Assert.assertEquals(longTemplate, registry.getTemplate(EXPORTER_2, 1, 1000));
+    }
+
+    @Test
+    public void testRemovedExporterIsRelearned() throws IOException {
+        TemplateRegistry registry = new TemplateRegistry();
+        RecordFactory recordFactory = new RecordFactory(registry);
+        recordFactory.setExporter(EXPORTER_1);
+        TemplateRecord template = createTemplate(1000, 2);
+        IpfixMessage.decode(createTemplateMessage(template, 1).encode(), recordFactory);
+        TemplateDomain domain = registry.getDomain(EXPORTER_1, 1);
+
+        // Session of the exporter is closed and a new one starts with the same address.
+        registry.removeExporter(EXPORTER_1);
+        Assert.assertTrue(domain.isRemoved());
+        Assert.assertEquals(0, registry.getMemoryUsage());
+        IpfixMessage.decode(createTemplateMessage(template, 1).encode(), recordFactory);
+        Assert.assertEquals(template, registry.getTemplate(EXPORTER_1, 1, 1000));
+        Assert.assertNotSame(domain, registry.getDomain(EXPORTER_1, 1));
+
+        // A holder of the removed domain registers in the new one.
+        domain.register(createTemplate(1001, 2));
+        Assert.assertNotNull(registry.getTemplate(EXPORTER_1, 1, 1001));
+        Assert.assertEquals(2, registry.getTemplateCount());
+        Assert.assertTrue(domain.getTemplates().isEmpty());
+    }
+
+    @Test
+    public void testUnscopedTemplates() throws IOException {
+        RecordFactory recordFactory = new RecordFactory();
+        TemplateRecord template = new TemplateRecord(1000).addField(new FieldSpecifier(1, 4));
+        recordFactory.registerGenericRecordType(template);
+
+        // Templates registered by hand are used for every exporter and domain.
+        recordFactory.setExporter(EXPORTER_1);
+        GenericRecord record = new GenericRecord(template);
+        record.addFieldValue(new FieldValue(5, false));
+        IpfixMessage dataMessage = new IpfixMessage(10, 0, 0, 7)
+                .addSet(new RecordSet<GenericRecord>(1000).addRecord(record));
+        Assert.assertEquals(dataMessage, IpfixMessage.decode(dataMessage.encode(), recordFactory));
+    }
+
+    @Test
+    public void testTemplateExpiry() {
+        long[] now = {1000};
+        TemplateRegistry registry = new TemplateRegistry(60000, TemplateRegistry.UNLIMITED,
+                                                         () -> now[0]);
+        TemplateRecord template = new TemplateRecord(1000).addField(new FieldSpecifier(1, 4));
+        registry.register(EXPORTER_1, 1, template);
+
+        now[0] += 50000;
+        Assert.assertEquals(template, registry.getTemplate(EXPORTER_1, 1, 1000));
+        // Receiving the same template again renews its lifetime.
+        registry.register(EXPORTER_1, 1, template.clone());
+        now[0] += 50000;
+        Assert.assertEquals(template, registry.getTemplate(EXPORTER_1, 1, 1000));
+        now[0] += 10001;
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 1, 1000));
+
+        Assert.assertEquals(2, registry.getHitCount());
+        Assert.assertEquals(1, registry.getMissCount());
+        Assert.assertEquals(1, registry.getExpirationCount());
+        Assert.assertEquals(0, registry.getTemplateCount());
+        Assert.assertEquals(0, registry.getMemoryUsage());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        long[] now = {0};
+        TemplateRegistry registry = new TemplateRegistry(TemplateRegistry.UNLIMITED, 1400,
+                                                         () -> now[0]);
+        for (int i = 0; i < 3; i++) {
+            now[0]++;
+            registry.register(EXPORTER_1, 1, createTemplate(256 + i, 5));
+        }
+        Assert.assertEquals(3, registry.getTemplateCount());
+
+        // Use the oldest template, so the second one becomes least recently used.
+        now[0]++;
+        Assert.assertNotNull(registry.getTemplate(EXPORTER_1, 1, 256));
+        now[0]++;
+        registry.register(EXPORTER_2, 1, createTemplate(256, 5));
+
+        // Templates are evicted in least recently used order down to 7/8 of the cap.
+        Assert.assertEquals(2, registry.getEvictionCount());
+        Assert.assertTrue(registry.getMemoryUsage() <= registry.getMaxMemoryBytes() * 7 / 8);
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 1, 257));
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 1, 258));
+        Assert.assertNotNull(registry.getTemplate(EXPORTER_1, 1, 256));
+        Assert.assertNotNull(registry.getTemplate(EXPORTER_2, 1, 256));
+    }
+
+    @Test
+    public void testTemplateWithdrawal() throws IOException {
+        TemplateRegistry registry = new TemplateRegistry();
+        RecordFactory recordFactory = new RecordFactory(registry);
+        recordFactory.setExporter(EXPORTER_1);
+        IpfixMessage.decode(createTemplateMessage(createTemplate(1000, 2), 1).encode(),
+                            recordFactory);
+        IpfixMessage.decode(createTemplateMessage(createTemplate(1001, 2), 1).encode(),
+                            recordFactory);
+
+        // A template record without fields withdraws the template.
+        IpfixMessage.decode(createTemplateMessage(new TemplateRecord(1000), 1).encode(),
+                            recordFactory);
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 1, 1000));
+        Assert.assertNotNull(registry.getTemplate(EXPORTER_1, 1, 1001));
+
+        // Withdrawal with template set Id withdraws all templates of the domain.
+        TemplateRecord withdrawAll = new TemplateRecord();
+        withdrawAll.decodeFrom(ByteBuffer.wrap(new byte[]{0, 2, 0, 0}));
+        IpfixMessage.decode(createTemplateMessage(withdrawAll, 1).encode(), recordFactory);
+        Assert.assertNull(registry.getTemplate(EXPORTER_1, 1, 1001));
+        Assert.assertEquals(2, registry.getWithdrawalCount());
+    }
+
+    private static TemplateRecord createTemplate(int templateId, int fieldCount) {
+        TemplateRecord templateRecord = new TemplateRecord(templateId);
+        for (int i = 1; i <= fieldCount; i++) {
+            templateRecord.addField(new FieldSpecifier(i, 4));
+        }
+        return templateRecord;
+    }
+
+    private static IpfixMessage createTemplateMessage(TemplateRecord templateRecord,
+                                                      long observationDomainId) {
+        return new IpfixMessage(10, 0, 0, observationDomainId)
+                .addSet(new RecordSet<TemplateRecord>(2).addRecord(templateRecord));
+    }
+}
@@ -0,0 +1,106 @@
+package ir.sahab.ipfix.aggregation;
+
+import ir.sahab.ipfix.DataRecordCursor;
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.TemplateRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class FlowAggregatorTest {
+    // destinationIPv4Address, destinationTransportPort, octetDeltaCount (reduced to 4 bytes)
+    private static final TemplateRecord TEMPLATE = new TemplateRecord(1000)
+            .addField(new FieldSpecifier(12, 4))
+            .addField(new FieldSpecifier(11, 2))
+            .addField(new FieldSpecifier(1, 4));
+
+    private static final AggregationSpec SPEC = new AggregationSpec()
+            .addKeyField(12, 4, 24)
+            .addKeyField(11, 2)
+            .addValueField(1)
+            .addValueField(2);
+
+    @Test
+    public void testTumblingWindows() {
+        List<String> results = new ArrayList<>();
+        FlowAggregator aggregator = new FlowAggregator(SPEC, 1000, 1000, collect(results));
+        DataRecordCursor cursor = cursor(new int[][] {
+                {0x0A000001, 80, 100}, {0x0A000002, 80, 50}, {0x0A000102, 80, 7},
+                {0x0A000001, 443, 1}});
+        while (cursor.next()) {
+            aggregator.add(cursor, 1500);
+        }
+        Assert.assertEquals(4, aggregator.getAggregatedRecordCount());
+
+        aggregator.advanceTo(1999);
+        Assert.assertTrue(results.isEmpty());
+        aggregator.advanceTo(2000);
+        results.sort(null);
+        Assert.assertEquals("[1000-2000 a000000:443=1/0/1, 1000-2000 a000000:80=150/0/2, " +
+                            "1000-2000 a000100:80=7/0/1]", results.toString());
+        Assert.assertEquals(0, aggregator.getPaneCount());
+
+        // Window is closed, so its records are late.
+        cursor.wrap(TEMPLATE, cursor.getBuffer(), 0);
+        cursor.next();
+        aggregator.add(cursor, 1999);
+        Assert.assertEquals(1, aggregator.getLateRecordCount());
+    }
+
+    @Test
+    public void testSlidingWindows() {
+        List<String> results = new ArrayList<>();
+        FlowAggregator aggregator = new FlowAggregator(SPEC, 3000, 1000, collect(results));
+        DataRecordCursor cursor = cursor(new int[][] {{0x0A000001, 80, 10}});
+        for (long time = 0; time < 4000; time += 1000) {
+            cursor.wrap(TEMPLATE, cursor.getBuffer(), 0);
+            cursor.next();
+            aggregator.add(cursor, time);
+        }
+        aggregator.flush();
+        Assert.assertEquals("[-2000-1000 a000000:80=10/0/1, -1000-2000 a000000:80=20/0/2, " +
+                            "0-3000 a000000:80=30/0/3, 1000-4000 a000000:80=30/0/3, " +
+                            "2000-5000 a000000:80=20/0/2, 3000-6000 a000000:80=10/0/1]",
+                            results.toString());
+        Assert.assertEquals(0, aggregator.getPaneCount());
+    }
+
+    @Test
+    public void testTableGrowsAndDropsWhenFull() {
+        AggregationTable table = new AggregationTable(1, 1, 2, 8);
+        long[] key = new long[1];
+        long[] values = {1};
+        for (int i = 0; i < 5; i++) {
+            key[0] = i;
+            Assert.assertTrue(table.add(key, AggregationTable.hash(key), values, 1));
+        }
+        Assert.assertEquals(8, table.getCapacity());
+        key[0] = 5;
+        Assert.assertFalse(table.add(key, AggregationTable.hash(key), values, 1));
+        key[0] = 4;
+        Assert.assertTrue(table.add(key, AggregationTable.hash(key), values, 1));
+        Assert.assertEquals(5, table.size());
+
+        table.clear();
+        Assert.assertEquals(0, table.size());
+    }
+
+    private static AggregateConsumer collect(List<String> results) {
+        return (start, end, aggregate) -> results.add(
+                start + "-" + end + ' ' + Long.toHexString(aggregate.getKeyLong(0)) + ':' +
+                aggregate.getKeyLong(1) + '=' + aggregate.getValue(0) + '/' +
+                aggregate.getValue(1) + '/' + aggregate.getRecordCount());
+    }
+
+    private static DataRecordCursor cursor(int[][] records) {
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 10 * records.length);
+        buffer.putShort((short) 1000).putShort((short) buffer.capacity());
+        for (int[] record : records) {
+            buffer.putInt(record[0]).putShort((short) record[1]).putInt(record[2]);
+        }
+        return new DataRecordCursor().wrap(TEMPLATE, buffer, 0);
+    }
+}
@@ -0,0 +1,129 @@
+package ir.sahab.ipfix.capture;
+
+import ir.sahab.ipfix.IpfixMessage;
+import ir.sahab.ipfix.RecordFactory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * These tests write messages to a capture spanning several segments and read them back.
+ */
+public class CaptureTest {
+    private static final SocketAddress EXPORTER = new InetSocketAddress("10.0.0.1", 4739);
+    private static final SocketAddress IPV6_EXPORTER = new InetSocketAddress("::1", 4740);
+    // Smallest segment size, so messages span several segments
+    private static final int SEGMENT_SIZE = 16 + 32 + 0xffff + 4;
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        writeMessages(300);
+        Assert.assertTrue(CaptureFormat.listSegments(directory).size() > 3);
+
+        RecordFactory recordFactory = new RecordFactory();
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            for (int i = 0; i < 300; i++) {
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(1000L + i, reader.getCaptureTime());
+                Assert.assertEquals(i % 3 == 0 ? null : i % 3 == 1 ? EXPORTER : IPV6_EXPORTER,
+                                    reader.getExporter());
+                ByteBuffer message = reader.getMessage();
+                Assert.assertEquals(messageLength(i), message.remaining());
+                IpfixMessage ipfixMessage = IpfixMessage.decode(message, recordFactory,
+                                                                setId -> false);
+                Assert.assertEquals(i, ipfixMessage.getSequenceNum());
+            }
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testSeek() throws IOException {
+        writeMessages(300);
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            for (long time : new long[] {1000, 1001, 1150, 1299}) {
+                reader.seek(time);
+                Assert.assertTrue(reader.next());
+                Assert.assertEquals(time, reader.getCaptureTime());
+            }
+            reader.seek(0);
+            Assert.assertTrue(reader.next());
+            Assert.assertEquals(1000, reader.getCaptureTime());
+            reader.seek(1300);
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        writeMessages(50);
+        List<Long> sequenceNumbers = new ArrayList<>();
+        try (CaptureReader reader = new CaptureReader(directory)) {
+            reader.seek(1040);
+            long start = System.nanoTime();
+            Assert.assertEquals(10, reader.replay((exporter, packet) -> sequenceNumbers.add(
+                    IpfixMessage.peekHeader(packet).getSequenceNum()), true));
+            // Messages were captured 1 millisecond apart.
+            Assert.assertTrue(System.nanoTime() - start >= 9_000_000);
+        }
+        Assert.assertEquals(40, (long) sequenceNumbers.get(0));
+        Assert.assertEquals(49, (long) sequenceNumbers.get(9));
+    }
+
+    private void writeMessages(int count) throws IOException {
+        try (CaptureWriter writer = new CaptureWriter(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < count; i++) {
+                SocketAddress exporter = i % 3 == 0 ? null : i % 3 == 1 ? EXPORTER : IPV6_EXPORTER;
+                writer.write(exporter, 1000 + i, createMessage(i));
+            }
+            Assert.assertEquals(count, writer.getMessageCount());
+        }
+    }
+
+    private static int messageLength(int sequenceNum) {
+        // Header, or header and a set of at least 4 bytes
+        int length = 16 + sequenceNum * 37 % 2000;
+        return length > 16 && length < 20 ? 20 : length;
+    }
+
+    /**
+     * @return a message padded to its length by a data set of an undefined template.
+     */
+    private static ByteBuffer createMessage(int sequenceNum) {
+        int length = messageLength(sequenceNum);
+        ByteBuffer message = ByteBuffer.allocate(length);
+        message.putShort((short) 10).putShort((short) length).putInt(0).putInt(sequenceNum)
+               .putInt(1);
+        if (length > 16) {
+            message.putShort((short) 300).putShort((short) (length - 16));
+        }
+        message.clear();
+        return message;
+    }
+}
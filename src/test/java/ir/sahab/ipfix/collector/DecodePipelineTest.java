@@ -0,0 +1,114 @@
+package ir.sahab.ipfix.collector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * These tests feed packets of several exporters and observation domains to a
+ * {@link DecodePipeline} from several threads, and check how they are sharded to workers.
+ */
+public class DecodePipelineTest {
+
+    private static final int EXPORTER_COUNT = 8;
+    private static final int DOMAIN_COUNT = 4;
+    private static final int PACKETS_PER_DOMAIN = 2000;
+
+    @Test
+    public void testShardingByExporterAndDomain() throws Exception {
+        List<RecordingSink> sinks = new ArrayList<>();
+        DecodePipeline pipeline = new DecodePipeline(4, 1 << 16, () -> {
+            RecordingSink sink = new RecordingSink();
+            sinks.add(sink);
+            return sink;
+        });
+        pipeline.start();
+
+        // Each producer thread sends all packets of two exporters.
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < EXPORTER_COUNT / 2; p++) {
+            int firstExporter = 2 * p;
+            Thread producer = new Thread(() -> {
+                ByteBuffer packet = ByteBuffer.allocate(20);
+                for (int i = 0; i < PACKETS_PER_DOMAIN; i++) {
+                    for (int e = firstExporter; e < firstExporter + 2; e++) {
+                        for (int domain = 0; domain < DOMAIN_COUNT; domain++) {
+                            packet.clear();
+                            packet.putShort((short) 10).putShort((short) 20).putInt(0).putInt(i)
+                                  .putInt(domain).putInt(e).flip();
+                            pipeline.onPacket(exporter(e), packet);
+                            Assert.assertEquals(0, packet.position());
+                        }
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pipeline.close();
+
+        Assert.assertEquals(0, pipeline.getDroppedCount());
+        Map<String, RecordingSink> sinkOfDomain = new HashMap<>();
+        int packetCount = 0;
+        for (RecordingSink sink : sinks) {
+            packetCount += sink.packetCount;
+            for (Map.Entry<String, Long> lastSequence : sink.lastSequenceNums.entrySet()) {
+                // Every domain is handled by one worker, and its packets are all received in order
+                Assert.assertNull(sinkOfDomain.put(lastSequence.getKey(), sink));
+                Assert.assertEquals(PACKETS_PER_DOMAIN - 1, (long) lastSequence.getValue());
+            }
+        }
+        Assert.assertEquals(EXPORTER_COUNT * DOMAIN_COUNT * PACKETS_PER_DOMAIN, packetCount);
+        Assert.assertEquals(EXPORTER_COUNT * DOMAIN_COUNT, sinkOfDomain.size());
+        Assert.assertEquals(0, pipeline.getSinkErrorCount());
+    }
+
+    @Test
+    public void testFullQueueDropsPackets() {
+        DecodePipeline pipeline = new DecodePipeline(1, 4, RecordingSink::new);
+        ByteBuffer packet = ByteBuffer.allocate(16);
+        for (int i = 0; i < 6; i++) {
+            packet.putInt(8, i);
+            pipeline.onPacket(exporter(0), packet);
+        }
+        pipeline.onPacket(exporter(0), ByteBuffer.allocate(10));
+        Assert.assertEquals(2, pipeline.getDroppedCount());
+        Assert.assertEquals(1, pipeline.getMalformedCount());
+
+        // Queued packets are handled after start
+        pipeline.start();
+        pipeline.close();
+        Assert.assertEquals(4, ((RecordingSink) pipeline.getWorkerSink(0)).packetCount);
+    }
+
+    private static SocketAddress exporter(int index) {
+        return new InetSocketAddress("10.0.0." + (index + 1), 4739);
+    }
+
+    /**
+     * Checks that sequence numbers of each exporter and domain increase one by one.
+     */
+    private static class RecordingSink implements PacketSink {
+        private final Map<String, Long> lastSequenceNums = new HashMap<>();
+        private int packetCount;
+
+        @Override
+        public void onPacket(SocketAddress exporter, ByteBuffer packet) {
+            long sequenceNum = packet.getInt(packet.position() + 8);
+            String key = exporter + "/" + packet.getInt(packet.position() + 12);
+            Long last = lastSequenceNums.put(key, sequenceNum);
+            Assert.assertEquals(last == null ? 0 : last + 1, sequenceNum);
+            packetCount++;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package ir.sahab.ipfix.collector;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * These tests feed a stream of messages to {@link MessageFramer} in chunks of different sizes
+ * and check the messages it hands off.
+ */
+public class MessageFramerTest {
+
+    private static final SocketAddress EXPORTER = new InetSocketAddress("10.0.0.1", 4739);
+
+    @Test
+    public void testMessagesSpanningReads() {
+        List<byte[]> messages = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            // Sizes from header-only messages to maximum message size
+            messages.add(createMessage(i == 49 ? 0xffff : 16 + i * 997 % 3000, i));
+        }
+        ByteBuffer stream = ByteBuffer.allocate(messages.stream().mapToInt(m -> m.length).sum());
+        messages.forEach(stream::put);
+
+        for (int chunkSize : new int[] {1, 7, 16, 1000, 0xffff, stream.capacity()}) {
+            MessageFramer framer = new MessageFramer();
+            List<byte[]> received = new ArrayList<>();
+            PacketSink sink = (exporter, packet) -> {
+                Assert.assertSame(EXPORTER, exporter);
+                byte[] message = new byte[packet.remaining()];
+                packet.get(message);
+                received.add(message);
+            };
+            for (int offset = 0; offset < stream.capacity(); offset += chunkSize) {
+                ByteBuffer chunk = ByteBuffer.wrap(stream.array(), offset,
+                                                   Math.min(chunkSize, stream.capacity() - offset));
+                framer.write(chunk, EXPORTER, sink);
+                Assert.assertFalse(chunk.hasRemaining());
+            }
+            Assert.assertEquals(0, framer.getBufferedBytes());
+            Assert.assertEquals(messages.size(), received.size());
+            for (int i = 0; i < messages.size(); i++) {
+                Assert.assertTrue(Arrays.equals(messages.get(i), received.get(i)));
+            }
+        }
+    }
+
+    @Test
+    public void testPartialMessageIsKept() {
+        MessageFramer framer = new MessageFramer();
+        List<Integer> lengths = new ArrayList<>();
+        byte[] message = createMessage(100, 1);
+        framer.write(ByteBuffer.wrap(message, 0, 60), EXPORTER,
+                     (exporter, packet) -> lengths.add(packet.remaining()));
+        Assert.assertTrue(lengths.isEmpty());
+        Assert.assertEquals(60, framer.getBufferedBytes());
+        framer.write(ByteBuffer.wrap(message, 60, 40), EXPORTER,
+                     (exporter, packet) -> lengths.add(packet.remaining()));
+        Assert.assertEquals(Arrays.asList(100), lengths);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLength() {
+        new MessageFramer().write(ByteBuffer.wrap(createMessage(16, 1), 0, 16).duplicate()
+                                            .putShort(2, (short) 8),
+                                  EXPORTER, (exporter, packet) -> { });
+    }
+
+    private static byte[] createMessage(int length, int sequenceNum) {
+        ByteBuffer message = ByteBuffer.allocate(length);
+        message.putShort((short) 10).putShort((short) length).putInt(0).putInt(sequenceNum)
+               .putInt(1);
+        while (message.hasRemaining()) {
+            message.put((byte) (message.position() + sequenceNum));
+        }
+        return message.array();
+    }
+}
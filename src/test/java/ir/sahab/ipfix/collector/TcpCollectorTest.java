@@ -0,0 +1,90 @@
+package ir.sahab.ipfix.collector;
+
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.IpfixMessage;
+import ir.sahab.ipfix.RecordFactory;
+import ir.sahab.ipfix.RecordSet;
+import ir.sahab.ipfix.TemplateRecord;
+import ir.sahab.ipfix.TemplateRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * These tests send a stream of IPFIX messages to a {@link TcpCollector} over loopback and check
+ * the decoded messages.
+ */
+public class TcpCollectorTest {
+
+    @Test
+    public void testReceiveStream() throws Exception {
+        BlockingQueue<IpfixMessage> messages = new LinkedBlockingQueue<>();
+        TcpCollector collector = new TcpCollector(new InetSocketAddress("127.0.0.1", 0),
+                                                  new DecodingSink(new RecordFactory(), messages::add));
+        collector.start();
+        try (SocketChannel exporter = SocketChannel.open(collector.getLocalAddress())) {
+            IpfixMessage templateMessage = new IpfixMessage(10, 0, 0, 1).addSet(
+                    new RecordSet<TemplateRecord>(2).addRecord(
+                            new TemplateRecord(1000).addField(new FieldSpecifier(1, 8))));
+            byte[] encodedTemplateMessage = templateMessage.encode();
+
+            // Three messages written as one segment, split in the middle of the second one
+            ByteBuffer stream = ByteBuffer.allocate(3 * encodedTemplateMessage.length);
+            stream.put(encodedTemplateMessage).put(encodedTemplateMessage)
+                  .put(encodedTemplateMessage).flip();
+            stream.limit(encodedTemplateMessage.length + 5);
+            exporter.write(stream);
+            Assert.assertEquals(templateMessage, messages.poll(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            stream.limit(stream.capacity());
+            exporter.write(stream);
+            Assert.assertEquals(templateMessage, messages.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(templateMessage, messages.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(1, collector.getConnectionCount());
+            Assert.assertEquals(3, collector.getMessageCount());
+
+            // A broken length closes the connection.
+            exporter.write(ByteBuffer.wrap(new byte[] {0, 10, 0, 4}));
+            exporter.write(ByteBuffer.wrap(new byte[12]));
+            Assert.assertEquals(-1, exporter.read(ByteBuffer.allocate(1)));
+            Assert.assertEquals(1, collector.getFramingErrorCount());
+        } finally {
+            collector.close();
+        }
+    }
+
+    @Test
+    public void testSessionCloseRemovesTemplates() throws Exception {
+        BlockingQueue<IpfixMessage> messages = new LinkedBlockingQueue<>();
+        TemplateRegistry registry = new TemplateRegistry();
+        TcpCollector collector = new TcpCollector(
+                new InetSocketAddress("127.0.0.1", 0),
+                new DecodingSink(new RecordFactory(registry), messages::add));
+        collector.start();
+        try {
+            SocketChannel exporter = SocketChannel.open(collector.getLocalAddress());
+            IpfixMessage templateMessage = new IpfixMessage(10, 0, 0, 1).addSet(
+                    new RecordSet<TemplateRecord>(2).addRecord(
+                            new TemplateRecord(1000).addField(new FieldSpecifier(1, 8))));
+            exporter.write(ByteBuffer.wrap(templateMessage.encode()));
+            Assert.assertNotNull(messages.poll(5, TimeUnit.SECONDS));
+            Assert.assertNotNull(registry.getTemplate(exporter.getLocalAddress(), 1, 1000));
+
+            // Templates of a session must not outlive it.
+            exporter.close();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (registry.getTemplateCount() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(0, registry.getTemplateCount());
+        } finally {
+            collector.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ir.sahab.ipfix.collector;
+
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.IpfixMessage;
+import ir.sahab.ipfix.RecordFactory;
+import ir.sahab.ipfix.RecordSet;
+import ir.sahab.ipfix.TemplateRecord;
+import ir.sahab.ipfix.TemplateRegistry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * These tests send IPFIX messages to a {@link UdpCollector} over loopback and check the decoded
+ * messages.
+ */
+public class UdpCollectorTest {
+
+    private static final TemplateRecord TEMPLATE =
+            new TemplateRecord(1000).addField(new FieldSpecifier(1, 8))
+                                    .addField(new FieldSpecifier(2, 4));
+
+    @Test
+    public void testReceiveAndDecode() throws Exception {
+        BlockingQueue<IpfixMessage> messages = new LinkedBlockingQueue<>();
+        List<DecodingSink> sinks = new ArrayList<>();
+        UdpCollector collector = new UdpCollector(new InetSocketAddress("127.0.0.1", 0), 1, () -> {
+            DecodingSink sink = new DecodingSink(new RecordFactory(), messages::add);
+            sinks.add(sink);
+            return sink;
+        });
+        collector.start();
+        try (DatagramChannel exporter = DatagramChannel.open()) {
+            exporter.connect(collector.getLocalAddress());
+
+            // Data before its template is dropped.
+            exporter.write(ByteBuffer.wrap(createDataMessage(1)));
+            exporter.write(ByteBuffer.wrap(createTemplateMessage().encode()));
+            exporter.write(ByteBuffer.wrap(createDataMessage(2)));
+            exporter.write(ByteBuffer.wrap(new byte[] {0, 10, 0, 16}));
+
+            Assert.assertEquals(createTemplateMessage(), messages.poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(decodeDataMessage(2), messages.poll(5, TimeUnit.SECONDS));
+            waitFor(() -> collector.getPacketCount() == 4);
+            Assert.assertEquals(4, collector.getPacketCount());
+            DecodingSink sink = sinks.get(0);
+            waitFor(() -> sink.getMalformedCount() == 1);
+            Assert.assertEquals(2, sink.getDecodedCount());
+            Assert.assertEquals(1, sink.getTemplateNotDefinedCount());
+            Assert.assertEquals(1, sink.getMalformedCount());
+        } finally {
+            collector.close();
+        }
+        Assert.assertFalse(collector.isRunning());
+    }
+
+    @Test
+    public void testMultipleReceivers() throws Exception {
+        BlockingQueue<IpfixMessage> messages = new LinkedBlockingQueue<>();
+        TemplateRegistry registry = new TemplateRegistry();
+        UdpCollector collector = new UdpCollector(new InetSocketAddress("127.0.0.1", 0), 2,
+                () -> new DecodingSink(new RecordFactory(registry), messages::add));
+        try {
+            collector.start();
+        } catch (UnsupportedOperationException e) {
+            // SO_REUSEPORT is not available on this platform.
+            return;
+        }
+        try (DatagramChannel exporter = DatagramChannel.open()) {
+            exporter.connect(collector.getLocalAddress());
+            exporter.write(ByteBuffer.wrap(createTemplateMessage().encode()));
+            Assert.assertEquals(createTemplateMessage(), messages.poll(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 10; i++) {
+                exporter.write(ByteBuffer.wrap(createDataMessage(i)));
+                Assert.assertEquals(decodeDataMessage(i), messages.poll(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            collector.close();
+        }
+    }
+
+    private static void waitFor(Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.holds() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static IpfixMessage createTemplateMessage() {
+        return new IpfixMessage(10, 1000, 0, 1)
+                .addSet(new RecordSet<TemplateRecord>(2).addRecord(TEMPLATE));
+    }
+
+    private static byte[] createDataMessage(long sequenceNum) {
+        // 16 bytes message header, 4 bytes set header and 12 bytes record
+        ByteBuffer message = ByteBuffer.allocate(32);
+        message.putShort((short) 10).putShort((short) 32).putInt(1000).putInt((int) sequenceNum)
+               .putInt(1);
+        message.putShort((short) 1000).putShort((short) 16);
+        message.putLong(sequenceNum * 100).putInt((int) sequenceNum);
+        return message.array();
+    }
+
+    /**
+     * @return the data message decoded by a factory that knows the template.
+     */
+    private static IpfixMessage decodeDataMessage(long sequenceNum) {
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.registerGenericRecordType(TEMPLATE);
+        return IpfixMessage.decode(createDataMessage(sequenceNum), recordFactory);
+    }
+}
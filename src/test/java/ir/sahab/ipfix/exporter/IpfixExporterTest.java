@@ -0,0 +1,223 @@
+package ir.sahab.ipfix.exporter;
+
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.GenericRecord;
+import ir.sahab.ipfix.IpfixMessage;
+import ir.sahab.ipfix.OptionsTemplateRecord;
+import ir.sahab.ipfix.Record;
+import ir.sahab.ipfix.RecordFactory;
+import ir.sahab.ipfix.RecordSet;
+import ir.sahab.ipfix.TemplateRecord;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * These tests export records by an {@link IpfixExporter} and decode the messages it sends.
+ */
+public class IpfixExporterTest {
+
+    private static final TemplateRecord TEMPLATE =
+            new TemplateRecord(1000).addField(new FieldSpecifier(1, 8))
+                                    .addField(new FieldSpecifier(2, 4));
+
+    @Test
+    public void testPackMessages() throws IOException {
+        BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        // Room for the template set and 4 records, or for 7 records in later messages.
+        IpfixExporter exporter = new IpfixExporter(1, 16 + 4 + 12 + 4 + 7 * 12, copyTo(messages));
+        exporter.exportTemplate(TEMPLATE);
+        for (int i = 0; i < 10; i++) {
+            exporter.export(1000, new FlowRecord(i * 100, i));
+        }
+        Assert.assertEquals(1, messages.size());
+        exporter.close();
+        Assert.assertEquals(2, messages.size());
+        Assert.assertEquals(2, exporter.getMessageCount());
+        Assert.assertEquals(11, exporter.getRecordCount());
+        Assert.assertEquals(10, exporter.getSequenceNumber());
+
+        RecordFactory recordFactory = new RecordFactory();
+        IpfixMessage message = IpfixMessage.decode(messages.poll(), recordFactory);
+        Assert.assertEquals(0, message.getSequenceNum());
+        Assert.assertEquals(1, message.getObservationDomainId());
+        Assert.assertEquals(2, message.getRecordSets().size());
+        Assert.assertEquals(TEMPLATE, recordFactory.getTemplate(1000));
+        assertFlows(message.getRecordSets().get(1), 0, 7);
+
+        message = IpfixMessage.decode(messages.poll(), recordFactory);
+        Assert.assertEquals(7, message.getSequenceNum());
+        Assert.assertEquals(1, message.getRecordSets().size());
+        assertFlows(message.getRecordSets().get(0), 7, 3);
+    }
+
+    @Test
+    public void testLinger() throws Exception {
+        BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        IpfixExporter exporter = new IpfixExporter(1, 1452, copyTo(messages));
+        exporter.setLinger(20, TimeUnit.MILLISECONDS);
+        exporter.exportTemplate(TEMPLATE);
+        exporter.export(1000, new FlowRecord(100, 1));
+        byte[] message = messages.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(message);
+        exporter.close();
+        Assert.assertTrue(messages.isEmpty());
+
+        RecordFactory recordFactory = new RecordFactory();
+        assertFlows(IpfixMessage.decode(message, recordFactory).getRecordSets().get(1), 1, 1);
+    }
+
+    @Test
+    public void testDisableLinger() throws Exception {
+        BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        IpfixExporter exporter = new IpfixExporter(1, 1452, copyTo(messages));
+        exporter.setLinger(20, TimeUnit.MILLISECONDS);
+        exporter.setLinger(0, TimeUnit.MILLISECONDS);
+        exporter.exportTemplate(TEMPLATE);
+        exporter.export(1000, new FlowRecord(100, 1));
+        Assert.assertNull(messages.poll(100, TimeUnit.MILLISECONDS));
+
+        // Linger thread parked by zero linger resumes flushing.
+        exporter.setLinger(20, TimeUnit.MILLISECONDS);
+        Assert.assertNotNull(messages.poll(5, TimeUnit.SECONDS));
+        exporter.close();
+        Assert.assertTrue(messages.isEmpty());
+    }
+
+    @Test
+    public void testTemplateRefreshByPacketCount() throws IOException {
+        BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        // Room for templates and 2 records, or for 3 records
+        IpfixExporter exporter = new IpfixExporter(1, 16 + 4 + 12 + 4 + 2 * 12, copyTo(messages));
+        exporter.setTemplateRefreshPacketCount(2);
+        exporter.registerTemplate(TEMPLATE);
+        for (int i = 0; i < 10; i++) {
+            exporter.export(1000, new FlowRecord(i * 100, i));
+        }
+        exporter.close();
+        Assert.assertEquals(4, exporter.getMessageCount());
+        Assert.assertEquals(2, exporter.getTemplateRefreshCount());
+
+        // Templates are sent in the first message, and then in every other message.
+        int first = 0;
+        for (int i = 0; !messages.isEmpty(); i++) {
+            RecordFactory recordFactory = new RecordFactory();
+            recordFactory.registerGenericRecordType(TEMPLATE);
+            IpfixMessage message = IpfixMessage.decode(messages.poll(), recordFactory);
+            List<RecordSet> recordSets = message.getRecordSets();
+            Assert.assertEquals(i % 2 == 0, recordSets.get(0).isTemplateSet());
+            RecordSet<?> dataSet = recordSets.get(recordSets.size() - 1);
+            assertFlows(dataSet, first, dataSet.getRecords().size());
+            first += dataSet.getRecords().size();
+        }
+        Assert.assertEquals(10, first);
+    }
+
+    @Test
+    public void testTemplateRefreshByTimeout() throws Exception {
+        BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        IpfixExporter exporter = new IpfixExporter(1, 1452, copyTo(messages));
+        exporter.setTemplateRefreshTimeout(20, TimeUnit.MILLISECONDS);
+        exporter.registerTemplate(TEMPLATE);
+        exporter.export(1000, new FlowRecord(0, 0));
+        exporter.flush();
+        exporter.export(1000, new FlowRecord(100, 1));
+        exporter.flush();
+        Thread.sleep(30);
+        exporter.export(1000, new FlowRecord(200, 2));
+        exporter.close();
+
+        RecordFactory recordFactory = new RecordFactory();
+        Assert.assertEquals(2, IpfixMessage.decode(messages.poll(), recordFactory)
+                                           .getRecordSets().size());
+        Assert.assertEquals(1, IpfixMessage.decode(messages.poll(), recordFactory)
+                                           .getRecordSets().size());
+        Assert.assertEquals(2, IpfixMessage.decode(messages.poll(), recordFactory)
+                                           .getRecordSets().size());
+    }
+
+    @Test
+    public void testRegisterOptionsTemplate() throws IOException {
+        BlockingQueue<byte[]> messages = new LinkedBlockingQueue<>();
+        IpfixExporter exporter = new IpfixExporter(1, 1452, copyTo(messages));
+        OptionsTemplateRecord optionsTemplate = new OptionsTemplateRecord(1001, 1);
+        optionsTemplate.addField(new FieldSpecifier(302, 4)).addField(new FieldSpecifier(305, 4));
+        exporter.registerTemplate(TEMPLATE);
+        exporter.registerTemplate(optionsTemplate);
+        exporter.export(1000, new FlowRecord(100, 1));
+        exporter.close();
+
+        RecordFactory recordFactory = new RecordFactory();
+        IpfixMessage message = IpfixMessage.decode(messages.poll(), recordFactory);
+        Assert.assertEquals(3, message.getRecordSets().size());
+        Assert.assertTrue(message.getRecordSets().get(1).isOptionsTemplateSet());
+        Assert.assertEquals(TEMPLATE, recordFactory.getTemplate(1000));
+        Assert.assertEquals(optionsTemplate, recordFactory.getTemplate(1001));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordLongerThanMessage() throws IOException {
+        IpfixExporter exporter = new IpfixExporter(1, 16 + 4 + 8, copyTo(null));
+        exporter.export(1000, new FlowRecord(1, 1));
+    }
+
+    private static void assertFlows(RecordSet<?> recordSet, int first, int count) {
+        Assert.assertEquals(1000, recordSet.getSetId());
+        List<?> records = recordSet.getRecords();
+        Assert.assertEquals(count, records.size());
+        for (int i = 0; i < count; i++) {
+            GenericRecord record = (GenericRecord) records.get(i);
+            ByteBuffer values = ByteBuffer.allocate(12);
+            values.put(record.getFieldValues().get(0).getValue());
+            values.put(record.getFieldValues().get(1).getValue());
+            values.flip();
+            Assert.assertEquals((first + i) * 100L, values.getLong());
+            Assert.assertEquals(first + i, values.getInt());
+        }
+    }
+
+    private static MessageSender copyTo(BlockingQueue<byte[]> messages) {
+        return message -> {
+            byte[] copy = new byte[message.remaining()];
+            message.get(copy);
+            messages.add(copy);
+        };
+    }
+
+    private static class FlowRecord implements Record {
+        private final long octets;
+        private final int packets;
+
+        FlowRecord(long octets, int packets) {
+            this.octets = octets;
+            this.packets = packets;
+        }
+
+        @Override
+        public void encode(ByteBuffer byteBuffer) {
+            byteBuffer.putLong(octets);
+            byteBuffer.putInt(packets);
+        }
+
+        @Override
+        public void decodeFrom(ByteBuffer messageBuffer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int length() {
+            return 12;
+        }
+
+        @Override
+        public int minimumLength() {
+            return 12;
+        }
+    }
+}
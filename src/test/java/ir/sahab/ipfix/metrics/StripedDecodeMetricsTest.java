@@ -0,0 +1,117 @@
+package ir.sahab.ipfix.metrics;
+
+import ir.sahab.ipfix.IpfixMessage;
+import ir.sahab.ipfix.RecordFactory;
+import ir.sahab.ipfix.TemplateNotDefinedException;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+public class StripedDecodeMetricsTest {
+
+    @Test
+    public void testDecodeEvents() {
+        StripedDecodeMetrics metrics = new StripedDecodeMetrics();
+        RecordFactory recordFactory = new RecordFactory();
+        recordFactory.setMetrics(metrics);
+
+        IpfixMessage.decode(createMessage(7, true, 1000, 3), recordFactory);
+        IpfixMessage.decode(createMessage(7, false, 1000, 2), recordFactory);
+        try {
+            IpfixMessage.decode(createMessage(7, false, 2000, 1), recordFactory);
+            Assert.fail();
+        } catch (TemplateNotDefinedException e) {
+            // expected
+        }
+        ByteBuffer malformed = createMessage(7, false, 1000, 1);
+        malformed.limit(malformed.limit() - 1);
+        try {
+            IpfixMessage.decode(malformed, recordFactory);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        recordFactory.setLenientDecoding(true);
+        IpfixMessage.decode(createMessage(8, false, 2000, 1), recordFactory);
+
+        Assert.assertEquals(3, metrics.getMessageCount());
+        Assert.assertEquals(44 + 28 + 24, metrics.getByteCount());
+        Assert.assertEquals(3, metrics.getSetCount());
+        // Template record and data records
+        Assert.assertEquals(1 + 3 + 2, metrics.getRecordCount());
+        Assert.assertEquals(1, metrics.getTemplateRegistrationCount());
+        Assert.assertEquals(2, metrics.getTemplateNotDefinedCount());
+        Assert.assertEquals(1, metrics.getMalformedMessageCount());
+        Assert.assertEquals(3, metrics.getDecodeLatency().getCount());
+
+        StripedDecodeMetrics.Counters domain = metrics.getDomainCounters(7);
+        Assert.assertEquals(2, domain.getMessageCount());
+        Assert.assertEquals(44 + 28, domain.getByteCount());
+        Assert.assertEquals(3, domain.getSetCount());
+        StripedDecodeMetrics.Counters template = metrics.getTemplateCounters(7, 1000);
+        Assert.assertEquals(2, template.getSetCount());
+        Assert.assertEquals(5, template.getRecordCount());
+        Assert.assertEquals(16 + 12, template.getByteCount());
+        Assert.assertEquals(1, metrics.getTemplateCounters(7, 2).getSetCount());
+        Assert.assertEquals(2, metrics.getDomainCounters().size());
+        Assert.assertEquals(2, metrics.getTemplateCounters().size());
+        Assert.assertEquals(0, metrics.getDomainCounters(8).getSetCount());
+    }
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1_000_000, histogram.getMax());
+        Assert.assertEquals(500_500_000, histogram.getTotal());
+        assertNear(500_000, histogram.getValueAtPercentile(50));
+        assertNear(990_000, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        histogram.reset();
+        Assert.assertEquals(0, histogram.getCount());
+
+        // Buckets are contiguous and each value falls in its own bucket.
+        for (long value : new long[] {0, 1, 63, 64, 65, 1000, 1L << 40, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue(LatencyHistogram.lowestValue(index) <= value);
+            Assert.assertTrue(LatencyHistogram.highestValue(index) >= value);
+            if (value != Long.MAX_VALUE) {
+                Assert.assertEquals(LatencyHistogram.highestValue(index) + 1,
+                                    LatencyHistogram.lowestValue(index + 1));
+            }
+        }
+    }
+
+    private static void assertNear(long expected, long actual) {
+        Assert.assertTrue(actual + " is not near " + expected,
+                          Math.abs(actual - expected) <= expected * 0.04);
+    }
+
+    /**
+     * @return a message of an optional template set of template 1000 with a four bytes field, and
+     * a data set of the given template.
+     */
+    private static ByteBuffer createMessage(long domainId, boolean withTemplate, int templateId,
+                                            int recordCount) {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.position(16);
+        if (withTemplate) {
+            buffer.putShort((short) 2).putShort((short) 12);
+            buffer.putShort((short) 1000).putShort((short) 1);
+            buffer.putShort((short) 1).putShort((short) 4);
+        }
+        buffer.putShort((short) templateId).putShort((short) (4 + recordCount * 4));
+        for (int i = 0; i < recordCount; i++) {
+            buffer.putInt(i);
+        }
+        buffer.flip();
+        buffer.putShort(0, (short) 10).putShort(2, (short) buffer.limit())
+              .putInt(4, 0).putInt(8, 0).putInt(12, (int) domainId);
+        return buffer;
+    }
+}
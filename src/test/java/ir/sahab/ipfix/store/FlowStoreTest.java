@@ -0,0 +1,192 @@
+package ir.sahab.ipfix.store;
+
+import ir.sahab.ipfix.ColumnBatch;
+import ir.sahab.ipfix.FieldSpecifier;
+import ir.sahab.ipfix.TemplateRecord;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+public class FlowStoreTest {
+    // flowStartMilliseconds, sourceIPv4Address, octetDeltaCount, sourceIPv6Address, interfaceName
+    private static final TemplateRecord TEMPLATE = new TemplateRecord(1000)
+            .addField(new FieldSpecifier(152, 8))
+            .addField(new FieldSpecifier(8, 4))
+            .addField(new FieldSpecifier(1, 8))
+            .addField(new FieldSpecifier(27, 16))
+            .addField(new FieldSpecifier(82));
+    // Enterprise-specific field of unknown type
+    private static final TemplateRecord OTHER_TEMPLATE = new TemplateRecord(1001)
+            .addField(new FieldSpecifier(100, 4, 9));
+    private static final int RECORDS_PER_SET = 50;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("flows", ".store");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long rawBytes = 0;
+        try (FlowStoreWriter writer = new FlowStoreWriter(file, 1000)) {
+            for (int set = 0; set < 50; set++) {
+                int end = writeSet(buffer, set * RECORDS_PER_SET);
+                writer.addSet(TEMPLATE, buffer, 0);
+                rawBytes += end;
+            }
+            Assert.assertEquals(2, writer.getSegmentCount());
+            Assert.assertEquals(2000, writer.getRecordCount());
+
+            buffer.putShort(0, (short) 1001).putShort(2, (short) 8).putInt(4, -1);
+            writer.addSet(OTHER_TEMPLATE, buffer, 0);
+            writer.flush();
+            Assert.assertEquals(4, writer.getSegmentCount());
+            Assert.assertEquals(2501, writer.getRecordCount());
+            Assert.assertTrue(writer.getByteCount() * 4 < rawBytes);
+        }
+
+        ColumnBatch batch = new ColumnBatch(16);
+        int record = 0;
+        try (FlowStoreReader reader = new FlowStoreReader(file)) {
+            TemplateRecord templateRecord = null;
+            while (reader.next() && reader.getTemplateRecord().getTemplateId() == 1000) {
+                Assert.assertEquals(TEMPLATE, reader.getTemplateRecord());
+                if (templateRecord != null) {
+                    Assert.assertSame(templateRecord, reader.getTemplateRecord());
+                }
+                templateRecord = reader.getTemplateRecord();
+                int first = record;
+                Assert.assertTrue(reader.hasRange(0));
+                Assert.assertFalse(reader.hasRange(3));
+                Assert.assertEquals(startTime(first), reader.getMin(0));
+                Assert.assertEquals(startTime(first + reader.getRecordCount() - 1),
+                                    reader.getMax(0));
+
+                reader.read(batch);
+                Assert.assertEquals(reader.getRecordCount(), batch.getRecordCount());
+                for (int i = 0; i < batch.getRecordCount(); i++, record++) {
+                    Assert.assertEquals(startTime(record), batch.getLongs(0)[i]);
+                    Assert.assertEquals(address(record), batch.getInts(1)[i]);
+                    Assert.assertEquals(octets(record), batch.getLongs(2)[i]);
+                    Assert.assertEquals(16, batch.getLengths(3)[i]);
+                    Assert.assertEquals((byte) (record % 7),
+                                        batch.getHeap()[batch.getOffsets(3)[i] + 15]);
+                    Assert.assertEquals(interfaceName(record),
+                                        new String(batch.getHeap(), batch.getOffsets(4)[i],
+                                                   batch.getLengths(4)[i], StandardCharsets.UTF_8));
+                }
+            }
+            Assert.assertEquals(2500, record);
+            Assert.assertEquals(1001, reader.getTemplateRecord().getTemplateId());
+            Assert.assertEquals(9, reader.getTemplateRecord().getFieldSpecifiers().get(0)
+                                         .getEnterpriseNum());
+            Assert.assertEquals(0xFFFFFFFFL, reader.getMin(0));
+            reader.read(batch);
+            Assert.assertEquals(-1, batch.getInts(0)[0]);
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void testRangeScan() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FlowStoreWriter writer = new FlowStoreWriter(file, RECORDS_PER_SET)) {
+            for (int set = 0; set < 10; set++) {
+                writeSet(buffer, set * RECORDS_PER_SET);
+                writer.addSet(TEMPLATE, buffer, 0);
+            }
+        }
+        // Records 120 to 130 are in the third segment.
+        long from = startTime(120);
+        long to = startTime(130);
+        ColumnBatch batch = new ColumnBatch(16);
+        int segmentsRead = 0;
+        int matched = 0;
+        try (FlowStoreReader reader = new FlowStoreReader(file)) {
+            while (reader.next()) {
+                if (!reader.mayContain(0, from, to)) {
+                    continue;
+                }
+                segmentsRead++;
+                reader.read(batch);
+                for (int i = 0; i < batch.getRecordCount(); i++) {
+                    long time = batch.getLongs(0)[i];
+                    if (time >= from && time <= to) {
+                        matched++;
+                    }
+                }
+            }
+        }
+        Assert.assertEquals(1, segmentsRead);
+        Assert.assertEquals(11, matched);
+    }
+
+    @Test
+    public void testTruncatedFile() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        try (FlowStoreWriter writer = new FlowStoreWriter(file, RECORDS_PER_SET)) {
+            for (int set = 0; set < 2; set++) {
+                writeSet(buffer, set * RECORDS_PER_SET);
+                writer.addSet(TEMPLATE, buffer, 0);
+            }
+        }
+        byte[] content = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(content, content.length - 1));
+        try (FlowStoreReader reader = new FlowStoreReader(file)) {
+            Assert.assertTrue(reader.next());
+            Assert.assertFalse(reader.next());
+        }
+    }
+
+    private static long startTime(int record) {
+        return 1_600_000_000_000L + record * 3L;
+    }
+
+    private static int address(int record) {
+        return 0x0A000000 + record % 16;
+    }
+
+    private static long octets(int record) {
+        return 40 + record % 1000;
+    }
+
+    private static String interfaceName(int record) {
+        return "eth" + record % 4;
+    }
+
+    /**
+     * Writes a set of records at the start of buffer.
+     *
+     * @return position after the set.
+     */
+    private static int writeSet(ByteBuffer buffer, int first) {
+        buffer.clear().position(4);
+        for (int record = first; record < first + RECORDS_PER_SET; record++) {
+            buffer.putLong(startTime(record));
+            buffer.putInt(address(record));
+            buffer.putLong(octets(record));
+            buffer.put(new byte[15]).put((byte) (record % 7));
+            byte[] name = interfaceName(record).getBytes(StandardCharsets.UTF_8);
+            buffer.put((byte) name.length).put(name);
+        }
+        int end = buffer.position();
+        buffer.putShort(0, (short) 1000).putShort(2, (short) end);
+        return end;
+    }
+}